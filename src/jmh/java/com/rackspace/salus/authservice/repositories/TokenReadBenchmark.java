@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.repositories;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rackspace.salus.telemetry.entities.EnvoyToken;
+import com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan.Filter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+/**
+ * Compares retrieving and serializing a 1000 token page as managed {@link EnvoyToken} entities,
+ * as the read endpoints previously did, with the DTO projection they now use. It runs against
+ * an in-memory H2 database, so the difference reflects the entity hydration and persistence
+ * context overhead rather than database latency. The allocation rate is reported by the gc
+ * profiler.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenReadBenchmark {
+
+  private static final String TENANT_ID = "t-1";
+  private static final int TOKEN_COUNT = 5000;
+  private static final int PAGE_SIZE = 1000;
+
+  private ConfigurableApplicationContext context;
+  private EnvoyTokenRepository repository;
+  private EnvoyTokenBatchRepository batchRepository;
+  private ObjectMapper objectMapper;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    context = new SpringApplicationBuilder(BenchmarkConfig.class)
+        .web(WebApplicationType.NONE)
+        .properties(
+            "spring.datasource.url=jdbc:h2:mem:tokens;MODE=MySQL;DB_CLOSE_DELAY=-1",
+            // only the envoy_tokens table is needed, so failures creating others are ignored
+            "spring.jpa.hibernate.ddl-auto=create-drop",
+            "spring.jpa.properties.hibernate.jdbc.batch_size=100"
+        )
+        .run();
+
+    repository = context.getBean(EnvoyTokenRepository.class);
+    batchRepository = context.getBean(EnvoyTokenBatchRepository.class);
+    objectMapper = context.getBean(ObjectMapper.class);
+
+    final List<EnvoyToken> tokens = IntStream.range(0, TOKEN_COUNT)
+        .mapToObj(i -> new EnvoyToken()
+            .setToken(UUID.randomUUID().toString())
+            .setTenantId(TENANT_ID)
+            .setDescription("host-" + i))
+        .collect(Collectors.toList());
+    batchRepository.insertAll(tokens);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public byte[] entityPage() throws Exception {
+    return objectMapper.writeValueAsBytes(
+        repository.findByTenantId(TENANT_ID, PageRequest.of(1, PAGE_SIZE)));
+  }
+
+  @Benchmark
+  public byte[] projectionPage() throws Exception {
+    return objectMapper.writeValueAsBytes(
+        batchRepository.findTokensOfTenant(TENANT_ID, PageRequest.of(1, PAGE_SIZE)));
+  }
+
+  @Configuration
+  @ImportAutoConfiguration({DataSourceAutoConfiguration.class,
+      HibernateJpaAutoConfiguration.class, TransactionAutoConfiguration.class,
+      JacksonAutoConfiguration.class})
+  @EntityScan(basePackageClasses = EnvoyToken.class)
+  @EnableJpaRepositories(basePackageClasses = EnvoyTokenRepository.class,
+      includeFilters = @Filter(type = FilterType.ASSIGNABLE_TYPE,
+          classes = EnvoyTokenRepository.class))
+  @Import(EnvoyTokenBatchRepository.class)
+  static class BenchmarkConfig {
+  }
+}
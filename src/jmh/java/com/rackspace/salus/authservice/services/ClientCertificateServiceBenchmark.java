@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.CacheProperties;
+import com.rackspace.salus.authservice.config.CertPoolProperties;
+import com.rackspace.salus.authservice.config.PkiLimiterProperties;
+import com.rackspace.salus.authservice.config.RequestExecutionProperties;
+import com.rackspace.salus.authservice.web.CertResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.vault.core.VaultPkiOperations;
+import org.springframework.vault.core.VaultTemplate;
+import org.springframework.vault.support.CertificateBundle;
+import org.springframework.vault.support.VaultCertificateResponse;
+
+/**
+ * Measures the PEM formatting of certificate material and the processing of a Vault PKI response
+ * where Vault is replaced by an in-memory stand-in that returns a fixed, realistically sized
+ * certificate bundle.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientCertificateServiceBenchmark {
+
+  private String certificate;
+  private String privateKey;
+  private ClientCertificateService clientCertificateService;
+
+  @Setup
+  public void setUp() {
+    // sizes of the base64 DER content of a typical 2048-bit RSA certificate and key
+    certificate = randomBase64(1000);
+    privateKey = randomBase64(1190);
+
+    final CertificateBundle certificateBundle = mock(CertificateBundle.class);
+    when(certificateBundle.getCertificate()).thenReturn(certificate);
+    when(certificateBundle.getIssuingCaCertificate()).thenReturn(certificate);
+    when(certificateBundle.getPrivateKey()).thenReturn(privateKey);
+    final VaultCertificateResponse response = new VaultCertificateResponse();
+    response.setData(certificateBundle);
+    final VaultPkiOperations pkiOperations = mock(VaultPkiOperations.class);
+    when(pkiOperations.issueCertificate(any(), any())).thenReturn(response);
+    final VaultTemplate vaultTemplate = mock(VaultTemplate.class);
+    when(vaultTemplate.opsForPki()).thenReturn(pkiOperations);
+
+    // uses a no-op cache manager to bypass the clientCerts cache
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final AuthProperties authProperties = new AuthProperties();
+    final VaultCertificateIssuer issuer = new VaultCertificateIssuer(vaultTemplate,
+        authProperties, new PkiLimiterProperties(), meterRegistry);
+    clientCertificateService = new ClientCertificateService(issuer,
+        new ClientCertificatePool(issuer, new CertPoolProperties(), meterRegistry),
+        new NoOpCacheManager(), authProperties, new CacheProperties(),
+        new RequestExecutionProperties(), new PkiLimiterProperties(), meterRegistry);
+  }
+
+  @Benchmark
+  public String formatCertificate() {
+    return VaultCertificateIssuer.formatCert(certificate, "CERTIFICATE");
+  }
+
+  @Benchmark
+  public String formatPrivateKey() {
+    return VaultCertificateIssuer.formatCert(privateKey, "RSA PRIVATE KEY");
+  }
+
+  @Benchmark
+  public CertResponse getClientCertificateUncached() {
+    return clientCertificateService.getClientCertificate("t-benchmark");
+  }
+
+  private static String randomBase64(int length) {
+    final byte[] bytes = new byte[length];
+    new Random(0).nextBytes(bytes);
+    return Base64.getEncoder().encodeToString(bytes).substring(0, length);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.telemetry.entities.EnvoyToken;
+import com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates an {@link EnvoyTokenRepository} stand-in backed by a map of token values. Only the
+ * lookup operations used on the validation path are supported.
+ */
+final class InMemoryEnvoyTokenRepository {
+
+  private InMemoryEnvoyTokenRepository() {
+  }
+
+  static EnvoyTokenRepository create(Map<String, EnvoyToken> tokensByValue) {
+    final Map<String, EnvoyToken> tokens = new ConcurrentHashMap<>(tokensByValue);
+
+    return (EnvoyTokenRepository) Proxy.newProxyInstance(
+        EnvoyTokenRepository.class.getClassLoader(),
+        new Class<?>[]{EnvoyTokenRepository.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "findByToken":
+              return Optional.ofNullable(tokens.get((String) args[0]));
+            case "save":
+              final EnvoyToken token = (EnvoyToken) args[0];
+              tokens.put(token.getToken(), token);
+              return token;
+            case "toString":
+              return "InMemoryEnvoyTokenRepository";
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        }
+    );
+  }
+}
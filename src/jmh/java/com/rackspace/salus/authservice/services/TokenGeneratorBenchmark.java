@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.AuthProperties.TokenEntropy;
+import com.rackspace.salus.authservice.config.DatabaseConfig;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures token generation using the same random source that is configured for the
+ * application, both single threaded and contended, as occurs during bulk allocation. Each is
+ * measured drawing from the shared random source and from the pool of DRBG instances.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenGeneratorBenchmark {
+
+  @Param({"SHARED", "POOLED"})
+  public TokenEntropy tokenEntropy;
+
+  private TokenGenerator tokenGenerator;
+
+  @Setup
+  public void setUp() {
+    tokenGenerator = new TokenGenerator(new DatabaseConfig().tokenRandom(), new AuthProperties()
+        .setTokenEntropy(tokenEntropy));
+  }
+
+  @Benchmark
+  @Threads(1)
+  public String generate() {
+    return tokenGenerator.generate();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public String generateContended() {
+    return tokenGenerator.generate();
+  }
+
+  @Benchmark
+  @Threads(8)
+  public List<String> generateBulkContended() {
+    return tokenGenerator.generate(100);
+  }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.CacheProperties;
+import com.rackspace.salus.authservice.config.InvalidTokenProperties;
+import com.rackspace.salus.authservice.config.LastUsedProperties;
+import com.rackspace.salus.authservice.config.ReadReplicaProperties;
+import com.rackspace.salus.authservice.config.RevocationLogProperties;
+import com.rackspace.salus.authservice.config.SignedTokenProperties;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.authservice.repositories.TokenRevocationRepository;
+import com.rackspace.salus.telemetry.entities.EnvoyToken;
+import com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.cache.Caching;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.jcache.JCacheCacheManager;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+/**
+ * Measures {@link TokenService#validate(String)} with only the near-cache, both for cached valid
+ * tokens and for invalid tokens that always reach the repository, and for signed tokens that
+ * are verified without either.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class TokenServiceBenchmark {
+
+  private static final int TOKEN_COUNT = 1000;
+
+  private AnnotationConfigApplicationContext context;
+  private TokenService tokenService;
+  private String[] validTokens;
+  private String[] invalidTokens;
+  private String[] signedTokens;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final TokenGenerator tokenGenerator = new TokenGenerator(new SecureRandom(),
+        new AuthProperties());
+
+    final Map<String, EnvoyToken> tokens = new HashMap<>();
+    validTokens = new String[TOKEN_COUNT];
+    invalidTokens = new String[TOKEN_COUNT];
+    for (int i = 0; i < TOKEN_COUNT; i++) {
+      validTokens[i] = tokenGenerator.generate();
+      invalidTokens[i] = tokenGenerator.generate();
+      tokens.put(validTokens[i], new EnvoyToken()
+          .setId(UUID.randomUUID())
+          .setToken(validTokens[i])
+          .setTenantId("t-" + i)
+          .setCreatedTimestamp(Instant.now()));
+    }
+
+    context = new AnnotationConfigApplicationContext();
+    context.registerBean(TokenGenerator.class, () -> tokenGenerator);
+    context.registerBean(EnvoyTokenRepository.class,
+        () -> InMemoryEnvoyTokenRepository.create(tokens));
+    context.register(BenchmarkConfig.class, TokenService.class);
+    context.refresh();
+
+    tokenService = context.getBean(TokenService.class);
+    // signed tokens are rejected until the revocations present at startup have been applied
+    context.getBean(TokenRevocationLog.class).poll();
+
+    final SignedTokenCodec signedTokenCodec = context.getBean(SignedTokenCodec.class);
+    signedTokens = new String[TOKEN_COUNT];
+    for (int i = 0; i < TOKEN_COUNT; i++) {
+      signedTokens[i] = signedTokenCodec.create("t-" + i);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public String validateCached() {
+    return tokenService.validate(
+        validTokens[ThreadLocalRandom.current().nextInt(TOKEN_COUNT)]);
+  }
+
+  @Benchmark
+  public String validateSigned() {
+    return tokenService.validate(
+        signedTokens[ThreadLocalRandom.current().nextInt(TOKEN_COUNT)]);
+  }
+
+  @Benchmark
+  public String validateInvalid() {
+    return tokenService.validate(
+        invalidTokens[ThreadLocalRandom.current().nextInt(TOKEN_COUNT)]);
+  }
+
+  @Configuration
+  @EnableCaching
+  static class BenchmarkConfig {
+
+    @Bean
+    MeterRegistry meterRegistry() {
+      return new SimpleMeterRegistry();
+    }
+
+    @Bean
+    AuthProperties authProperties() {
+      return new AuthProperties();
+    }
+
+    @Bean
+    CacheProperties cacheProperties() {
+      final CacheProperties properties = new CacheProperties();
+      properties.getTokenValidation().setMaxSize(TOKEN_COUNT * 2);
+      return properties;
+    }
+
+    @Bean(destroyMethod = "close")
+    javax.cache.CacheManager jCacheManager(CacheProperties cacheProperties) {
+      final javax.cache.CacheManager cacheManager = Caching
+          .getCachingProvider("org.ehcache.jsr107.EhcacheCachingProvider")
+          .getCacheManager();
+      new CacheConfig(cacheProperties).cacheCustomizer().customize(cacheManager);
+      return cacheManager;
+    }
+
+    @Bean
+    CacheManager cacheManager(javax.cache.CacheManager jCacheManager) {
+      return new JCacheCacheManager(jCacheManager);
+    }
+
+    /**
+     * Stand-in for the database operations that happen off of the validation path
+     */
+    @Bean
+    EnvoyTokenBatchRepository envoyTokenBatchRepository() {
+      return new EnvoyTokenBatchRepository() {
+        @Override
+        public int updateLastUsed(Collection<UUID> tokenIds, Instant lastUsed) {
+          return tokenIds.size();
+        }
+
+        @Override
+        public void forEachTokenValue(Instant createdSince, Consumer<String> consumer) {
+        }
+
+        @Override
+        public Map<String, UUID> findIdsByTokenValues(Collection<String> tokenValues) {
+          // all signed tokens remain allocated
+          final Map<String, UUID> tokenIds = new HashMap<>();
+          tokenValues.forEach(tokenValue -> tokenIds.put(tokenValue, UUID.randomUUID()));
+          return tokenIds;
+        }
+      };
+    }
+
+    @Bean
+    TokenLastUsedWriter tokenLastUsedWriter(EnvoyTokenBatchRepository batchRepository,
+                                            MeterRegistry meterRegistry) {
+      return new TokenLastUsedWriter(batchRepository, new LastUsedProperties(), meterRegistry);
+    }
+
+    @Bean
+    SharedTokenCache sharedTokenCache() {
+      return new LocalSharedTokenCache();
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    EmbeddedDatabase revocationDatabase() {
+      return new EmbeddedDatabaseBuilder()
+          .setType(EmbeddedDatabaseType.H2)
+          .generateUniqueName(true)
+          .addScript("classpath:revocation-schema.sql")
+          .build();
+    }
+
+    /**
+     * Required for verifying signed tokens, but left empty
+     */
+    @Bean
+    TokenRevocationLog tokenRevocationLog(EnvoyTokenBatchRepository batchRepository,
+                                          EmbeddedDatabase revocationDatabase,
+                                          SignedTokenCodec signedTokenCodec,
+                                          MeterRegistry meterRegistry) {
+      return new TokenRevocationLog(batchRepository,
+          new TokenRevocationRepository(new JdbcTemplate(revocationDatabase)),
+          new RevocationLogProperties().setEnabled(true), signedTokenCodec, meterRegistry);
+    }
+
+    @Bean
+    ReadReplicaProperties readReplicaProperties() {
+      return new ReadReplicaProperties();
+    }
+
+    @Bean
+    TokenDigester tokenDigester() {
+      return new TokenDigester(new TokenStorageProperties());
+    }
+
+    @Bean
+    SignedTokenCodec signedTokenCodec() {
+      final byte[] key = new byte[32];
+      new SecureRandom().nextBytes(key);
+      return new SignedTokenCodec(new SecureRandom(), new SignedTokenProperties()
+          .setKeys(List.of(Base64.getEncoder().encodeToString(key))));
+    }
+
+    @Bean
+    SignedTokenValidator signedTokenValidator(SignedTokenCodec signedTokenCodec,
+                                              TokenDigester tokenDigester,
+                                              EnvoyTokenBatchRepository batchRepository,
+                                              TokenLastUsedWriter tokenLastUsedWriter,
+                                              TokenRevocationLog tokenRevocationLog,
+                                              MeterRegistry meterRegistry) {
+      return new SignedTokenValidator(signedTokenCodec, tokenDigester, batchRepository,
+          tokenLastUsedWriter, tokenRevocationLog, new SignedTokenProperties(), meterRegistry);
+    }
+
+    @Bean
+    InvalidTokenGuard invalidTokenGuard(CacheManager cacheManager,
+                                        EnvoyTokenBatchRepository batchRepository,
+                                        TokenDigester tokenDigester,
+                                        MeterRegistry meterRegistry) {
+      return new InvalidTokenGuard(cacheManager, batchRepository, tokenDigester,
+          new InvalidTokenProperties().setEnabled(false), meterRegistry);
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.web;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.util.StringUtils;
+
+/**
+ * Measures the extraction of the bearer token from the Authorization header, which occurs on
+ * every request to the auth service, and compares it with the regular expression based extraction
+ * that {@link BearerTokenParser} replaced.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnvoyTokenAuthFilterBenchmark {
+
+  private static final Pattern authorizationPattern = Pattern.compile(
+      "^Bearer (?<token>[a-zA-Z0-9-._~+/]+)=*$",
+      Pattern.CASE_INSENSITIVE);
+
+  @Param({
+      "Bearer abcdefghijklmnopqrstuvwx",
+      "Bearer abcdefghijklmnopqrstuvw=",
+      "bearer abcdefghijklmnopqrstuvwxabcdefghijklmnopqrstuvwxabcdefghijklmnopqrstuvwx"
+  })
+  String authorization;
+
+  @Benchmark
+  public String extractToken() {
+    return EnvoyTokenAuthFilter.extractToken(authorization);
+  }
+
+  @Benchmark
+  public String extractTokenWithPattern() {
+    if (StringUtils.startsWithIgnoreCase(authorization, "bearer")) {
+      Matcher matcher = authorizationPattern.matcher(authorization);
+
+      if (!matcher.matches()) {
+        throw new BadCredentialsException("Bearer token is malformed");
+      }
+
+      return matcher.group("token");
+    }
+    else {
+      return null;
+    }
+  }
+}
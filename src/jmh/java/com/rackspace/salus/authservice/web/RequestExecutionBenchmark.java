@@ -0,0 +1,249 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.web;
+
+import com.rackspace.salus.authservice.TelemetryAuthServiceApplication;
+import com.rackspace.salus.authservice.config.RequestExecutionProperties.Mode;
+import com.rackspace.salus.authservice.services.TokenService;
+import com.rackspace.salus.telemetry.entities.EnvoyToken;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.vault.client.VaultEndpoint;
+import org.springframework.vault.core.VaultTemplate;
+import org.springframework.vault.support.VaultToken;
+
+/**
+ * Load test of the request execution modes that drives the cert and token endpoints of the
+ * running service over HTTP. Each benchmark thread is a client waiting on its request, so there
+ * are twice as many concurrent requests as Tomcat's default maximum threads and the sampled
+ * percentiles include any queueing.
+ * <p>
+ * The service runs against an in-memory H2 database and a stand-in for Vault's HTTP API that
+ * responds to each PKI issuance after vaultLatencyMillis. The client certificates cache holds a
+ * single tenant, so nearly every cert request is issued by the stand-in. The limits on
+ * in-flight and concurrent Vault issuances are lifted, so that the modes are compared rather
+ * than the limits.
+ * </p>
+ * <p>
+ * The virtual mode requires running the benchmark on Java 21 or newer.
+ * </p>
+ */
+@BenchmarkMode({org.openjdk.jmh.annotations.Mode.Throughput,
+    org.openjdk.jmh.annotations.Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(RequestExecutionBenchmark.CLIENT_COUNT)
+@State(Scope.Benchmark)
+public class RequestExecutionBenchmark {
+
+  /**
+   * Twice Tomcat's default for server.tomcat.max-threads
+   */
+  static final int CLIENT_COUNT = 400;
+
+  private static final int TENANT_COUNT = 1000;
+
+  @Param({"PLATFORM", "VIRTUAL"})
+  Mode mode;
+
+  /**
+   * Typical latency of a Vault PKI issuance
+   */
+  @Param({"20"})
+  long vaultLatencyMillis;
+
+  private ConfigurableApplicationContext context;
+  private HttpClient httpClient;
+  private String baseUri;
+  private String[] tenantIds;
+  private String[] tokenValues;
+  private UUID[] tokenIds;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    context = new SpringApplicationBuilder(TelemetryAuthServiceApplication.class,
+        MockVaultConfig.class)
+        // excludes VaultConfig, so that the stand-in is used instead
+        .profiles("test")
+        // excludes the configuration of other benchmarks from component scanning
+        .initializers(applicationContext -> applicationContext.getBeanFactory()
+            .registerSingleton("benchmarkExcludeFilter", new BenchmarkExcludeFilter()))
+        .properties(
+            "server.port=0",
+            "spring.datasource.url=jdbc:h2:mem:requests;MODE=MySQL;DB_CLOSE_DELAY=-1",
+            "spring.jpa.hibernate.ddl-auto=create-drop",
+            "salus.auth.request-execution.mode=" + mode.name().toLowerCase(),
+            "salus.auth.service.max-cert-issuances-in-flight=" + CLIENT_COUNT,
+            "salus.auth.pki-limiter.enabled=false",
+            "salus.auth.cache.certs.max-size=1",
+            "benchmark.vault-latency-millis=" + vaultLatencyMillis
+        )
+        .run();
+
+    baseUri = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+    httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .build();
+
+    final TokenService tokenService = context.getBean(TokenService.class);
+    tenantIds = new String[TENANT_COUNT];
+    tokenValues = new String[TENANT_COUNT];
+    tokenIds = new UUID[TENANT_COUNT];
+    for (int i = 0; i < TENANT_COUNT; i++) {
+      tenantIds[i] = "t-" + i;
+      final EnvoyToken token = tokenService.allocate(tenantIds[i], "benchmark");
+      tokenValues[i] = token.getToken();
+      tokenIds[i] = token.getId();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public String getCert() throws IOException, InterruptedException {
+    final int i = ThreadLocalRandom.current().nextInt(TENANT_COUNT);
+    return send(HttpRequest.newBuilder(URI.create(baseUri + "/v1.0/cert"))
+        .header(HttpHeaders.AUTHORIZATION, "Bearer " + tokenValues[i])
+        .GET());
+  }
+
+  @Benchmark
+  public String getToken() throws IOException, InterruptedException {
+    final int i = ThreadLocalRandom.current().nextInt(TENANT_COUNT);
+    return send(HttpRequest.newBuilder(URI.create(
+        baseUri + "/api/tenant/" + tenantIds[i] + "/envoy-tokens/" + tokenIds[i]))
+        .GET());
+  }
+
+  @Benchmark
+  public String allocateToken() throws IOException, InterruptedException {
+    final int i = ThreadLocalRandom.current().nextInt(TENANT_COUNT);
+    return send(HttpRequest.newBuilder(URI.create(
+        baseUri + "/api/tenant/" + tenantIds[i] + "/envoy-tokens"))
+        .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+        .POST(BodyPublishers.ofString("{\"description\": \"benchmark\"}")));
+  }
+
+  private String send(HttpRequest.Builder request) throws IOException, InterruptedException {
+    final HttpResponse<String> response = httpClient.send(request.build(),
+        BodyHandlers.ofString());
+    // fails the benchmark rather than measuring rejected requests
+    if (response.statusCode() >= 300) {
+      throw new IllegalStateException(
+          "Request failed with status " + response.statusCode() + ": " + response.body());
+    }
+    return response.body();
+  }
+
+  @Configuration
+  static class MockVaultConfig {
+
+    /**
+     * Vault's response to a PKI issuance with the sizes of the base64 DER content of a typical
+     * 2048-bit RSA certificate and key
+     */
+    private static final byte[] ISSUE_RESPONSE = ("{\"data\": {"
+        + "\"serial_number\": \"01\","
+        + "\"certificate\": \"" + randomBase64(1000) + "\","
+        + "\"issuing_ca\": \"" + randomBase64(1000) + "\","
+        + "\"private_key\": \"" + randomBase64(1190) + "\""
+        + "}}").getBytes(StandardCharsets.UTF_8);
+
+    @Bean
+    public VaultTemplate vaultTemplate(
+        @Value("${benchmark.vault-latency-millis}") long latencyMillis) {
+      final ClientHttpRequestFactory requestFactory = (uri, httpMethod) ->
+          new MockClientHttpRequest(httpMethod, uri) {
+            @Override
+            protected ClientHttpResponse executeInternal() throws IOException {
+              try {
+                Thread.sleep(latencyMillis);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+              }
+              final MockClientHttpResponse response =
+                  new MockClientHttpResponse(ISSUE_RESPONSE, HttpStatus.OK);
+              response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+              return response;
+            }
+          };
+      return new VaultTemplate(VaultEndpoint.create("vault.test", 8200), requestFactory,
+          () -> VaultToken.of("vault-token"));
+    }
+
+    private static String randomBase64(int length) {
+      final byte[] bytes = new byte[length];
+      new Random(0).nextBytes(bytes);
+      return Base64.getEncoder().encodeToString(bytes).substring(0, length);
+    }
+  }
+
+  static class BenchmarkExcludeFilter extends TypeExcludeFilter {
+
+    @Override
+    public boolean match(MetadataReader metadataReader,
+                         MetadataReaderFactory metadataReaderFactory) {
+      return metadataReader.getClassMetadata().getClassName().contains("Benchmark");
+    }
+  }
+}
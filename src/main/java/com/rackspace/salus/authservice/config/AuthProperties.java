@@ -16,12 +16,16 @@
 
 package com.rackspace.salus.authservice.config;
 
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.annotation.Validated;
 
@@ -31,6 +35,18 @@ import org.springframework.validation.annotation.Validated;
 @Validated
 public class AuthProperties {
 
+  public enum TokenEntropy {
+    /**
+     * Each token's bytes are drawn from the tokenRandom bean, which is shared by all threads.
+     */
+    SHARED,
+    /**
+     * Tokens draw their bytes from a pool of DRBG instances, each seeded from the tokenRandom
+     * bean and drawing the bytes of tokenEntropyBatchSize tokens at a time.
+     */
+    POOLED
+  }
+
   /**
    * The roles (without "ROLE_" prefix) that are required to allow the envoy to connect to the auth service.
    * Identity roles are translated to this format via {@link com.rackspace.salus.common.web.PreAuthenticatedFilter}.
@@ -52,4 +68,59 @@ public class AuthProperties {
    */
   @Min(3)
   int tokenSize = 18;
+
+  /**
+   * Where the random bytes of generated tokens are drawn from.
+   */
+  @NotNull
+  TokenEntropy tokenEntropy = TokenEntropy.SHARED;
+
+  /**
+   * When using {@link TokenEntropy#POOLED}, the number of tokens' worth of random bytes each
+   * pooled generator draws at a time.
+   */
+  @Min(1)
+  int tokenEntropyBatchSize = 64;
+
+  /**
+   * How long a certificate request waits on a concurrent request for the same tenant that is
+   * already issuing certificates from Vault.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration certIssuanceWaitTimeout = Duration.ofSeconds(30);
+
+  /**
+   * The maximum number of certificate requests that may be waiting on Vault at once. Requests
+   * beyond that are rejected as unavailable rather than queued, while requests satisfied by
+   * the cache are never limited.
+   */
+  @Min(1)
+  int maxCertIssuancesInFlight = 50;
+
+  /**
+   * The maximum number of tokens that can be allocated by a single bulk allocation request.
+   */
+  @Min(1)
+  int maxBulkAllocation = 1000;
+
+  /**
+   * The maximum number of tokens returned by each request of a cursor-based token listing.
+   * Requests for more are given this many.
+   */
+  @Min(1)
+  int maxTokenListingSize = 1000;
+
+  /**
+   * The number of tokens deleted by each statement, and transaction, when deleting all of a
+   * tenant's tokens. Smaller chunks hold row locks for less time.
+   */
+  @Min(1)
+  int deleteChunkSize = 500;
+
+  /**
+   * How long a request to delete all of a tenant's tokens may spend deleting. Any tokens
+   * remaining after that are deleted by a retry of the request.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration deleteAllTimeLimit = Duration.ofSeconds(30);
 }
@@ -34,6 +34,7 @@ public class CacheConfig {
 
   public static final String CLIENT_CERTS = "clientCerts";
   public static final String TOKEN_VALIDATION = "tokenValidation";
+  public static final String INVALID_TOKENS = "invalidTokens";
 
   private final CacheProperties properties;
 
@@ -55,8 +56,7 @@ public class CacheConfig {
                     ResourcePoolsBuilder.heap(
                         properties.getCerts().getMaxSize())
                 )
-                    .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
-                        properties.getCerts().getTtl()))
+                    .withExpiry(new CertificateExpiryPolicy(properties.getCerts().getTtl()))
             )
         );
       }
@@ -75,6 +75,20 @@ public class CacheConfig {
         );
       }
 
+      if (cacheNotPresent(cacheManager, INVALID_TOKENS)) {
+        cacheManager.createCache(
+            INVALID_TOKENS,
+            Eh107Configuration.fromEhcacheCacheConfiguration(
+                CacheConfigurationBuilder.newCacheConfigurationBuilder(Object.class, Object.class,
+                    ResourcePoolsBuilder.heap(
+                        properties.getInvalidTokens().getMaxSize())
+                )
+                    .withExpiry(ExpiryPolicyBuilder.timeToLiveExpiration(
+                        properties.getInvalidTokens().getTtl()))
+            )
+        );
+      }
+
     };
   }
 
@@ -19,6 +19,7 @@ package com.rackspace.salus.authservice.config;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.convert.DurationUnit;
 import org.springframework.stereotype.Component;
@@ -28,16 +29,98 @@ import org.springframework.stereotype.Component;
 @Data
 public class CacheProperties {
 
-  SizeAndTtl certs =
-      new SizeAndTtl();
+  /**
+   * Entries expire ahead of the issued certificate's validity, so the ttl only applies when
+   * that validity cannot be determined.
+   */
+  CertsCache certs =
+      new CertsCache();
 
+  /**
+   * The per-instance near-cache of validated tokens, which sits in front of the shared tier.
+   * The ttl bounds how long a deleted token may still be accepted, unless the revocation log
+   * is enabled, in which case it can be raised considerably.
+   */
   SizeAndTtl tokenValidation =
       new SizeAndTtl().setTtl(Duration.ofSeconds(60));
 
+  SharedTier sharedTier = new SharedTier();
+
+  Warmup tokenValidationWarmup = new Warmup();
+
+  /**
+   * Holds the bearer tokens that recently failed validation. This is bounded and short-lived
+   * to avoid cache bloat from a brute force attack.
+   */
+  SizeAndTtl invalidTokens =
+      new SizeAndTtl().setMaxSize(10_000).setTtl(Duration.ofSeconds(30));
+
   @Data
   public static class SizeAndTtl {
     int maxSize = 500;
     @DurationUnit(ChronoUnit.SECONDS)
     Duration ttl = Duration.ofSeconds(600);
   }
+
+  @Data
+  public static class SharedTier {
+    /**
+     * When none, each instance only has its own near-cache of validated tokens.
+     */
+    SharedTierType type = SharedTierType.NONE;
+    @DurationUnit(ChronoUnit.SECONDS)
+    Duration ttl = Duration.ofSeconds(600);
+    String keyPrefix = "salus:auth:token:";
+    /**
+     * How long an invalidated token is prevented from being put back into the shared tier. This
+     * needs to exceed the time between a validation's database lookup and its put.
+     */
+    @DurationUnit(ChronoUnit.SECONDS)
+    Duration tombstoneTtl = Duration.ofSeconds(60);
+    /**
+     * Channel on which deleted tokens are published so that all instances evict them from
+     * their near-caches.
+     */
+    String invalidationChannel = "salus:auth:token-invalidation";
+  }
+
+  /**
+   * Preloads the token validation near-cache at startup with recently used tokens, so that the
+   * reconnects that follow a deployment do not all reach the database.
+   */
+  @Data
+  public static class Warmup {
+    boolean enabled = false;
+    /**
+     * How far back from startup a token's lastUsed may be for it to be preloaded.
+     */
+    @DurationUnit(ChronoUnit.SECONDS)
+    Duration window = Duration.ofHours(1);
+    /**
+     * Caps the number of tokens preloaded, which is further limited by the near-cache size.
+     */
+    int maxEntries = 500;
+  }
+
+  public enum SharedTierType {
+    NONE,
+    REDIS
+  }
+
+  @Data
+  @EqualsAndHashCode(callSuper = true)
+  public static class CertsCache extends SizeAndTtl {
+    /**
+     * How long before the certificate's notAfter the cache entry expires, which ensures that
+     * Envoys are not given certificates that are about to expire.
+     */
+    @DurationUnit(ChronoUnit.SECONDS)
+    Duration expiryMargin = Duration.ofMinutes(5);
+    /**
+     * How long before the cache entry expires a request for the tenant triggers an asynchronous
+     * re-issuance, so that steadily active tenants do not wait on Vault.
+     */
+    @DurationUnit(ChronoUnit.SECONDS)
+    Duration refreshAhead = Duration.ofMinutes(2);
+  }
 }
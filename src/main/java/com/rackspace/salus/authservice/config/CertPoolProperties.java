@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.cert-pool")
+@Component
+@Data
+@Validated
+public class CertPoolProperties {
+
+  /**
+   * When enabled, client certificates are pre-issued from Vault for recently active tenants
+   * so that a clientCerts cache miss can be served without waiting on Vault.
+   */
+  boolean enabled = false;
+
+  /**
+   * The number of pre-issued certificates to keep ready for each active tenant.
+   */
+  @Min(1)
+  int size = 2;
+
+  /**
+   * The maximum number of tenants for which certificates are pre-issued.
+   */
+  @Min(1)
+  int maxTenants = 1000;
+
+  /**
+   * How long after its latest certificate request a tenant is considered active.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration activeWindow = Duration.ofHours(1);
+
+  /**
+   * How long a pre-issued certificate can remain in the pool before it is discarded. This should
+   * be well under the TTL of the Vault PKI role so that served certificates are still fresh.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration maxAge = Duration.ofHours(1);
+
+  /**
+   * How often the pools of all active tenants are topped up and stale certificates discarded.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration refillInterval = Duration.ofSeconds(30);
+
+  /**
+   * The number of threads issuing certificates for the pools.
+   */
+  @Min(1)
+  int refillThreads = 2;
+}
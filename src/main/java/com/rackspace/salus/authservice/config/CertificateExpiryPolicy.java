@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import com.rackspace.salus.authservice.services.IssuedCertificate;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+import org.ehcache.expiry.ExpiryPolicy;
+
+/**
+ * Expires each {@link IssuedCertificate} cache entry at the time computed from its certificate's
+ * validity rather than after a fixed time-to-live.
+ */
+class CertificateExpiryPolicy implements ExpiryPolicy<Object, Object> {
+
+  private final Duration fallbackTtl;
+
+  /**
+   * @param fallbackTtl used for values other than {@link IssuedCertificate}
+   */
+  CertificateExpiryPolicy(Duration fallbackTtl) {
+    this.fallbackTtl = fallbackTtl;
+  }
+
+  @Override
+  public Duration getExpiryForCreation(Object key, Object value) {
+    if (value instanceof IssuedCertificate) {
+      final Duration remaining = Duration.between(
+          Instant.now(), ((IssuedCertificate) value).getExpiresAt());
+      return remaining.isNegative() ? Duration.ZERO : remaining;
+    }
+    return fallbackTtl;
+  }
+
+  @Override
+  public Duration getExpiryForAccess(Object key, Supplier<? extends Object> value) {
+    // leave expiry unchanged
+    return null;
+  }
+
+  @Override
+  public Duration getExpiryForUpdate(Object key, Supplier<? extends Object> oldValue, Object newValue) {
+    return getExpiryForCreation(key, newValue);
+  }
+}
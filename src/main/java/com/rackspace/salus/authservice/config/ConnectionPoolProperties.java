@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.connection-pools")
+@Component
+@Data
+@Validated
+public class ConnectionPoolProperties {
+
+  /**
+   * When enabled, each {@link ConnectionWorkload} gets its own pool of connections to the
+   * primary database given by spring.datasource, so that a saturated workload can't delay the
+   * others.
+   */
+  boolean enabled = false;
+
+  /**
+   * Token validation lookups, which are on the Envoy authentication path. Waiting long for a
+   * connection is not useful, since the Envoy will retry.
+   */
+  @Valid
+  Pool validation = new Pool(10, Duration.ofSeconds(1));
+
+  /**
+   * Token management requests.
+   */
+  @Valid
+  Pool admin = new Pool(5, Duration.ofSeconds(30));
+
+  /**
+   * Scheduled work such as recording when tokens were last used.
+   */
+  @Valid
+  Pool background = new Pool(3, Duration.ofSeconds(30));
+
+  @Data
+  public static class Pool {
+
+    @Min(1)
+    int maximumPoolSize;
+
+    /**
+     * How long to wait for a connection when all are in use. The minimum is 250 milliseconds.
+     */
+    Duration connectionTimeout;
+
+    public Pool() {
+    }
+
+    Pool(int maximumPoolSize, Duration connectionTimeout) {
+      this.maximumPoolSize = maximumPoolSize;
+      this.connectionTimeout = connectionTimeout;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.util.function.Supplier;
+
+/**
+ * The classes of database work that are given their own connection pools when
+ * salus.auth.connection-pools.enabled is true. Work is attributed to a workload by running it
+ * within {@link #run(Supplier)}, while work on request threads is otherwise attributed to
+ * {@link #ADMIN}.
+ * <p>
+ * As with {@link ReplicaRouting}, this is subject to when the work's transaction acquires its
+ * connection.
+ * </p>
+ */
+public enum ConnectionWorkload {
+  VALIDATION,
+  ADMIN,
+  BACKGROUND;
+
+  private static final ThreadLocal<ConnectionWorkload> current =
+      ThreadLocal.withInitial(() -> ADMIN);
+
+  /**
+   * Runs the given work with any connections it acquires taken from this workload's pool.
+   */
+  public <T> T run(Supplier<T> work) {
+    final ConnectionWorkload previous = current.get();
+    current.set(this);
+    try {
+      return work.get();
+    } finally {
+      current.set(previous);
+    }
+  }
+
+  /**
+   * Runs the given work with any connections it acquires taken from this workload's pool.
+   */
+  public void run(Runnable work) {
+    run(() -> {
+      work.run();
+      return null;
+    });
+  }
+
+  public static ConnectionWorkload current() {
+    return current.get();
+  }
+}
@@ -16,13 +16,29 @@
 
 package com.rackspace.salus.authservice.config;
 
+import com.rackspace.salus.authservice.entities.TokenRevocation;
 import com.rackspace.salus.telemetry.EnableSalusJpa;
+import com.rackspace.salus.telemetry.entities.EnvoyToken;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
 import java.security.SecureRandom;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Random;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
 
 @EnableSalusJpa
+// adds this service's own entities to those of the telemetry model
+@EntityScan(basePackageClasses = {EnvoyToken.class, TokenRevocation.class})
 @Configuration
 public class DatabaseConfig {
 
@@ -34,4 +50,59 @@ public class DatabaseConfig {
   public Random tokenRandom() {
     return new SecureRandom();
   }
+
+  /**
+   * Replaces the auto-configured datasource with a pool per {@link ConnectionWorkload} when
+   * salus.auth.connection-pools.enabled is true. The wait for a connection from each pool is
+   * published as the hikaricp.connections.acquire timer tagged with the pool's name.
+   */
+  @Configuration
+  @ConditionalOnProperty(value = "salus.auth.connection-pools.enabled", havingValue = "true")
+  @Slf4j
+  public static class ConnectionPoolConfig {
+
+    @Bean
+    WorkloadRoutingDataSource workloadRoutingDataSource(DataSourceProperties dataSourceProperties,
+                                                        ConnectionPoolProperties properties,
+                                                        MeterRegistry meterRegistry) {
+      final Map<ConnectionWorkload, HikariDataSource> pools =
+          new EnumMap<>(ConnectionWorkload.class);
+      pools.put(ConnectionWorkload.VALIDATION,
+          createPool(dataSourceProperties, "validation", properties.getValidation(),
+              meterRegistry));
+      pools.put(ConnectionWorkload.ADMIN,
+          createPool(dataSourceProperties, "admin", properties.getAdmin(), meterRegistry));
+      pools.put(ConnectionWorkload.BACKGROUND,
+          createPool(dataSourceProperties, "background", properties.getBackground(),
+              meterRegistry));
+      log.info("Using separate connection pools for validation, admin and background work");
+
+      return new WorkloadRoutingDataSource(pools);
+    }
+
+    /**
+     * When read replicas are enabled, {@link ReadReplicaConfig} instead routes to the workload
+     * pools for all but read-only transactions.
+     */
+    @Bean
+    @Primary
+    @ConditionalOnProperty(value = "salus.auth.read-replicas.enabled", havingValue = "false",
+        matchIfMissing = true)
+    public DataSource dataSource(WorkloadRoutingDataSource workloadRoutingDataSource) {
+      return new DelegatingDataSource(workloadRoutingDataSource);
+    }
+
+    static HikariDataSource createPool(DataSourceProperties dataSourceProperties, String name,
+                                       ConnectionPoolProperties.Pool pool,
+                                       MeterRegistry meterRegistry) {
+      final HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder()
+          .type(HikariDataSource.class)
+          .build();
+      dataSource.setPoolName(name);
+      dataSource.setMaximumPoolSize(pool.getMaximumPoolSize());
+      dataSource.setConnectionTimeout(pool.getConnectionTimeout().toMillis());
+      dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+      return dataSource;
+    }
+  }
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.invalid-tokens")
+@Component
+@Data
+@Validated
+public class InvalidTokenProperties {
+
+  /**
+   * When enabled, bearer tokens are rejected without a database lookup when they were recently
+   * found to be invalid. This is safe with any number of instances, since token values are
+   * random and are never presented before they are allocated.
+   */
+  boolean enabled = true;
+
+  /**
+   * When enabled, bearer tokens are also rejected without a database lookup when they are not
+   * present in the bloom filter of all allocated tokens.
+   * <p>
+   * This is only suitable when a single instance allocates tokens. A token allocated by another
+   * instance is not in this instance's bloom filter until the next refresh, and it is rejected
+   * until then.
+   * </p>
+   */
+  boolean bloomFilterEnabled = false;
+
+  /**
+   * The expected number of allocated tokens, which sizes the bloom filter.
+   */
+  @Min(1)
+  int expectedTokens = 1_000_000;
+
+  /**
+   * The false positive probability of the bloom filter. A false positive only means that an
+   * invalid token will be looked up in the database.
+   */
+  @DecimalMin("0.000001") @DecimalMax("0.5")
+  double falsePositiveProbability = 0.001;
+
+  /**
+   * How often the bloom filter is rebuilt from scratch, which purges deleted tokens from it.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration rebuildInterval = Duration.ofHours(1);
+
+  /**
+   * How often the bloom filter is updated with tokens allocated by other instances.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration refreshInterval = Duration.ofSeconds(10);
+
+  /**
+   * How far before the previous refresh each refresh looks for newly allocated tokens. This
+   * accounts for clock skew between instances and transactions that commit after the refresh.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration refreshOverlap = Duration.ofSeconds(60);
+}
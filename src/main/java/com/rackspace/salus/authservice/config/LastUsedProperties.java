@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.last-used")
+@Component
+@Data
+@Validated
+public class LastUsedProperties {
+
+  /**
+   * How often the pending lastUsed timestamps of validated tokens are written to the database.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration flushInterval = Duration.ofSeconds(5);
+
+  /**
+   * The maximum number of distinct tokens that can be awaiting a lastUsed flush. Updates for
+   * tokens beyond this are dropped until the next flush since lastUsed is informational.
+   */
+  @Min(1)
+  int maxPending = 10_000;
+
+  /**
+   * The maximum number of token IDs included in each batched update statement.
+   */
+  @Min(1)
+  int batchSize = 500;
+}
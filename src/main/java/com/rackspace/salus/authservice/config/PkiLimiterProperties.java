@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.pki-limiter")
+@Component
+@Data
+@Validated
+public class PkiLimiterProperties {
+
+  /**
+   * When enabled, the number of concurrent Vault PKI issuances is limited to a limit that
+   * adapts to Vault's observed latency.
+   */
+  boolean enabled = true;
+
+  @Min(1)
+  int initialLimit = 10;
+
+  @Min(1)
+  int minLimit = 1;
+
+  @Min(1)
+  int maxLimit = 100;
+
+  /**
+   * Issuances that take longer than this, or fail, reduce the limit. Those that complete
+   * within it grow the limit while it is in use.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration latencyThreshold = Duration.ofSeconds(2);
+
+  /**
+   * The factor applied to the limit when it is reduced.
+   */
+  @DecimalMin("0.1")
+  @DecimalMax("0.99")
+  double backoffRatio = 0.9;
+
+  /**
+   * How long an issuance may wait for the limit before it is rejected as unavailable.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration maxQueueTime = Duration.ofSeconds(1);
+
+  /**
+   * Conveyed to clients of rejected certificate requests in the Retry-After header. This also
+   * applies to requests rejected by salus.auth.service.max-cert-issuances-in-flight, even when
+   * this limiter is disabled.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration retryAfter = Duration.ofSeconds(5);
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import javax.validation.Valid;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Configures the rate limits applied by {@link com.rackspace.salus.authservice.web.EnvoyTokenAuthFilter}.
+ * These are enabled by {@link WebConfig} rather than component scanning, so that they are also
+ * available to web slice tests.
+ */
+@ConfigurationProperties("salus.auth.rate-limit")
+@Data
+@Validated
+public class RateLimitProperties {
+
+  /**
+   * Limits the failed authentications from each remote address. Once exhausted, all requests
+   * bearing a token from that address are rejected before the token is validated. When behind
+   * a load balancer, server.use-forward-headers needs to be enabled so that the remote address
+   * is that of the client.
+   */
+  @Valid
+  Bucket failuresPerAddress = new Bucket()
+      .setCapacity(20)
+      .setRefillPerSecond(1);
+
+  /**
+   * Limits the successfully authenticated certificate requests of each tenant, which bounds
+   * the Vault issuances a single tenant can cause.
+   */
+  @Valid
+  Bucket certRequestsPerTenant = new Bucket()
+      .setCapacity(1000)
+      .setRefillPerSecond(50);
+
+  /**
+   * The maximum number of buckets tracked by each limit. Idle buckets are evicted, and once
+   * this many are active, new keys are not limited.
+   */
+  @Min(1)
+  int maxBuckets = 100_000;
+
+  @Data
+  public static class Bucket {
+    boolean enabled = false;
+
+    /**
+     * The number of requests allowed in a burst.
+     */
+    @Min(1)
+    int capacity;
+
+    @DecimalMin("0.001")
+    double refillPerSecond;
+  }
+}
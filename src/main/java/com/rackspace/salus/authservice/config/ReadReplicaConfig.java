@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+/**
+ * Replaces the auto-configured datasource with one that routes read-only transactions to the
+ * read replicas when salus.auth.read-replicas.enabled is true.
+ * <p>
+ * Read-only work that must observe writes made moments ago, possibly by other instances, is
+ * routed to the primary by {@link ReplicaRouting#onPrimary(java.util.function.Supplier)}.
+ * </p>
+ */
+@Configuration
+@ConditionalOnProperty(value = "salus.auth.read-replicas.enabled", havingValue = "true")
+@Slf4j
+public class ReadReplicaConfig implements DisposableBean {
+
+  private final ReadReplicaProperties properties;
+  private final List<HikariDataSource> replicaDataSources = new ArrayList<>();
+
+  public ReadReplicaConfig(ReadReplicaProperties properties) {
+    this.properties = properties;
+  }
+
+  /**
+   * The primary's pool, configured the same as the auto-configured datasource would be, unless
+   * the primary has a pool per workload.
+   */
+  @Bean
+  @ConfigurationProperties("spring.datasource.hikari")
+  @ConditionalOnProperty(value = "salus.auth.connection-pools.enabled", havingValue = "false",
+      matchIfMissing = true)
+  public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+    final HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder()
+        .type(HikariDataSource.class)
+        .build();
+    if (StringUtils.hasText(dataSourceProperties.getName())) {
+      dataSource.setPoolName(dataSourceProperties.getName());
+    }
+    return dataSource;
+  }
+
+  @Bean
+  ReplicaRoutingDataSource replicaRoutingDataSource(
+      ObjectProvider<HikariDataSource> primaryDataSource,
+      ObjectProvider<WorkloadRoutingDataSource> workloadRoutingDataSource,
+      DataSourceProperties dataSourceProperties, MeterRegistry meterRegistry) {
+    final List<ReadReplicaProperties.Replica> replicas = properties.getReplicas();
+    for (int i = 0; i < replicas.size(); i++) {
+      final ReadReplicaProperties.Replica replica = replicas.get(i);
+      final HikariDataSource dataSource = new HikariDataSource();
+      dataSource.setPoolName("replica-" + i);
+      dataSource.setJdbcUrl(replica.getUrl());
+      dataSource.setUsername(replica.getUsername() != null ?
+          replica.getUsername() : dataSourceProperties.determineUsername());
+      dataSource.setPassword(replica.getPassword() != null ?
+          replica.getPassword() : dataSourceProperties.determinePassword());
+      dataSource.setMaximumPoolSize(replica.getMaximumPoolSize());
+      // replicas are only ever used for read-only transactions
+      dataSource.setReadOnly(true);
+      dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+      replicaDataSources.add(dataSource);
+    }
+    log.info("Routing read-only transactions to {} read replicas", replicas.size());
+
+    final DataSource primary = workloadRoutingDataSource.getIfAvailable();
+    return new ReplicaRoutingDataSource(
+        primary != null ? primary : primaryDataSource.getObject(),
+        List.copyOf(replicaDataSources));
+  }
+
+  @Bean
+  @Primary
+  public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+    return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+  }
+
+  @Bean
+  ReplicaLagMonitor replicaLagMonitor(ReplicaRoutingDataSource replicaRoutingDataSource,
+                                      MeterRegistry meterRegistry) {
+    return new ReplicaLagMonitor(replicaRoutingDataSource, List.copyOf(replicaDataSources),
+        properties, meterRegistry);
+  }
+
+  /**
+   * The replica pools aren't beans themselves, so that they aren't candidates for injection
+   * as a datasource, and are closed here instead.
+   */
+  @Override
+  public void destroy() {
+    replicaDataSources.forEach(HikariDataSource::close);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import javax.validation.Valid;
+import javax.validation.constraints.NotBlank;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.read-replicas")
+@Component
+@Data
+@Validated
+public class ReadReplicaProperties {
+
+  /**
+   * When enabled, read-only transactions are routed to the replicas, which are used in turn,
+   * while all other database work goes to the primary given by spring.datasource.
+   */
+  boolean enabled = false;
+
+  @Valid
+  List<Replica> replicas = new ArrayList<>();
+
+  /**
+   * Replicas lagging the primary by more than this, or whose lag can't be determined, are not
+   * used until they catch up. Reads go to the primary when no replica is usable.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration maxLag = Duration.ofSeconds(5);
+
+  /**
+   * How often the lag of each replica is checked.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration lagCheckInterval = Duration.ofSeconds(5);
+
+  /**
+   * The statement run against each replica to determine its lag.
+   */
+  @NotBlank
+  String lagQuery = "SHOW SLAVE STATUS";
+
+  /**
+   * The column of the lag query's result that gives the lag in seconds. A null value indicates
+   * that replication is not running, while an empty result is treated as no lag.
+   */
+  @NotBlank
+  String lagColumn = "Seconds_Behind_Master";
+
+  @Data
+  public static class Replica {
+
+    @NotBlank
+    String url;
+
+    /**
+     * Defaults to spring.datasource.username
+     */
+    String username;
+
+    /**
+     * Defaults to spring.datasource.password
+     */
+    String password;
+
+    /**
+     * The maximum size of the replica's connection pool.
+     */
+    int maximumPoolSize = 10;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Periodically determines how far each read replica lags the primary and only lets
+ * {@link ReplicaRoutingDataSource} use those within the configured maximum lag.
+ */
+@Slf4j
+class ReplicaLagMonitor implements SmartLifecycle {
+
+  /**
+   * Recorded when the lag of a replica could not be determined
+   */
+  private static final long UNKNOWN_LAG = -1;
+
+  private final ReplicaRoutingDataSource routingDataSource;
+  private final List<JdbcTemplate> replicas;
+  private final ReadReplicaProperties properties;
+  /**
+   * The most recently determined lag, in seconds, of each replica
+   */
+  private final AtomicLongArray lagSeconds;
+  private final Counter lagCheckFailures;
+  private ScheduledExecutorService executor;
+  private volatile boolean running;
+
+  ReplicaLagMonitor(ReplicaRoutingDataSource routingDataSource, List<DataSource> replicas,
+                    ReadReplicaProperties properties, MeterRegistry meterRegistry) {
+    this.routingDataSource = routingDataSource;
+    this.properties = properties;
+    this.replicas = replicas.stream()
+        .map(JdbcTemplate::new)
+        .collect(Collectors.toList());
+    lagSeconds = new AtomicLongArray(replicas.size());
+
+    for (int i = 0; i < replicas.size(); i++) {
+      final int replica = i;
+      lagSeconds.set(replica, UNKNOWN_LAG);
+      Gauge.builder("readReplicaLag", lagSeconds, lag -> lag.get(replica))
+          .tags(MetricTags.SERVICE_METRIC_TAG, "ReplicaLagMonitor",
+              "replica", Integer.toString(replica))
+          .baseUnit("seconds")
+          .register(meterRegistry);
+    }
+    lagCheckFailures = Counter.builder("readReplicaLagCheckFailures")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "ReplicaLagMonitor")
+        .register(meterRegistry);
+  }
+
+  void checkLag() {
+    boolean anyLagging = false;
+    for (int i = 0; i < replicas.size(); i++) {
+      long lag;
+      try {
+        lag = queryLag(replicas.get(i));
+      } catch (Exception e) {
+        log.warn("Failed to determine the lag of read replica {}", i, e);
+        lagCheckFailures.increment();
+        lag = UNKNOWN_LAG;
+      }
+
+      final boolean usable = lag != UNKNOWN_LAG && lag <= properties.getMaxLag().getSeconds();
+      if (lagSeconds.getAndSet(i, lag) != lag) {
+        log.debug("Read replica {} lag is {}s, usable={}", i, lag, usable);
+      }
+      routingDataSource.setUsable(i, usable);
+      anyLagging |= usable && lag > 0;
+    }
+    ReplicaRouting.setReplicaLagging(anyLagging);
+  }
+
+  private long queryLag(JdbcTemplate replica) {
+    final Long lag = replica.query(properties.getLagQuery(), rs -> {
+      if (!rs.next()) {
+        // not replicating, such as a primary given as its own replica
+        return 0L;
+      }
+      final long value = rs.getLong(properties.getLagColumn());
+      return rs.wasNull() ? UNKNOWN_LAG : value;
+    });
+    return lag != null ? lag : UNKNOWN_LAG;
+  }
+
+  @Override
+  public void start() {
+    // replicas are only used once they are known to be caught up
+    checkLag();
+
+    executor = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("replica-lag-monitor-"));
+    final long intervalMillis = properties.getLagCheckInterval().toMillis();
+    executor.scheduleWithFixedDelay(this::checkLag,
+        intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return 0;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.util.function.Supplier;
+
+/**
+ * Allows read-only work that must observe the latest writes, such as those made by other
+ * instances moments ago, to opt out of being routed to a read replica.
+ * <p>
+ * This only has an effect when the work starts its own transaction, since a transaction that
+ * is already underway keeps its connection.
+ * </p>
+ */
+public final class ReplicaRouting {
+
+  private static final ThreadLocal<Boolean> primaryRequired =
+      ThreadLocal.withInitial(() -> Boolean.FALSE);
+  /**
+   * Assumed until the {@link ReplicaLagMonitor} has checked the replicas
+   */
+  private static volatile boolean replicaLagging = true;
+
+  private ReplicaRouting() {
+  }
+
+  /**
+   * Runs the given work with any read-only transactions it starts routed to the primary.
+   */
+  public static <T> T onPrimary(Supplier<T> work) {
+    final Boolean previous = primaryRequired.get();
+    primaryRequired.set(Boolean.TRUE);
+    try {
+      return work.get();
+    } finally {
+      primaryRequired.set(previous);
+    }
+  }
+
+  /**
+   * Runs the given work with any read-only transactions it starts routed to the primary.
+   */
+  public static void onPrimary(Runnable work) {
+    onPrimary(() -> {
+      work.run();
+      return null;
+    });
+  }
+
+  public static boolean isPrimaryRequired() {
+    return primaryRequired.get();
+  }
+
+  /**
+   * @return true if a read replica that is currently in use reported any lag at its most recent
+   * check, in which case it may not have the writes made moments ago
+   */
+  public static boolean isReplicaLagging() {
+    return replicaLagging;
+  }
+
+  /**
+   * Maintained by the {@link ReplicaLagMonitor} after each check.
+   */
+  public static void setReplicaLagging(boolean lagging) {
+    replicaLagging = lagging;
+  }
+}
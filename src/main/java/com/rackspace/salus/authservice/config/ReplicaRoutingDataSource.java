@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import javax.sql.DataSource;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes read-only transactions to the replicas that are currently usable, in turn, and
+ * everything else to the primary.
+ * <p>
+ * The transaction's read-only flag is only available once the transaction has begun, which is
+ * after the JPA transaction manager acquires a connection, so this needs to be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}.
+ * </p>
+ */
+class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+  static final String PRIMARY = "primary";
+
+  private final int replicaCount;
+  /**
+   * Whether each replica is caught up enough to be used, as maintained by the
+   * {@link ReplicaLagMonitor}
+   */
+  private final AtomicIntegerArray usable;
+  private final AtomicInteger next = new AtomicInteger();
+
+  ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas) {
+    replicaCount = replicas.size();
+    usable = new AtomicIntegerArray(replicaCount);
+
+    final Map<Object, Object> targets = new HashMap<>();
+    targets.put(PRIMARY, primary);
+    for (int i = 0; i < replicaCount; i++) {
+      targets.put(i, replicas.get(i));
+    }
+    setTargetDataSources(targets);
+    setDefaultTargetDataSource(primary);
+    afterPropertiesSet();
+  }
+
+  void setUsable(int replica, boolean isUsable) {
+    usable.set(replica, isUsable ? 1 : 0);
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+        || ReplicaRouting.isPrimaryRequired()) {
+      return PRIMARY;
+    }
+
+    final int start = Math.floorMod(next.getAndIncrement(), Math.max(replicaCount, 1));
+    for (int i = 0; i < replicaCount; i++) {
+      final int replica = (start + i) % replicaCount;
+      if (usable.get(replica) == 1) {
+        return replica;
+      }
+    }
+    return PRIMARY;
+  }
+}
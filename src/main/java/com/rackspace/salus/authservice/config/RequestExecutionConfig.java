@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs Tomcat's request handling on virtual threads when
+ * salus.auth.request-execution.mode is virtual. The blocking JDBC and Vault calls made while
+ * handling a request then park the virtual thread rather than holding a platform thread.
+ * <p>
+ * The request path of this service holds no monitors across blocking calls, which would pin
+ * the carrier thread. Its synchronized methods all run on background threads, such as
+ * {@link com.rackspace.salus.authservice.services.TokenLastUsedWriter#flush()}. Pinning can
+ * still occur within the JDBC driver, since MySQL Connector/J releases prior to replacing
+ * their monitors with locks hold a monitor during socket reads, which can be observed with
+ * -Djdk.tracePinnedThreads=short.
+ * </p>
+ * <p>
+ * Since each request is handled on a new virtual thread, the request path also avoids caching
+ * expensive objects per thread. For example, the token digest and signed token MAC are cloned
+ * from a prototype by {@link com.rackspace.salus.authservice.services.TokenDigester} and
+ * {@link com.rackspace.salus.authservice.services.SignedTokenCodec}.
+ * </p>
+ */
+@Configuration
+@ConditionalOnProperty(value = "salus.auth.request-execution.mode", havingValue = "virtual")
+@Slf4j
+public class RequestExecutionConfig {
+
+  @Bean
+  public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadRequestExecutor() {
+    return factory -> {
+      log.info("Handling requests on virtual threads");
+      factory.addConnectorCustomizers(connector ->
+          connector.getProtocolHandler().setExecutor(
+              VirtualThreads.newVirtualThreadPerTaskExecutor()));
+    };
+  }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.request-execution")
+@Component
+@Data
+@Validated
+public class RequestExecutionProperties {
+
+  public enum Mode {
+    /**
+     * Requests are handled by Tomcat's pool of platform threads.
+     */
+    PLATFORM,
+    /**
+     * Each request, and each certificate issuance, runs on its own virtual thread. This requires
+     * running on Java 21 or newer. Concurrency is then bounded by the database connection pool
+     * and salus.auth.service.max-cert-issuances-in-flight rather than Tomcat's max threads.
+     */
+    VIRTUAL
+  }
+
+  @NotNull
+  Mode mode = Mode.PLATFORM;
+}
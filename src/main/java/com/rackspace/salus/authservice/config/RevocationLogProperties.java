@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.revocation-log")
+@Component
+@Data
+@Validated
+public class RevocationLogProperties {
+
+  /**
+   * When enabled, token deletions are appended to a revocation log table that every instance
+   * tails to evict the deleted tokens from its caches. This bounds how long a deleted token
+   * remains accepted by the poll interval, rather than the cache ttl, which allows for a much
+   * longer token validation ttl.
+   */
+  boolean enabled = false;
+
+  /**
+   * How often each instance reads the revocations appended since its previous poll.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration pollInterval = Duration.ofSeconds(2);
+
+  /**
+   * The number of revocations read by each query of a poll.
+   */
+  @Min(1)
+  int pageSize = 1000;
+
+  /**
+   * How long a skipped revocation ID is looked for, which accounts for transactions that commit
+   * out of order. IDs skipped for longer are assumed to belong to rolled back transactions.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration gapTimeout = Duration.ofSeconds(60);
+
+  /**
+   * The maximum number of skipped revocation IDs that are tracked.
+   */
+  @Min(1)
+  int maxGaps = 10_000;
+
+  /**
+   * How long revocations of opaque tokens are kept in the table. Revocations of signed tokens
+   * are kept indefinitely, since those never expire.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration retention = Duration.ofDays(1);
+}
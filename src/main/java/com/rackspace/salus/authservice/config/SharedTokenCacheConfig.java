@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import com.rackspace.salus.authservice.services.LocalSharedTokenCache;
+import com.rackspace.salus.authservice.services.RedisSharedTokenCache;
+import com.rackspace.salus.authservice.services.SharedTokenCache;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+@Configuration
+public class SharedTokenCacheConfig {
+
+  private static final String TYPE_PROPERTY = "salus.auth.cache.shared-tier.type";
+
+  @Bean
+  @ConditionalOnProperty(name = TYPE_PROPERTY, havingValue = "none", matchIfMissing = true)
+  public SharedTokenCache localSharedTokenCache() {
+    return new LocalSharedTokenCache();
+  }
+
+  @Configuration
+  @ConditionalOnProperty(name = TYPE_PROPERTY, havingValue = "redis")
+  public static class RedisSharedTierConfig {
+
+    @Bean
+    public RedisMessageListenerContainer tokenInvalidationListenerContainer(
+        RedisConnectionFactory connectionFactory) {
+      final RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+      container.setConnectionFactory(connectionFactory);
+      return container;
+    }
+
+    @Bean
+    public SharedTokenCache redisSharedTokenCache(StringRedisTemplate redisTemplate,
+                                                  RedisMessageListenerContainer tokenInvalidationListenerContainer,
+                                                  CacheProperties properties) {
+      return new RedisSharedTokenCache(redisTemplate, tokenInvalidationListenerContainer,
+          properties.getSharedTier());
+    }
+  }
+}
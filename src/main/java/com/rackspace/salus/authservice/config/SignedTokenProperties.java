@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.signed-tokens")
+@Component
+@Data
+@Validated
+public class SignedTokenProperties {
+
+  /**
+   * When enabled, newly allocated tokens embed their tenant and are signed, which allows them
+   * to be validated without a database lookup. Opaque tokens that were previously allocated
+   * continue to be validated by lookup.
+   */
+  boolean enabled = false;
+
+  /**
+   * Base64 encoded HMAC-SHA256 keys. The first key signs new tokens and all of the keys are
+   * accepted when verifying, which allows for key rotation. Signed tokens continue to be
+   * verified when disabled as long as their key remains configured. Verifying signed tokens
+   * requires salus.auth.revocation-log.enabled, since their revocations are loaded from it.
+   */
+  List<String> keys = List.of();
+
+  /**
+   * How often the signed tokens used since the previous check are checked for deletion, which
+   * bounds how long a token deleted by another instance is accepted by this instance.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration recheckInterval = Duration.ofSeconds(10);
+
+  /**
+   * The maximum number of distinct signed tokens tracked for the next recheck. Tokens used
+   * beyond this are not rechecked until they are used again.
+   */
+  @Min(1)
+  int maxPendingRechecks = 100_000;
+}
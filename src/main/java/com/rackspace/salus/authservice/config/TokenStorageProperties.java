@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import javax.validation.constraints.Min;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.convert.DurationUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+@ConfigurationProperties("salus.auth.token-storage")
+@Component
+@Data
+@Validated
+public class TokenStorageProperties {
+
+  /**
+   * When enabled, newly allocated tokens are stored as a SHA-256 digest of the token value and
+   * existing tokens are converted in the background. Since the token values can no longer be
+   * retrieved, they are only returned when allocated. This cannot be disabled again once
+   * enabled.
+   */
+  boolean hashed = false;
+
+  /**
+   * When hashed, tokens are also looked up by their plaintext value since they may not have been
+   * converted yet. Instances still without hashed storage keep storing plaintext tokens, so this
+   * should only be disabled once all instances are hashed and the backfill has since converted
+   * every token.
+   */
+  boolean plaintextLookup = true;
+
+  /**
+   * How often existing tokens stored in plaintext are looked for and converted to digests.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration backfillInterval = Duration.ofMinutes(5);
+
+  /**
+   * The number of tokens converted by each backfill transaction.
+   */
+  @Min(1)
+  int backfillBatchSize = 500;
+
+  /**
+   * Once a backfill pass has converted every token, later passes only look at tokens created
+   * since the previous pass started, less this overlap. This accounts for clock skew between
+   * instances and transactions that commit after the pass.
+   */
+  @DurationUnit(ChronoUnit.SECONDS)
+  Duration backfillOverlap = Duration.ofSeconds(60);
+}
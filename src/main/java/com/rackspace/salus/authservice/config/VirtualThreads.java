@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates virtual thread executors when running on Java 21 or newer. The method is located
+ * reflectively since the service is compiled for an earlier release.
+ */
+public final class VirtualThreads {
+
+  private static final Method newVirtualThreadPerTaskExecutor = findNewExecutorMethod();
+
+  private VirtualThreads() {
+  }
+
+  public static boolean isSupported() {
+    return newVirtualThreadPerTaskExecutor != null;
+  }
+
+  /**
+   * @return an executor that runs each task on a new virtual thread
+   * @throws IllegalStateException if the runtime does not support virtual threads
+   */
+  public static ExecutorService newVirtualThreadPerTaskExecutor() {
+    if (!isSupported()) {
+      throw new IllegalStateException(String.format(
+          "Virtual threads require Java 21 or newer, but running on Java %s",
+          System.getProperty("java.version")));
+    }
+    try {
+      return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Unable to create virtual thread executor", e);
+    }
+  }
+
+  private static Method findNewExecutorMethod() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+}
@@ -19,8 +19,11 @@ package com.rackspace.salus.authservice.config;
 import com.rackspace.salus.authservice.services.TokenService;
 import com.rackspace.salus.authservice.web.DevTokenAuthFilter;
 import com.rackspace.salus.authservice.web.EnvoyTokenAuthFilter;
+import com.rackspace.salus.authservice.web.TokenBucketRateLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
 import javax.servlet.Filter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.Profiles;
@@ -33,6 +36,7 @@ import org.springframework.security.web.authentication.www.BasicAuthenticationFi
  * @since Mar 2017
  */
 @Configuration
+@EnableConfigurationProperties(RateLimitProperties.class)
 @Slf4j
 public class WebConfig extends WebSecurityConfigurerAdapter {
 
@@ -40,10 +44,16 @@ public class WebConfig extends WebSecurityConfigurerAdapter {
 
     private final TokenService tokenService;
     private final Environment environment;
+    private final RateLimitProperties rateLimitProperties;
+    private final MeterRegistry meterRegistry;
 
-    public WebConfig(TokenService tokenService, Environment environment) {
+    public WebConfig(TokenService tokenService,
+                     Environment environment, RateLimitProperties rateLimitProperties,
+                     MeterRegistry meterRegistry) {
         this.tokenService = tokenService;
         this.environment = environment;
+        this.rateLimitProperties = rateLimitProperties;
+        this.meterRegistry = meterRegistry;
     }
 
     @Override
@@ -56,7 +66,10 @@ public class WebConfig extends WebSecurityConfigurerAdapter {
             log.warn("Using DevTokenAuthFilter to stub out cert retrieval authentication");
             certAuthFilter = new DevTokenAuthFilter();
         } else {
-            certAuthFilter = new EnvoyTokenAuthFilter(tokenService);
+            certAuthFilter = new EnvoyTokenAuthFilter(tokenService,
+                createLimiter(rateLimitProperties.getFailuresPerAddress()),
+                createLimiter(rateLimitProperties.getCertRequestsPerTenant()),
+                meterRegistry);
         }
 
         http
@@ -71,4 +84,11 @@ public class WebConfig extends WebSecurityConfigurerAdapter {
             // all other requests are proxied via public API, which is already authenticated
             .anyRequest().permitAll();
     }
+
+    private TokenBucketRateLimiter createLimiter(RateLimitProperties.Bucket bucket) {
+        return bucket.isEnabled() ?
+            new TokenBucketRateLimiter(bucket.getCapacity(), bucket.getRefillPerSecond(),
+                rateLimitProperties.getMaxBuckets()) :
+            null;
+    }
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import java.io.Closeable;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+/**
+ * Takes connections from the pool of the current thread's {@link ConnectionWorkload}.
+ */
+class WorkloadRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+  private final Map<ConnectionWorkload, HikariDataSource> pools;
+
+  WorkloadRoutingDataSource(Map<ConnectionWorkload, HikariDataSource> pools) {
+    this.pools = new EnumMap<>(pools);
+    setTargetDataSources(new HashMap<>(pools));
+    setDefaultTargetDataSource(pools.get(ConnectionWorkload.ADMIN));
+    afterPropertiesSet();
+  }
+
+  @Override
+  protected Object determineCurrentLookupKey() {
+    return ConnectionWorkload.current();
+  }
+
+  @Override
+  public void close() {
+    pools.values().forEach(HikariDataSource::close);
+  }
+}
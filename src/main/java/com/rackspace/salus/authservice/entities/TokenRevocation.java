@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.entities;
+
+import java.time.Instant;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import lombok.Data;
+
+/**
+ * A token revoked by its deletion. The revocation log is read and written through
+ * {@link com.rackspace.salus.authservice.repositories.TokenRevocationRepository}, so this mapping
+ * exists so that the table's schema is managed along with that of the other entities.
+ */
+@Entity
+@Table(name = "envoy_token_revocations",
+    indexes = {
+        @Index(name = "by_revoked_at", columnList = "revoked_at"),
+        @Index(name = "by_signed_token", columnList = "signed_token,id")
+    })
+@Data
+public class TokenRevocation {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  Long id;
+
+  @Column(name = "token_key", nullable = false)
+  String tokenKey;
+
+  /**
+   * Revocations of signed tokens are retained indefinitely, since signed tokens never expire.
+   */
+  @Column(name = "signed_token", nullable = false)
+  boolean signed;
+
+  @Column(name = "revoked_at", nullable = false)
+  Instant revokedAt;
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.repositories;
+
+import com.rackspace.salus.authservice.web.model.EnvoyTokenDTO;
+import com.rackspace.salus.telemetry.entities.EnvoyToken;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.repository.support.PageableExecutionUtils;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Provides set-based operations on {@link com.rackspace.salus.telemetry.entities.EnvoyToken}
+ * that are not available from
+ * {@link com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository}, which would otherwise
+ * require loading and saving each entity individually.
+ */
+@Repository
+public class EnvoyTokenBatchRepository {
+
+  /**
+   * The fetch size of streamed queries for drivers that honor it, see
+   * {@link #streamFetchSize(Dialect)}.
+   */
+  static final int STREAM_FETCH_SIZE = 1000;
+  /**
+   * Matches hibernate.jdbc.batch_size so that each flush sends a single JDBC batch.
+   */
+  private static final int INSERT_BATCH_SIZE = 100;
+  /**
+   * Selects the fields returned by the read endpoints without loading managed entities.
+   */
+  private static final String SELECT_TOKEN_DTO = "select new " + EnvoyTokenDTO.class.getName()
+      + "(t.id, t.token, t.tenantId, t.description,"
+      + " t.createdTimestamp, t.updatedTimestamp, t.lastUsed) from EnvoyToken t";
+
+  @PersistenceContext
+  EntityManager entityManager;
+
+  /**
+   * Sets the lastUsed timestamp of all of the given tokens with a single update statement.
+   * @param tokenIds the IDs of the tokens to update
+   * @param lastUsed the timestamp to assign
+   * @return the number of tokens updated
+   */
+  @Transactional
+  public int updateLastUsed(Collection<UUID> tokenIds, Instant lastUsed) {
+    return entityManager
+        .createQuery("update EnvoyToken t set t.lastUsed = :lastUsed where t.id in :ids")
+        .setParameter("lastUsed", lastUsed)
+        .setParameter("ids", tokenIds)
+        .executeUpdate();
+  }
+
+  /**
+   * Inserts all of the given tokens in a single transaction. The persistence context is flushed
+   * and cleared periodically, which sends the inserts as JDBC batches and bounds the memory used.
+   * @param tokens the new tokens to insert, which are populated with their generated fields
+   */
+  @Transactional
+  public void insertAll(List<EnvoyToken> tokens) {
+    for (int i = 0; i < tokens.size(); i++) {
+      entityManager.persist(tokens.get(i));
+      if ((i + 1) % INSERT_BATCH_SIZE == 0) {
+        entityManager.flush();
+        entityManager.clear();
+      }
+    }
+  }
+
+  /**
+   * Retrieves the ID and value of up to the given number of the tenant's tokens, without loading
+   * the token entities.
+   * @param tenantId the tenant owning the tokens
+   * @param maxResults the maximum number of tokens to retrieve
+   * @return token values keyed by token ID, which is empty when the tenant has no more tokens
+   */
+  @Transactional(readOnly = true)
+  public Map<UUID, String> findTokenValuesOfTenant(String tenantId, int maxResults) {
+    final Map<UUID, String> tokenValues = new LinkedHashMap<>();
+    entityManager
+        .createQuery("select t.id, t.token from EnvoyToken t where t.tenantId = :tenantId",
+            Object[].class)
+        .setParameter("tenantId", tenantId)
+        .setMaxResults(maxResults)
+        .getResultList()
+        .forEach(row -> tokenValues.put((UUID) row[0], (String) row[1]));
+    return tokenValues;
+  }
+
+  /**
+   * Retrieves the ID and value of up to the given number of tokens whose value does not start
+   * with the given prefix, optionally limited to those created at or after the given time.
+   * <p>
+   * The prefix can't use an index, so limiting the creation time is what keeps repeated
+   * retrievals from scanning every token.
+   * </p>
+   * @param excludedPrefix the prefix of token values to exclude
+   * @param createdSince if non-null, only tokens created at or after this time are included
+   * @param maxResults the maximum number of tokens to retrieve
+   * @return token values keyed by token ID
+   */
+  @Transactional(readOnly = true)
+  public Map<UUID, String> findTokenValuesWithoutPrefix(String excludedPrefix,
+                                                        Instant createdSince, int maxResults) {
+    final Map<UUID, String> tokenValues = new LinkedHashMap<>();
+    final TypedQuery<Object[]> query;
+    if (createdSince != null) {
+      query = entityManager
+          .createQuery("select t.id, t.token from EnvoyToken t"
+              + " where t.createdTimestamp >= :createdSince and t.token not like :pattern",
+              Object[].class)
+          .setParameter("createdSince", createdSince);
+    } else {
+      query = entityManager
+          .createQuery("select t.id, t.token from EnvoyToken t where t.token not like :pattern",
+              Object[].class);
+    }
+    query
+        .setParameter("pattern", excludedPrefix + "%")
+        .setMaxResults(maxResults)
+        .getResultList()
+        .forEach(row -> tokenValues.put((UUID) row[0], (String) row[1]));
+    return tokenValues;
+  }
+
+  /**
+   * Replaces the value of each of the given tokens within a single transaction.
+   * @param tokenValues the new token values keyed by token ID
+   */
+  @Transactional
+  public void replaceTokenValues(Map<UUID, String> tokenValues) {
+    final Query query = entityManager
+        .createQuery("update EnvoyToken t set t.token = :token where t.id = :id");
+    tokenValues.forEach((id, token) -> query
+        .setParameter("id", id)
+        .setParameter("token", token)
+        .executeUpdate());
+  }
+
+  /**
+   * Finds which of the given token values are allocated, without loading the token entities.
+   * @param tokenValues the token values to find
+   * @return the ID of each allocated token keyed by its token value
+   */
+  @Transactional(readOnly = true)
+  public Map<String, UUID> findIdsByTokenValues(Collection<String> tokenValues) {
+    final Map<String, UUID> tokenIds = new LinkedHashMap<>();
+    entityManager
+        .createQuery("select t.token, t.id from EnvoyToken t where t.token in :tokens",
+            Object[].class)
+        .setParameter("tokens", tokenValues)
+        .getResultList()
+        .forEach(row -> tokenIds.put((String) row[0], (UUID) row[1]));
+    return tokenIds;
+  }
+
+  /**
+   * Deletes the given tokens with a single delete statement.
+   * @param tokenIds the IDs of the tokens to delete
+   * @return the number of tokens deleted
+   */
+  @Transactional
+  public int deleteAllById(Collection<UUID> tokenIds) {
+    return entityManager
+        .createQuery("delete from EnvoyToken t where t.id in :ids")
+        .setParameter("ids", tokenIds)
+        .executeUpdate();
+  }
+
+  /**
+   * Streams the value of every allocated token, optionally limited to those created at or after
+   * the given time, without loading the token entities.
+   * @param createdSince if non-null, only tokens created at or after this time are included
+   * @param consumer invoked with each token value
+   */
+  @Transactional(readOnly = true)
+  public void forEachTokenValue(Instant createdSince, Consumer<String> consumer) {
+    final TypedQuery<String> query;
+    if (createdSince != null) {
+      query = entityManager
+          .createQuery(
+              "select t.token from EnvoyToken t where t.createdTimestamp >= :createdSince",
+              String.class)
+          .setParameter("createdSince", createdSince);
+    } else {
+      query = entityManager.createQuery("select t.token from EnvoyToken t", String.class);
+    }
+
+    try (Stream<String> tokenValues = query
+        .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize())
+        .getResultStream()) {
+      tokenValues.forEach(consumer);
+    }
+  }
+
+  /**
+   * Retrieves one of the tenant's tokens.
+   * @param tenantId the tenant owning the token
+   * @param tokenId the ID of the token
+   * @return the token or empty if the tenant has no such token
+   */
+  @Transactional(readOnly = true)
+  public Optional<EnvoyTokenDTO> findTokenOfTenant(String tenantId, UUID tokenId) {
+    return entityManager
+        .createQuery(SELECT_TOKEN_DTO + " where t.tenantId = :tenantId and t.id = :id",
+            EnvoyTokenDTO.class)
+        .setParameter("tenantId", tenantId)
+        .setParameter("id", tokenId)
+        .getResultList()
+        .stream()
+        .findFirst();
+  }
+
+  /**
+   * Retrieves a page of the tenant's tokens.
+   * @param tenantId the tenant owning the tokens
+   * @param page the page to retrieve, which may specify the sort order
+   * @return the page of tokens
+   */
+  @Transactional(readOnly = true)
+  public Page<EnvoyTokenDTO> findTokensOfTenant(String tenantId, Pageable page) {
+    final TypedQuery<EnvoyTokenDTO> query = entityManager
+        .createQuery(
+            QueryUtils.applySorting(SELECT_TOKEN_DTO + " where t.tenantId = :tenantId",
+                page.getSort(), "t"),
+            EnvoyTokenDTO.class)
+        .setParameter("tenantId", tenantId);
+    if (page.isPaged()) {
+      query
+          .setFirstResult((int) page.getOffset())
+          .setMaxResults(page.getPageSize());
+    }
+
+    // as with derived queries, the count is skipped when the page content implies it
+    return PageableExecutionUtils.getPage(query.getResultList(), page, () -> entityManager
+        .createQuery("select count(t) from EnvoyToken t where t.tenantId = :tenantId",
+            Long.class)
+        .setParameter("tenantId", tenantId)
+        .getSingleResult());
+  }
+
+  /**
+   * Retrieves up to the given number of the tenant's tokens in order of creation time and then
+   * ID, continuing after the given position. The position is located by the ordering columns
+   * rather than an offset, so no rows before it are scanned and no count is needed.
+   * @param tenantId the tenant owning the tokens
+   * @param afterCreated the creation time of the last token previously retrieved or null to
+   * start with the tenant's first token
+   * @param afterId the ID of the last token previously retrieved, ignored if afterCreated is null
+   * @param maxResults the maximum number of tokens to retrieve
+   * @return the tokens in listing order
+   */
+  @Transactional(readOnly = true)
+  public List<EnvoyTokenDTO> findTokensOfTenantAfter(String tenantId, Instant afterCreated,
+                                                     UUID afterId, int maxResults) {
+    final TypedQuery<EnvoyTokenDTO> query;
+    if (afterCreated != null) {
+      query = entityManager
+          .createQuery(
+              SELECT_TOKEN_DTO + " where t.tenantId = :tenantId"
+                  + " and (t.createdTimestamp > :afterCreated"
+                  + " or (t.createdTimestamp = :afterCreated and t.id > :afterId))"
+                  + " order by t.createdTimestamp, t.id",
+              EnvoyTokenDTO.class)
+          .setParameter("afterCreated", afterCreated)
+          .setParameter("afterId", afterId);
+    } else {
+      query = entityManager
+          .createQuery(
+              SELECT_TOKEN_DTO + " where t.tenantId = :tenantId"
+                  + " order by t.createdTimestamp, t.id",
+              EnvoyTokenDTO.class);
+    }
+    return query
+        .setParameter("tenantId", tenantId)
+        .setMaxResults(maxResults)
+        .getResultList();
+  }
+
+  /**
+   * Streams all of the tenant's tokens in order of creation time and then ID. The tokens are
+   * not retained by the persistence context, so the memory used does not grow with the number
+   * of tokens.
+   * <p>
+   * The connection is held until the consumer has been given the last token, so a consumer
+   * that writes to a slow client holds it for as long as the client takes to read. As with the
+   * other streamed queries, the consumer must not use the repository, since MySQL does not
+   * allow other statements on the connection while the rows are being streamed.
+   * </p>
+   * @param tenantId the tenant owning the tokens
+   * @param consumer invoked with each token
+   */
+  @Transactional(readOnly = true)
+  public void forEachTokenOfTenant(String tenantId, Consumer<EnvoyTokenDTO> consumer) {
+    try (Stream<EnvoyTokenDTO> tokens = entityManager
+        .createQuery(
+            SELECT_TOKEN_DTO + " where t.tenantId = :tenantId"
+                + " order by t.createdTimestamp, t.id",
+            EnvoyTokenDTO.class)
+        .setParameter("tenantId", tenantId)
+        .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize())
+        .getResultStream()) {
+      tokens.forEach(consumer);
+    }
+  }
+
+  /**
+   * Streams the value and tenant of the most recently used tokens, without loading the token
+   * entities.
+   * @param usedSince only tokens last used at or after this time are included
+   * @param maxResults the maximum number of tokens to include
+   * @param consumer invoked with the value and tenant of each token, most recently used first
+   */
+  @Transactional(readOnly = true)
+  public void forEachRecentlyUsed(Instant usedSince, int maxResults,
+                                  BiConsumer<String, String> consumer) {
+    try (Stream<Object[]> tokens = entityManager
+        .createQuery(
+            "select t.token, t.tenantId from EnvoyToken t where t.lastUsed >= :usedSince"
+                + " order by t.lastUsed desc",
+            Object[].class)
+        .setParameter("usedSince", usedSince)
+        .setMaxResults(maxResults)
+        .setHint(QueryHints.HINT_FETCH_SIZE, streamFetchSize())
+        .getResultStream()) {
+      tokens.forEach(row -> consumer.accept((String) row[0], (String) row[1]));
+    }
+  }
+
+  private int streamFetchSize() {
+    return streamFetchSize(entityManager.getEntityManagerFactory()
+        .unwrap(SessionFactoryImplementor.class)
+        .getJdbcServices()
+        .getDialect());
+  }
+
+  /**
+   * MySQL Connector/J ignores a positive fetch size unless useCursorFetch is enabled and reads
+   * the whole result into memory instead. It streams the rows one at a time when given
+   * {@link Integer#MIN_VALUE}, which other drivers reject.
+   * @return the fetch size to use for queries that stream their results
+   */
+  static int streamFetchSize(Dialect dialect) {
+    return dialect instanceof MySQLDialect ? Integer.MIN_VALUE : STREAM_FETCH_SIZE;
+  }
+}
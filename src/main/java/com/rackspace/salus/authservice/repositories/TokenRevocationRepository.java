@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.repositories;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import lombok.Value;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Accesses the log of revoked token keys, whose table is mapped by
+ * {@link com.rackspace.salus.authservice.entities.TokenRevocation}.
+ */
+@Repository
+public class TokenRevocationRepository {
+
+  static final String TABLE = "envoy_token_revocations";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+  @Autowired
+  public TokenRevocationRepository(JdbcTemplate jdbcTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+  }
+
+  /**
+   * Appends the given token keys, which participates in the current transaction, if any.
+   * @param signed true if the keys are those of signed tokens
+   */
+  public void append(Collection<String> tokenKeys, boolean signed) {
+    final Timestamp now = Timestamp.from(Instant.now());
+    jdbcTemplate.batchUpdate(
+        "insert into " + TABLE + " (token_key, signed_token, revoked_at) values (?, ?, ?)",
+        tokenKeys.stream()
+            .map(tokenKey -> new Object[]{tokenKey, signed, now})
+            .collect(Collectors.toList()));
+  }
+
+  /**
+   * @return up to the given number of revocations with an ID greater than the given one,
+   * in ID order
+   */
+  public List<Revocation> findAfter(long id, int maxResults) {
+    return namedJdbcTemplate.query(
+        "select id, token_key from " + TABLE + " where id > :id order by id limit :limit",
+        new MapSqlParameterSource("id", id)
+            .addValue("limit", maxResults),
+        (rs, rowNum) -> new Revocation(rs.getLong(1), rs.getString(2)));
+  }
+
+  /**
+   * @return up to the given number of revocations of signed tokens with an ID greater than
+   * afterId and no greater than maxId, in ID order
+   */
+  public List<Revocation> findSignedBetween(long afterId, long maxId, int maxResults) {
+    return namedJdbcTemplate.query(
+        "select id, token_key from " + TABLE
+            + " where signed_token = true and id > :afterId and id <= :maxId"
+            + " order by id limit :limit",
+        new MapSqlParameterSource("afterId", afterId)
+            .addValue("maxId", maxId)
+            .addValue("limit", maxResults),
+        (rs, rowNum) -> new Revocation(rs.getLong(1), rs.getString(2)));
+  }
+
+  public List<Revocation> findByIds(Collection<Long> ids) {
+    return namedJdbcTemplate.query(
+        "select id, token_key from " + TABLE + " where id in (:ids)",
+        new MapSqlParameterSource("ids", ids),
+        (rs, rowNum) -> new Revocation(rs.getLong(1), rs.getString(2)));
+  }
+
+  /**
+   * @return the highest revocation ID or zero if there are none
+   */
+  public long maxId() {
+    final Long maxId = jdbcTemplate.queryForObject(
+        "select max(id) from " + TABLE, Long.class);
+    return maxId != null ? maxId : 0;
+  }
+
+  /**
+   * Deletes the revocations of opaque tokens made before the given time. Those of signed tokens
+   * are kept, since signed tokens never expire.
+   * @return the number of revocations deleted
+   */
+  public int deleteOpaqueRevokedBefore(Instant revokedBefore) {
+    return jdbcTemplate.update(
+        "delete from " + TABLE + " where signed_token = false and revoked_at < ?",
+        Timestamp.from(revokedBefore));
+  }
+
+  @Value
+  public static class Revocation {
+    long id;
+    String tokenKey;
+  }
+}
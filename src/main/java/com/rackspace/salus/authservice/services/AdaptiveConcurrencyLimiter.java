@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the concurrency of an operation to a limit that adapts to its observed latency using
+ * additive increase, multiplicative decrease (AIMD).
+ * <p>
+ * Each completion within the latency threshold, while at least half of the limit is in use,
+ * grows the limit by its reciprocal, which is roughly one per round of completions. Each slow
+ * or failed completion reduces the limit by the backoff ratio. Callers that arrive while the
+ * limit is reached wait up to the maximum queue time for a permit.
+ * </p>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final long latencyThresholdNanos;
+  private final double backoffRatio;
+  private final long maxQueueNanos;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition permitAvailable = lock.newCondition();
+  private double limit;
+  private int inFlight;
+
+  public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                    Duration latencyThreshold, double backoffRatio,
+                                    Duration maxQueueTime) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.latencyThresholdNanos = latencyThreshold.toNanos();
+    this.backoffRatio = backoffRatio;
+    this.maxQueueNanos = maxQueueTime.toNanos();
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  /**
+   * Acquires a permit, waiting up to the maximum queue time. Each acquired permit must be
+   * given back by {@link #release(long, boolean)}.
+   * @return true if a permit was acquired
+   */
+  public boolean acquire() throws InterruptedException {
+    lock.lock();
+    try {
+      long remainingNanos = maxQueueNanos;
+      while (inFlight >= (int) limit) {
+        if (remainingNanos <= 0) {
+          return false;
+        }
+        remainingNanos = permitAvailable.awaitNanos(remainingNanos);
+      }
+      inFlight++;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gives back a permit and adapts the limit to the outcome of the operation.
+   * @param latencyNanos how long the operation took
+   * @param succeeded false if the operation failed
+   */
+  public void release(long latencyNanos, boolean succeeded) {
+    lock.lock();
+    try {
+      // an underused limit is not grown, since its completions don't show it is too low
+      final boolean limitInUse = inFlight * 2 >= limit;
+      inFlight--;
+      if (!succeeded || latencyNanos > latencyThresholdNanos) {
+        limit = Math.max(minLimit, limit * backoffRatio);
+      } else if (limitInUse) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+      // the limit may have grown by more than the one permit
+      permitAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getInFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
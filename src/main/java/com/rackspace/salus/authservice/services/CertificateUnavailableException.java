@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import java.time.Duration;
+
+/**
+ * Indicates that client certificates could not be provided at this time, but a later retry
+ * is expected to succeed.
+ */
+public class CertificateUnavailableException extends RuntimeException {
+
+  private final Duration retryAfter;
+
+  public CertificateUnavailableException(String message) {
+    super(message);
+    this.retryAfter = null;
+  }
+
+  /**
+   * @param retryAfter how long the client should wait before retrying
+   */
+  public CertificateUnavailableException(String message, Duration retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+
+  public CertificateUnavailableException(String message, Throwable cause) {
+    super(message, cause);
+    this.retryAfter = null;
+  }
+
+  /**
+   * @return how long the client should wait before retrying or null if not known
+   */
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.CertPoolProperties;
+import com.rackspace.salus.authservice.web.CertResponse;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps a small number of pre-issued client certificates ready for each recently active tenant,
+ * which moves the Vault PKI issuance, including its key generation, off of the request path.
+ * <p>
+ * A tenant becomes active by requesting a certificate. Taking a certificate from a tenant's pool
+ * triggers an asynchronous refill and all active pools are also periodically topped up, which
+ * discards certificates older than the configured max age and pools of inactive tenants.
+ * </p>
+ */
+@Service
+@Slf4j
+public class ClientCertificatePool implements SmartLifecycle {
+
+  private final VaultCertificateIssuer issuer;
+  private final CertPoolProperties properties;
+  private final Clock clock;
+  private final ConcurrentMap<String, TenantPool> pools = new ConcurrentHashMap<>();
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter refillFailures;
+  private final Timer refillTimer;
+  private volatile ScheduledExecutorService executor;
+  private volatile boolean running;
+
+  @Autowired
+  public ClientCertificatePool(VaultCertificateIssuer issuer, CertPoolProperties properties,
+                               MeterRegistry meterRegistry) {
+    this(issuer, properties, meterRegistry, Clock.systemUTC());
+  }
+
+  ClientCertificatePool(VaultCertificateIssuer issuer, CertPoolProperties properties,
+                        MeterRegistry meterRegistry, Clock clock) {
+    this.issuer = issuer;
+    this.properties = properties;
+    this.clock = clock;
+
+    Gauge.builder("clientCertificatePoolDepth", this, ClientCertificatePool::depth)
+        .tag(MetricTags.SERVICE_METRIC_TAG, "ClientCertificatePool")
+        .register(meterRegistry);
+    Gauge.builder("clientCertificatePoolTenants", pools, Map::size)
+        .tag(MetricTags.SERVICE_METRIC_TAG, "ClientCertificatePool")
+        .register(meterRegistry);
+    hits = Counter.builder("clientCertificatePoolTakes")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "ClientCertificatePool", "result", "hit")
+        .register(meterRegistry);
+    misses = Counter.builder("clientCertificatePoolTakes")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "ClientCertificatePool", "result", "miss")
+        .register(meterRegistry);
+    refillFailures = Counter.builder("clientCertificatePoolRefillFailures")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "ClientCertificatePool")
+        .register(meterRegistry);
+    refillTimer = Timer.builder("clientCertificatePoolRefill")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "ClientCertificatePool")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Takes a pre-issued certificate for the given tenant, if one is available, and marks the
+   * tenant as active so that its pool is kept filled.
+   * @param tenant the tenant requesting a certificate
+   * @return a pre-issued certificate or null if none is available or pooling is disabled
+   */
+  public CertResponse take(String tenant) {
+    if (!properties.isEnabled()) {
+      return null;
+    }
+
+    final Instant now = clock.instant();
+    TenantPool pool = pools.get(tenant);
+    if (pool == null) {
+      if (pools.size() >= properties.getMaxTenants()) {
+        misses.increment();
+        return null;
+      }
+      pool = pools.computeIfAbsent(tenant, key -> new TenantPool(now));
+    }
+    pool.lastRequested = now;
+
+    final Instant oldestAllowed = now.minus(properties.getMaxAge());
+    PooledCertificate pooled;
+    while ((pooled = pool.certificates.pollFirst()) != null) {
+      if (pooled.issued.isAfter(oldestAllowed)) {
+        break;
+      }
+    }
+
+    submitRefill(tenant, pool);
+
+    if (pooled != null) {
+      hits.increment();
+      return pooled.certResponse;
+    } else {
+      misses.increment();
+      return null;
+    }
+  }
+
+  int depth() {
+    return pools.values().stream()
+        .mapToInt(pool -> pool.certificates.size())
+        .sum();
+  }
+
+  /**
+   * Discards stale certificates and pools of inactive tenants and tops up the remaining pools.
+   */
+  void maintain() {
+    final Instant now = clock.instant();
+    final Instant oldestAllowed = now.minus(properties.getMaxAge());
+    final Instant activeSince = now.minus(properties.getActiveWindow());
+
+    pools.forEach((tenant, pool) -> {
+      if (pool.lastRequested.isBefore(activeSince)) {
+        log.debug("Removing certificate pool of inactive tenant={}", tenant);
+        pools.remove(tenant, pool);
+        return;
+      }
+      pool.certificates.removeIf(pooled -> !pooled.issued.isAfter(oldestAllowed));
+      submitRefill(tenant, pool);
+    });
+  }
+
+  void refill(String tenant, TenantPool pool) {
+    try {
+      while (pool.certificates.size() < properties.getSize() && pools.get(tenant) == pool) {
+        final CertResponse certResponse = refillTimer.record(() -> issuer.issue(tenant));
+        pool.certificates.addLast(new PooledCertificate(certResponse, clock.instant()));
+      }
+    } catch (Exception e) {
+      log.warn("Failed to pre-issue client certificate for tenant={}", tenant, e);
+      refillFailures.increment();
+    } finally {
+      pool.refilling.set(false);
+    }
+  }
+
+  private void submitRefill(String tenant, TenantPool pool) {
+    final ScheduledExecutorService executor = this.executor;
+    if (executor == null || pool.certificates.size() >= properties.getSize()
+        || !pool.refilling.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(() -> refill(tenant, pool));
+    } catch (RejectedExecutionException e) {
+      pool.refilling.set(false);
+    }
+  }
+
+  @Override
+  public void start() {
+    if (properties.isEnabled()) {
+      executor = Executors.newScheduledThreadPool(properties.getRefillThreads(),
+          new CustomizableThreadFactory("client-cert-pool-"));
+      final long intervalMillis = properties.getRefillInterval().toMillis();
+      executor.scheduleWithFixedDelay(() -> {
+        try {
+          maintain();
+        } catch (Exception e) {
+          log.warn("Unexpected failure while maintaining client certificate pools", e);
+        }
+      }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return 0;
+  }
+
+  static class TenantPool {
+    final Deque<PooledCertificate> certificates = new ConcurrentLinkedDeque<>();
+    final AtomicBoolean refilling = new AtomicBoolean();
+    volatile Instant lastRequested;
+
+    TenantPool(Instant lastRequested) {
+      this.lastRequested = lastRequested;
+    }
+  }
+
+  static class PooledCertificate {
+    final CertResponse certResponse;
+    final Instant issued;
+
+    PooledCertificate(CertResponse certResponse, Instant issued) {
+      this.certResponse = certResponse;
+      this.issued = issued;
+    }
+  }
+}
@@ -18,67 +18,265 @@ package com.rackspace.salus.authservice.services;
 
 import com.rackspace.salus.authservice.config.AuthProperties;
 import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.CacheProperties;
+import com.rackspace.salus.authservice.config.PkiLimiterProperties;
+import com.rackspace.salus.authservice.config.RequestExecutionProperties;
+import com.rackspace.salus.authservice.config.VirtualThreads;
 import com.rackspace.salus.authservice.web.CertResponse;
 import com.rackspace.salus.common.config.MetricNames;
 import com.rackspace.salus.common.config.MetricTagValues;
 import com.rackspace.salus.common.config.MetricTags;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.vault.core.VaultTemplate;
-import org.springframework.vault.support.VaultCertificateRequest;
-import org.springframework.vault.support.VaultCertificateResponse;
+import org.springframework.util.Assert;
 
 @Service
 @Slf4j
 public class ClientCertificateService {
 
-  private final VaultTemplate vaultTemplate;
-  private final AuthProperties properties;
-  MeterRegistry meterRegistry;
-  private final Counter.Builder clientCertificateSuccessCounter;
+  private final VaultCertificateIssuer issuer;
+  private final ClientCertificatePool certificatePool;
+  private final CacheProperties cacheProperties;
+  private final PkiLimiterProperties limiterProperties;
+  private final Cache certCache;
+  private final SingleFlight<String, IssuedCertificate> issuanceFlight;
+  private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+  private final ExecutorService refreshExecutor;
+  private final ExecutorService issuanceExecutor;
+  private final Semaphore issuancePermits;
+  private final MeterRegistry meterRegistry;
+  private final Counter clientCertificateSuccessCounter;
+  private final Timer cachedRetrievalTimer;
+  private final Timer issuedRetrievalTimer;
+  private final Counter refreshAheadCounter;
+  private final Counter rejectedCounter;
 
   @Autowired
-  public ClientCertificateService(VaultTemplate vaultTemplate, AuthProperties properties,
-      MeterRegistry meterRegistry) {
-    this.vaultTemplate = vaultTemplate;
-    this.properties = properties;
+  public ClientCertificateService(VaultCertificateIssuer issuer,
+                                  ClientCertificatePool certificatePool,
+                                  CacheManager cacheManager,
+                                  AuthProperties properties,
+                                  CacheProperties cacheProperties,
+                                  RequestExecutionProperties requestExecutionProperties,
+                                  PkiLimiterProperties limiterProperties,
+                                  MeterRegistry meterRegistry) {
+    this.issuer = issuer;
+    this.certificatePool = certificatePool;
+    this.cacheProperties = cacheProperties;
+    this.limiterProperties = limiterProperties;
+    this.certCache = cacheManager.getCache(CacheConfig.CLIENT_CERTS);
+    Assert.state(certCache != null, "Unable to locate client certificates cache");
     this.meterRegistry = meterRegistry;
+    this.cachedRetrievalTimer = Timer.builder("clientCertificateRetrieval")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "ClientCertificateService", "source", "cache")
+        .register(meterRegistry);
+    this.issuedRetrievalTimer = Timer.builder("clientCertificateRetrieval")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "ClientCertificateService", "source", "issuance")
+        .register(meterRegistry);
     this.clientCertificateSuccessCounter = Counter.builder(MetricNames.SERVICE_OPERATION_SUCCEEDED)
-        .tag(MetricTags.SERVICE_METRIC_TAG,"ClientCertificateService");
+        .tags(MetricTags.SERVICE_METRIC_TAG,"ClientCertificateService",
+            MetricTags.OPERATION_METRIC_TAG,"get",MetricTags.OBJECT_TYPE_METRIC_TAG,"clientCertificate")
+        .register(meterRegistry);
+    this.issuanceFlight = new SingleFlight<>(properties.getCertIssuanceWaitTimeout(),
+        Counter.builder("clientCertificateIssuanceCoalesced")
+            .tag(MetricTags.SERVICE_METRIC_TAG, "ClientCertificateService")
+            .register(meterRegistry));
+    this.refreshAheadCounter = Counter.builder("clientCertificateRefreshAhead")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "ClientCertificateService")
+        .register(meterRegistry);
+
+    this.rejectedCounter = Counter.builder("clientCertificateRequestsRejected")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "ClientCertificateService")
+        .register(meterRegistry);
+
+    final CustomizableThreadFactory threadFactory =
+        new CustomizableThreadFactory("client-cert-refresh-");
+    threadFactory.setDaemon(true);
+    this.refreshExecutor = Executors.newSingleThreadExecutor(threadFactory);
+
+    final int maxInFlight = properties.getMaxCertIssuancesInFlight();
+    if (requestExecutionProperties.getMode() == RequestExecutionProperties.Mode.VIRTUAL) {
+      this.issuanceExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+    } else {
+      final CustomizableThreadFactory issuanceThreadFactory =
+          new CustomizableThreadFactory("client-cert-issuance-");
+      issuanceThreadFactory.setDaemon(true);
+      // sized to the permits, so a permitted request never waits on the executor's queue
+      this.issuanceExecutor = Executors.newFixedThreadPool(maxInFlight, issuanceThreadFactory);
+    }
+    this.issuancePermits = new Semaphore(maxInFlight);
+    Gauge.builder("clientCertificateIssuancesInFlight", issuancePermits,
+        permits -> maxInFlight - permits.availablePermits())
+        .tag(MetricTags.SERVICE_METRIC_TAG, "ClientCertificateService")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Provides the client certificates of the tenant without blocking the calling thread on
+   * Vault. Cached certificates are provided immediately, otherwise the certificates are
+   * obtained as described by {@link #getClientCertificate(String)} on an executor whose
+   * concurrency is limited by the configured maximum in-flight issuances.
+   * @return a future that completes with the certificates, or exceptionally with
+   * {@link CertificateUnavailableException} if the maximum in-flight issuances was reached
+   */
+  public CompletableFuture<CertResponse> getClientCertificateAsync(String tenant) {
+    final Timer.Sample sample = Timer.start(meterRegistry);
+    final CertResponse cached = getCached(tenant);
+    if (cached != null) {
+      sample.stop(cachedRetrievalTimer);
+      return CompletableFuture.completedFuture(cached);
+    }
+
+    if (!issuancePermits.tryAcquire()) {
+      rejectedCounter.increment();
+      return CompletableFuture.failedFuture(new CertificateUnavailableException(
+          "Too many client certificate requests are waiting on issuance",
+          limiterProperties.getRetryAfter()));
+    }
+    try {
+      return CompletableFuture
+          .supplyAsync(() -> getClientCertificate(tenant), issuanceExecutor)
+          .whenComplete((certResponse, throwable) -> issuancePermits.release());
+    } catch (RejectedExecutionException e) {
+      issuancePermits.release();
+      return CompletableFuture.failedFuture(new CertificateUnavailableException(
+          "Client certificate issuance is shutting down", e));
+    }
   }
 
-  @Cacheable(CacheConfig.CLIENT_CERTS)
+  /**
+   * Provides the cached client certificates of the tenant or issues new ones.
+   * <p>
+   * Concurrent cache misses for the same tenant share a single certificate issuance, such as
+   * when all of a tenant's Envoys start at once. A cache hit that is within the refresh-ahead
+   * window of the entry's expiry re-issues the certificates in the background.
+   * </p>
+   * @throws CertificateUnavailableException if a concurrent issuance for the tenant did not
+   * complete in time
+   */
   public CertResponse getClientCertificate(String tenant) {
-    log.info("Allocating client certificates for tenant={} from Vault", tenant);
+    final Timer.Sample sample = Timer.start(meterRegistry);
+    final CertResponse cached = getCached(tenant);
+    if (cached != null) {
+      sample.stop(cachedRetrievalTimer);
+      return cached;
+    }
 
-    final VaultCertificateResponse resp = vaultTemplate.opsForPki()
-        .issueCertificate(
-            properties.getPkiRoleName(),
-            VaultCertificateRequest.create(tenant));
+    final IssuedCertificate issued;
+    try {
+      issued = issuanceFlight.execute(tenant, () -> allocateAndCache(tenant));
+    } catch (TimeoutException e) {
+      throw new CertificateUnavailableException(
+          "Timed out waiting for client certificate issuance", e);
+    }
 
-    CertResponse rd = new CertResponse(formatCert(resp.getData().getCertificate(), "CERTIFICATE"),
-        formatCert(resp.getData().getIssuingCaCertificate(), "CERTIFICATE"),
-        formatCert(resp.getData().getPrivateKey(), "RSA PRIVATE KEY"));
+    sample.stop(issuedRetrievalTimer);
+    clientCertificateSuccessCounter.increment();
+    return issued.getCertResponse();
+  }
 
-    clientCertificateSuccessCounter
-        .tags(MetricTags.OPERATION_METRIC_TAG,"get",MetricTags.OBJECT_TYPE_METRIC_TAG,"clientCertificate")
-        .register(meterRegistry).increment();
-    return rd;
+  /**
+   * @return the cached certificates of the tenant, if not expired, or null
+   */
+  private CertResponse getCached(String tenant) {
+    final IssuedCertificate cached = certCache.get(tenant, IssuedCertificate.class);
+    final Instant now = Instant.now();
+    if (cached != null && !cached.isExpired(now)) {
+      if (cached.needsRefresh(now)) {
+        refreshAhead(tenant);
+      }
+      return cached.getCertResponse();
+    }
+    return null;
   }
 
-  static String formatCert(String c, String name) {
-    StringBuilder n = new StringBuilder("-----BEGIN " + name + "-----");
-    for (int i = 0; i < c.length() ; i++) {
-      if ((i % 64) == 0) {
-        n.append("\n");
+  private void refreshAhead(String tenant) {
+    if (!refreshing.add(tenant)) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          log.debug("Refreshing client certificates ahead of expiry for tenant={}", tenant);
+          issuanceFlight.execute(tenant, () -> allocateAndCache(tenant));
+          refreshAheadCounter.increment();
+        } catch (Exception e) {
+          log.warn("Failed to refresh client certificates for tenant={}", tenant, e);
+        } finally {
+          refreshing.remove(tenant);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      refreshing.remove(tenant);
+    }
+  }
+
+  private IssuedCertificate allocateAndCache(String tenant) {
+    CertResponse rd = certificatePool.take(tenant);
+    if (rd != null) {
+      log.info("Allocating pre-issued client certificates for tenant={}", tenant);
+    } else {
+      rd = issuer.issue(tenant);
+    }
+
+    final IssuedCertificate issued = toIssuedCertificate(rd, Instant.now());
+    certCache.put(tenant, issued);
+    return issued;
+  }
+
+  /**
+   * Computes the cache expiry from the certificate's validity, falling back to the configured
+   * TTL when the validity cannot be determined. Validity periods that are too short for the
+   * configured margins use the midpoint of the remaining time instead.
+   */
+  IssuedCertificate toIssuedCertificate(CertResponse certResponse, Instant now) {
+    final CacheProperties.CertsCache certsProperties = cacheProperties.getCerts();
+    final Instant notAfter = IssuedCertificate.parseNotAfter(certResponse.getCertificate());
+
+    Instant expiresAt;
+    if (notAfter != null) {
+      expiresAt = notAfter.minus(certsProperties.getExpiryMargin());
+      if (!expiresAt.isAfter(now)) {
+        expiresAt = midpoint(now, notAfter);
       }
-      n.append(c.charAt(i));
+    } else {
+      expiresAt = now.plus(certsProperties.getTtl());
     }
-    n.append("\n-----END " + name + "-----");
-    return n.toString();
+
+    Instant refreshAt = expiresAt.minus(certsProperties.getRefreshAhead());
+    if (!refreshAt.isAfter(now)) {
+      refreshAt = midpoint(now, expiresAt);
+    }
+
+    return new IssuedCertificate(certResponse, expiresAt, refreshAt);
+  }
+
+  private static Instant midpoint(Instant start, Instant end) {
+    return start.plus(Duration.between(start, end).dividedBy(2));
+  }
+
+  @PreDestroy
+  public void stop() {
+    refreshExecutor.shutdownNow();
+    issuanceExecutor.shutdownNow();
   }
 }
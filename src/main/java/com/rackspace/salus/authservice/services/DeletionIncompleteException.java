@@ -0,0 +1,28 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+/**
+ * Indicates that a deletion ran out of time after deleting some of the entities. Retrying the
+ * deletion continues with the remaining entities.
+ */
+public class DeletionIncompleteException extends RuntimeException {
+
+  public DeletionIncompleteException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.ConnectionWorkload;
+import com.rackspace.salus.authservice.config.InvalidTokenProperties;
+import com.rackspace.salus.authservice.config.ReplicaRouting;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+/**
+ * Rejects bearer tokens that are known to be invalid without requiring a database lookup.
+ * <p>
+ * A token is known to be invalid when it recently failed validation, as tracked by a bounded,
+ * short-lived negative cache, or when it is definitely absent from a bloom filter of all
+ * allocated token values. The bloom filter is rebuilt periodically from the database and is
+ * incrementally refreshed with tokens allocated by other instances in between.
+ * </p>
+ * <p>
+ * The bloom filter is enabled separately from the negative cache, since it is only suitable for
+ * a single instance: a token allocated by another instance is rejected until the next refresh.
+ * It is disregarded entirely while its most recent rebuild or refresh failed.
+ * </p>
+ */
+@Service
+@Slf4j
+public class InvalidTokenGuard implements SmartLifecycle {
+
+  private final EnvoyTokenBatchRepository batchRepository;
+  private final InvalidTokenProperties properties;
+  private final TokenDigester tokenDigester;
+  private final Cache invalidTokenCache;
+  private final Counter negativeCacheRejections;
+  private final Counter bloomFilterRejections;
+  private final Counter rebuildFailures;
+  private ScheduledExecutorService executor;
+  private volatile boolean running;
+
+  /**
+   * The filter consulted during validation, which is null until the first build completes
+   */
+  private volatile BloomFilter<CharSequence> knownTokens;
+  /**
+   * A filter that is currently being rebuilt, which also needs to receive locally allocated tokens
+   */
+  private volatile BloomFilter<CharSequence> rebuildingTokens;
+  private volatile Instant lastRefresh;
+  /**
+   * Cleared when a rebuild or refresh fails, since the filter would then miss tokens allocated
+   * by other instances for an unbounded amount of time
+   */
+  private volatile boolean knownTokensCurrent;
+
+  @Autowired
+  public InvalidTokenGuard(CacheManager cacheManager, EnvoyTokenBatchRepository batchRepository,
+                           TokenDigester tokenDigester, InvalidTokenProperties properties,
+                           MeterRegistry meterRegistry) {
+    this.invalidTokenCache = cacheManager.getCache(CacheConfig.INVALID_TOKENS);
+    Assert.state(invalidTokenCache != null, "Unable to locate invalid tokens cache");
+    this.batchRepository = batchRepository;
+    this.properties = properties;
+    this.tokenDigester = tokenDigester;
+
+    negativeCacheRejections = Counter.builder("invalidTokenRejections")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "InvalidTokenGuard", "source", "negativeCache")
+        .register(meterRegistry);
+    bloomFilterRejections = Counter.builder("invalidTokenRejections")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "InvalidTokenGuard", "source", "bloomFilter")
+        .register(meterRegistry);
+    rebuildFailures = Counter.builder("invalidTokenFilterFailures")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "InvalidTokenGuard")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @param tokenKey the key of a bearer token presented for validation, as determined by
+   * {@link TokenDigester#keyOf(String)}
+   * @return true if the token is definitely not valid and can be rejected without a lookup
+   */
+  public boolean isKnownInvalid(String tokenKey) {
+    if (!properties.isEnabled()) {
+      return false;
+    }
+
+    if (invalidTokenCache.get(tokenKey) != null) {
+      negativeCacheRejections.increment();
+      return true;
+    }
+
+    final BloomFilter<CharSequence> filter = knownTokens;
+    if (filter != null && knownTokensCurrent && properties.isBloomFilterEnabled()
+        && !filter.mightContain(tokenKey)) {
+      bloomFilterRejections.increment();
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Records that the token with the given key failed validation.
+   */
+  public void recordInvalid(String tokenKey) {
+    if (properties.isEnabled()) {
+      invalidTokenCache.put(tokenKey, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Records that the token with the given key was just allocated, so that it is accepted
+   * immediately.
+   */
+  public void recordAllocated(String tokenKey) {
+    invalidTokenCache.evict(tokenKey);
+
+    // read the rebuilding filter first since it becomes the known filter upon completion
+    final BloomFilter<CharSequence> rebuilding = rebuildingTokens;
+    if (rebuilding != null) {
+      rebuilding.put(tokenKey);
+    }
+    final BloomFilter<CharSequence> filter = knownTokens;
+    if (filter != null) {
+      filter.put(tokenKey);
+    }
+  }
+
+  /**
+   * Rebuilds the bloom filter from all of the allocated tokens.
+   */
+  synchronized void rebuild() {
+    final Instant started = Instant.now();
+    final BloomFilter<CharSequence> filter = newFilter();
+    rebuildingTokens = filter;
+    try {
+      ReplicaRouting.onPrimary(() -> batchRepository.forEachTokenValue(null,
+          storedValue -> filter.put(tokenDigester.keyOfStored(storedValue))));
+      knownTokens = filter;
+      lastRefresh = started;
+      knownTokensCurrent = true;
+      log.debug("Rebuilt token bloom filter with approximately {} tokens",
+          filter.approximateElementCount());
+    } finally {
+      rebuildingTokens = null;
+    }
+  }
+
+  /**
+   * Adds the tokens allocated since the previous refresh, which includes those allocated by other
+   * instances, to the bloom filter.
+   */
+  synchronized void refresh() {
+    final BloomFilter<CharSequence> filter = knownTokens;
+    if (filter == null) {
+      rebuild();
+      return;
+    }
+
+    final Instant started = Instant.now();
+    // read from the primary, since tokens that reach a replica later than the refresh overlap
+    // would never be added and then rejected until the next rebuild
+    ReplicaRouting.onPrimary(() -> batchRepository.forEachTokenValue(
+        lastRefresh.minus(properties.getRefreshOverlap()),
+        storedValue -> filter.put(tokenDigester.keyOfStored(storedValue))));
+    lastRefresh = started;
+    knownTokensCurrent = true;
+  }
+
+  private BloomFilter<CharSequence> newFilter() {
+    return BloomFilter.create(
+        Funnels.stringFunnel(StandardCharsets.UTF_8),
+        properties.getExpectedTokens(),
+        properties.getFalsePositiveProbability()
+    );
+  }
+
+  void runSafely(Runnable task) {
+    try {
+      ConnectionWorkload.BACKGROUND.run(task);
+    } catch (Exception e) {
+      log.warn("Failed to update the token bloom filter", e);
+      knownTokensCurrent = false;
+      rebuildFailures.increment();
+    }
+  }
+
+  @Override
+  public void start() {
+    if (properties.isEnabled() && properties.isBloomFilterEnabled()) {
+      executor = Executors.newSingleThreadScheduledExecutor(
+          new CustomizableThreadFactory("invalid-token-guard-"));
+      executor.scheduleWithFixedDelay(() -> runSafely(this::rebuild),
+          0, properties.getRebuildInterval().toMillis(), TimeUnit.MILLISECONDS);
+      executor.scheduleWithFixedDelay(() -> runSafely(this::refresh),
+          properties.getRefreshInterval().toMillis(), properties.getRefreshInterval().toMillis(),
+          TimeUnit.MILLISECONDS);
+    }
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return 0;
+  }
+}
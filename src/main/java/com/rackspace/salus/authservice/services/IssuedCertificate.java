@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.web.CertResponse;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.time.Instant;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holds client certificates in the clientCerts cache along with the times, derived from the
+ * certificate's validity, when the cache entry expires and should be refreshed ahead of that.
+ */
+@Data
+@Slf4j
+public class IssuedCertificate {
+
+  final CertResponse certResponse;
+  /**
+   * When the cache entry expires
+   */
+  final Instant expiresAt;
+  /**
+   * When a request for the tenant should trigger an asynchronous re-issuance
+   */
+  final Instant refreshAt;
+
+  public boolean isExpired(Instant now) {
+    return !now.isBefore(expiresAt);
+  }
+
+  public boolean needsRefresh(Instant now) {
+    return !now.isBefore(refreshAt);
+  }
+
+  /**
+   * @param pemCertificate a PEM encoded X.509 certificate
+   * @return the end of the certificate's validity or null if the certificate could not be parsed
+   */
+  static Instant parseNotAfter(String pemCertificate) {
+    try {
+      final X509Certificate certificate = (X509Certificate) CertificateFactory
+          .getInstance("X509")
+          .generateCertificate(
+              new ByteArrayInputStream(pemCertificate.getBytes(StandardCharsets.US_ASCII))
+          );
+      return certificate.getNotAfter().toInstant();
+    } catch (CertificateException | RuntimeException e) {
+      log.debug("Unable to parse validity of client certificate", e);
+      return null;
+    }
+  }
+}
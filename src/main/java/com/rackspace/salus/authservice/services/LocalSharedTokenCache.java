@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Used when no shared tier is configured, which leaves only the near-cache of each instance and
+ * delivers invalidations to this instance only.
+ */
+public class LocalSharedTokenCache implements SharedTokenCache {
+
+  private final List<Consumer<Collection<String>>> listeners = new CopyOnWriteArrayList<>();
+
+  @Override
+  public String get(String tokenValue) {
+    return null;
+  }
+
+  @Override
+  public void put(String tokenValue, String tenantId) {
+  }
+
+  @Override
+  public void invalidate(Collection<String> tokenValues) {
+    listeners.forEach(listener -> listener.accept(tokenValues));
+  }
+
+  @Override
+  public void addInvalidationListener(Consumer<Collection<String>> listener) {
+    listeners.add(listener);
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.google.common.collect.Iterables;
+import com.rackspace.salus.authservice.config.CacheProperties;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Shares validated tokens between instances via Redis and publishes invalidations on a Redis
+ * channel that every instance subscribes to.
+ * <p>
+ * An invalidated token's entry is replaced by a short-lived tombstone and tokens are only put
+ * when absent, so a validation that read the token from the database just before it was
+ * deleted can't put it back.
+ * </p>
+ * <p>
+ * Failures talking to Redis are logged and treated as cache misses, so that token validation
+ * falls back to the database rather than failing.
+ * </p>
+ */
+@Slf4j
+public class RedisSharedTokenCache implements SharedTokenCache, MessageListener {
+
+  private static final int MAX_TOKENS_PER_MESSAGE = 1000;
+  private static final String MESSAGE_SEPARATOR = "\n";
+  /**
+   * Distinguishable from a cached tenant ID, since those are never empty
+   */
+  static final String TOMBSTONE = "";
+
+  private final StringRedisTemplate redisTemplate;
+  private final CacheProperties.SharedTier properties;
+  private final List<Consumer<Collection<String>>> listeners = new CopyOnWriteArrayList<>();
+
+  public RedisSharedTokenCache(StringRedisTemplate redisTemplate,
+                               RedisMessageListenerContainer listenerContainer,
+                               CacheProperties.SharedTier properties) {
+    this.redisTemplate = redisTemplate;
+    this.properties = properties;
+    listenerContainer.addMessageListener(this,
+        new ChannelTopic(properties.getInvalidationChannel()));
+  }
+
+  @Override
+  public String get(String tokenValue) {
+    try {
+      final String tenantId = redisTemplate.opsForValue().get(key(tokenValue));
+      return TOMBSTONE.equals(tenantId) ? null : tenantId;
+    } catch (DataAccessException e) {
+      log.warn("Failed to get token from shared cache", e);
+      return null;
+    }
+  }
+
+  @Override
+  public void put(String tokenValue, String tenantId) {
+    try {
+      redisTemplate.opsForValue().setIfAbsent(key(tokenValue), tenantId,
+          properties.getTtl().toMillis(), TimeUnit.MILLISECONDS);
+    } catch (DataAccessException e) {
+      log.warn("Failed to put token into shared cache", e);
+    }
+  }
+
+  @Override
+  public void invalidate(Collection<String> tokenValues) {
+    for (List<String> batch : Iterables.partition(tokenValues, MAX_TOKENS_PER_MESSAGE)) {
+      try {
+        writeTombstones(batch);
+        redisTemplate.convertAndSend(properties.getInvalidationChannel(),
+            String.join(MESSAGE_SEPARATOR, batch));
+      } catch (DataAccessException e) {
+        log.warn("Failed to invalidate {} tokens in shared cache", batch.size(), e);
+        // at least evict from this instance's near-cache
+        notifyListeners(batch);
+      }
+    }
+  }
+
+  private void writeTombstones(List<String> tokenValues) {
+    final Expiration expiration = Expiration.milliseconds(properties.getTombstoneTtl().toMillis());
+    final byte[] tombstone = TOMBSTONE.getBytes(StandardCharsets.UTF_8);
+    redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+      for (String tokenValue : tokenValues) {
+        connection.stringCommands().set(key(tokenValue).getBytes(StandardCharsets.UTF_8),
+            tombstone, expiration, SetOption.upsert());
+      }
+      return null;
+    });
+  }
+
+  @Override
+  public void addInvalidationListener(Consumer<Collection<String>> listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void onMessage(Message message, byte[] pattern) {
+    final String body = new String(message.getBody(), StandardCharsets.UTF_8);
+    notifyListeners(Arrays.asList(body.split(MESSAGE_SEPARATOR)));
+  }
+
+  private void notifyListeners(Collection<String> tokenValues) {
+    listeners.forEach(listener -> listener.accept(tokenValues));
+  }
+
+  private String key(String tokenValue) {
+    return properties.getKeyPrefix() + tokenValue;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * The tier of the token validation cache that is shared by all instances of this service. Each
+ * instance keeps its own near-cache in front of it, which is kept consistent by invalidation
+ * notifications.
+ */
+public interface SharedTokenCache {
+
+  /**
+   * @param tokenValue the token value to look up
+   * @return the tenant of the cached valid token or null if not cached
+   */
+  String get(String tokenValue);
+
+  /**
+   * Caches the valid token, unless it is already cached or was recently invalidated, so that a
+   * validation that looked up the token before a concurrent deletion can't restore it.
+   */
+  void put(String tokenValue, String tenantId);
+
+  /**
+   * Removes the given token values from the shared tier, preventing them from being put back for
+   * a while, and notifies all instances, including this one, to evict them from their
+   * near-caches.
+   */
+  void invalidate(Collection<String> tokenValues);
+
+  /**
+   * @param listener invoked with the token values of each invalidation from any instance
+   */
+  void addInvalidationListener(Consumer<Collection<String>> listener);
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.SignedTokenProperties;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Base64.Decoder;
+import java.util.Base64.Encoder;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+/**
+ * Creates and verifies signed tokens, which have the form
+ * <code>s1.{tenant}.{nonce}.{signature}</code> where each part is Base64 URL encoded. The tenant
+ * is not secret, but can't be altered without invalidating the HMAC-SHA256 signature.
+ * <p>
+ * Opaque tokens can't be mistaken for signed tokens since they never contain a period.
+ * </p>
+ * <p>
+ * The random nonce stands in for a token id: nothing identifies the stored row, so revocation
+ * and the database recheck key on the {@link TokenDigester#keyOf key} of the whole value, which
+ * is the same key opaque tokens use and all that {@link TokenService#delete} has on hand.
+ * Embedding the row id would need the id before the token is saved and would still leave the
+ * signed and opaque keys to be told apart by their prefix.
+ * </p>
+ */
+@Component
+public class SignedTokenCodec {
+
+  static final String PREFIX = "s1.";
+  private static final char SEPARATOR = '.';
+  private static final int NONCE_SIZE = 16;
+  private static final String ALGORITHM = "HmacSHA256";
+
+  private final Random tokenRandom;
+  private final SignedTokenProperties properties;
+  private final List<KeyedMac> keys;
+  private final Encoder base64Encoder = Base64.getUrlEncoder().withoutPadding();
+  private final Decoder base64Decoder = Base64.getUrlDecoder();
+
+  @Autowired
+  public SignedTokenCodec(Random tokenRandom, SignedTokenProperties properties) {
+    this.tokenRandom = tokenRandom;
+    this.properties = properties;
+    this.keys = properties.getKeys().stream()
+        .map(key -> new KeyedMac(new SecretKeySpec(Base64.getDecoder().decode(key), ALGORITHM)))
+        .collect(Collectors.toList());
+    Assert.state(!properties.isEnabled() || !keys.isEmpty(),
+        "At least one key is required to allocate signed tokens");
+  }
+
+  public static boolean isSigned(String tokenValue) {
+    return tokenValue.startsWith(PREFIX);
+  }
+
+  /**
+   * @return true if newly allocated tokens should be signed tokens
+   */
+  public boolean isIssuing() {
+    return properties.isEnabled();
+  }
+
+  /**
+   * @return true if signed tokens can be verified, which requires at least one configured key
+   */
+  public boolean canVerify() {
+    return !keys.isEmpty();
+  }
+
+  public String create(String tenantId) {
+    final byte[] nonce = new byte[NONCE_SIZE];
+    tokenRandom.nextBytes(nonce);
+
+    final String unsigned = PREFIX
+        + base64Encoder.encodeToString(tenantId.getBytes(StandardCharsets.UTF_8))
+        + SEPARATOR
+        + base64Encoder.encodeToString(nonce);
+    return unsigned + SEPARATOR + base64Encoder.encodeToString(keys.get(0).sign(unsigned));
+  }
+
+  /**
+   * @param tokenValue a signed token value
+   * @return the tenant of the token or null if the token is malformed or not signed by any of
+   * the configured keys
+   */
+  public String verify(String tokenValue) {
+    if (!isSigned(tokenValue)) {
+      return null;
+    }
+    final int tenantEnd = tokenValue.indexOf(SEPARATOR, PREFIX.length());
+    final int signatureStart = tokenValue.lastIndexOf(SEPARATOR) + 1;
+    if (tenantEnd < 0 || signatureStart <= tenantEnd + 1) {
+      return null;
+    }
+
+    try {
+      final byte[] signature = base64Decoder.decode(tokenValue.substring(signatureStart));
+      final String unsigned = tokenValue.substring(0, signatureStart - 1);
+      for (KeyedMac key : keys) {
+        // constant time comparison to avoid leaking the expected signature
+        if (MessageDigest.isEqual(key.sign(unsigned), signature)) {
+          return new String(
+              base64Decoder.decode(tokenValue.substring(PREFIX.length(), tenantEnd)),
+              StandardCharsets.UTF_8);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      // malformed Base64
+    }
+    return null;
+  }
+
+  /**
+   * A MAC initialized with one of the keys, which is cloned for each signature rather than held
+   * per thread, since requests may be handled on virtual threads that would each create and
+   * initialize their own.
+   */
+  private static class KeyedMac {
+
+    private final SecretKeySpec key;
+    private final Mac prototype;
+
+    KeyedMac(SecretKeySpec key) {
+      this.key = key;
+      this.prototype = createMac(key);
+    }
+
+    byte[] sign(String unsigned) {
+      Mac mac;
+      try {
+        mac = (Mac) prototype.clone();
+      } catch (CloneNotSupportedException e) {
+        mac = createMac(key);
+      }
+      return mac.doFinal(unsigned.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static Mac createMac(SecretKeySpec key) {
+      try {
+        final Mac mac = Mac.getInstance(ALGORITHM);
+        mac.init(key);
+        return mac;
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("Unable to initialize HMAC", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.google.common.collect.Iterables;
+import com.rackspace.salus.authservice.config.ConnectionWorkload;
+import com.rackspace.salus.authservice.config.ReplicaRouting;
+import com.rackspace.salus.authservice.config.SignedTokenProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+
+/**
+ * Validates signed tokens by verifying their signature, without a database lookup, and then
+ * rejecting those that have been revoked by deletion.
+ * <p>
+ * The keys of revoked signed tokens are held in a set that is never evicted from, since signed
+ * tokens never expire. It is loaded at startup from the {@link TokenRevocationLog}, which is
+ * required, and is then kept current by tailing that log. Signed tokens are rejected until that
+ * load has completed. Tokens deleted by this instance, or announced by the shared tier's
+ * invalidations, are revoked immediately. Revocations of opaque tokens are disregarded, so the
+ * set only grows with the number of deleted signed tokens.
+ * </p>
+ * <p>
+ * As a further safeguard, the signed tokens used since the previous recheck are periodically
+ * looked up in batches and those no longer allocated are revoked. The same lookup provides the
+ * IDs needed to record when the tokens were last used.
+ * </p>
+ */
+@Service
+@Slf4j
+public class SignedTokenValidator implements SmartLifecycle {
+
+  /**
+   * Bounds the size of each lookup's "in" clause
+   */
+  private static final int RECHECK_BATCH_SIZE = 1000;
+
+  private final SignedTokenCodec codec;
+  private final TokenDigester tokenDigester;
+  private final EnvoyTokenBatchRepository batchRepository;
+  private final TokenLastUsedWriter lastUsedWriter;
+  private final TokenRevocationLog revocationLog;
+  private final SignedTokenProperties properties;
+  private final Set<String> revokedTokens = ConcurrentHashMap.newKeySet();
+  /**
+   * The value to look up for each token key used since the previous recheck
+   */
+  private final ConcurrentMap<String, String> pendingRechecks = new ConcurrentHashMap<>();
+  private final Counter invalidSignatures;
+  private final Counter revokedRejections;
+  private final Counter loadingRejections;
+  private final Counter revokedByRecheck;
+  private final Counter recheckFailures;
+  private ScheduledExecutorService executor;
+  private volatile boolean running;
+
+  @Autowired
+  public SignedTokenValidator(SignedTokenCodec codec, TokenDigester tokenDigester,
+                              EnvoyTokenBatchRepository batchRepository,
+                              TokenLastUsedWriter lastUsedWriter,
+                              TokenRevocationLog revocationLog, SignedTokenProperties properties,
+                              MeterRegistry meterRegistry) {
+    this.codec = codec;
+    this.tokenDigester = tokenDigester;
+    this.batchRepository = batchRepository;
+    this.lastUsedWriter = lastUsedWriter;
+    this.revocationLog = revocationLog;
+    this.properties = properties;
+
+    invalidSignatures = Counter.builder("signedTokenRejections")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "SignedTokenValidator", "reason", "signature")
+        .register(meterRegistry);
+    revokedRejections = Counter.builder("signedTokenRejections")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "SignedTokenValidator", "reason", "revoked")
+        .register(meterRegistry);
+    loadingRejections = Counter.builder("signedTokenRejections")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "SignedTokenValidator", "reason", "loading")
+        .register(meterRegistry);
+    revokedByRecheck = Counter.builder("signedTokensRevokedByRecheck")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "SignedTokenValidator")
+        .register(meterRegistry);
+    recheckFailures = Counter.builder("signedTokenRecheckFailures")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "SignedTokenValidator")
+        .register(meterRegistry);
+    Gauge.builder("signedTokensRevoked", this, SignedTokenValidator::revokedCount)
+        .tag(MetricTags.SERVICE_METRIC_TAG, "SignedTokenValidator")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @param tokenValue a signed token value
+   * @return the tenant of the token or null if the token is not validly signed, was revoked or
+   * the revocations have not been loaded yet
+   */
+  public String validate(String tokenValue) {
+    final String tenantId = codec.verify(tokenValue);
+    if (tenantId == null) {
+      invalidSignatures.increment();
+      return null;
+    }
+
+    if (!revocationLog.isCaughtUp()) {
+      loadingRejections.increment();
+      return null;
+    }
+
+    final String tokenKey = tokenDigester.keyOf(tokenValue);
+    if (revokedTokens.contains(tokenKey)) {
+      revokedRejections.increment();
+      return null;
+    }
+
+    if (pendingRechecks.size() < properties.getMaxPendingRechecks()) {
+      // tokens may still be stored in plaintext during the digest backfill
+      pendingRechecks.putIfAbsent(tokenKey,
+          tokenDigester.mayBeStoredAsPlaintext() ? tokenValue : tokenKey);
+    }
+    return tenantId;
+  }
+
+  /**
+   * @param tokenKeys the keys, as given by {@link TokenDigester}, of deleted tokens of either kind
+   */
+  public void revoke(Collection<String> tokenKeys) {
+    if (codec.canVerify()) {
+      for (String tokenKey : tokenKeys) {
+        if (TokenDigester.isSignedKey(tokenKey)) {
+          revokedTokens.add(tokenKey);
+        }
+      }
+    }
+  }
+
+  int revokedCount() {
+    return revokedTokens.size();
+  }
+
+  /**
+   * Looks up the signed tokens used since the previous recheck, revokes those that are no longer
+   * allocated and records the use of the others.
+   */
+  synchronized void recheck() {
+    final Map<String, String> rechecks = new HashMap<>();
+    for (Iterator<Entry<String, String>> it = pendingRechecks.entrySet().iterator();
+        it.hasNext(); ) {
+      final Entry<String, String> entry = it.next();
+      rechecks.put(entry.getKey(), entry.getValue());
+      it.remove();
+    }
+
+    for (List<String> tokenKeys : Iterables.partition(rechecks.keySet(), RECHECK_BATCH_SIZE)) {
+      final Set<String> lookupValues = new HashSet<>(tokenKeys);
+      tokenKeys.forEach(tokenKey -> lookupValues.add(rechecks.get(tokenKey)));
+
+      final Map<String, UUID> tokenIds;
+      try {
+        // read from the primary, since tokens missing from a lagging replica would be revoked
+        tokenIds = ReplicaRouting.onPrimary(() ->
+            batchRepository.findIdsByTokenValues(lookupValues));
+      } catch (RuntimeException e) {
+        // try again at the next recheck
+        tokenKeys.forEach(tokenKey ->
+            pendingRechecks.putIfAbsent(tokenKey, rechecks.get(tokenKey)));
+        throw e;
+      }
+
+      for (String tokenKey : tokenKeys) {
+        UUID tokenId = tokenIds.get(tokenKey);
+        if (tokenId == null) {
+          tokenId = tokenIds.get(rechecks.get(tokenKey));
+        }
+        if (tokenId != null) {
+          lastUsedWriter.record(tokenId);
+        } else {
+          revokedTokens.add(tokenKey);
+          revokedByRecheck.increment();
+        }
+      }
+    }
+  }
+
+  private void recheckSafely() {
+    try {
+      recheck();
+    } catch (Exception e) {
+      log.warn("Failed to recheck signed tokens", e);
+      recheckFailures.increment();
+    }
+  }
+
+  @Override
+  public void start() {
+    if (codec.canVerify()) {
+      Assert.state(revocationLog.isEnabled(),
+          "salus.auth.revocation-log.enabled is required to verify signed tokens");
+
+      executor = Executors.newSingleThreadScheduledExecutor(
+          new CustomizableThreadFactory("signed-token-recheck-"));
+      final long intervalMillis = properties.getRecheckInterval().toMillis();
+      executor.scheduleWithFixedDelay(
+          () -> ConnectionWorkload.BACKGROUND.run(this::recheckSafely),
+          intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return 0;
+  }
+}
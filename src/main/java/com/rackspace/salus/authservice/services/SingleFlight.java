@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import io.micrometer.core.instrument.Counter;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent invocations for the same key so that only the first caller performs the
+ * operation and all other callers that arrive while it is in flight receive the same result.
+ * <p>
+ * The first caller runs the operation on its own thread. The other callers wait for its
+ * outcome up to the given timeout and receive the same value or the same runtime exception.
+ * </p>
+ * @param <K> the type of key identifying equivalent operations
+ * @param <V> the type of the operation's result
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private final Duration timeout;
+  private final Counter coalescedCounter;
+
+  /**
+   * @param timeout how long callers wait for an in-flight operation started by another caller
+   * @param coalescedCounter incremented for each caller that waits on an in-flight operation
+   */
+  public SingleFlight(Duration timeout, Counter coalescedCounter) {
+    this.timeout = timeout;
+    this.coalescedCounter = coalescedCounter;
+  }
+
+  /**
+   * @param key identifies equivalent operations
+   * @param operation performs the operation if none is in flight for the key
+   * @return the result of this or the in-flight operation
+   * @throws TimeoutException if an in-flight operation did not complete within the timeout
+   */
+  public V execute(K key, Supplier<V> operation) throws TimeoutException {
+    final CompletableFuture<V> created = new CompletableFuture<>();
+    final CompletableFuture<V> existing = inFlight.putIfAbsent(key, created);
+    if (existing != null) {
+      coalescedCounter.increment();
+      return await(existing);
+    }
+
+    try {
+      final V value = operation.get();
+      created.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      created.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, created);
+    }
+  }
+
+  int inFlightCount() {
+    return inFlight.size();
+  }
+
+  private V await(CompletableFuture<V> future) throws TimeoutException {
+    try {
+      return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for in-flight operation", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new IllegalStateException(cause);
+      }
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.CacheProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+/**
+ * Preloads the token validation near-cache with the most recently used tokens when the
+ * application starts.
+ * <p>
+ * The warm-up runs synchronously as a lifecycle bean, which completes before the embedded web
+ * server starts, so the service only reports healthy and accepts validations once the cache is
+ * loaded. A failed warm-up is logged and does not prevent startup.
+ * </p>
+ */
+@Component
+@Slf4j
+public class TokenCacheWarmer implements SmartLifecycle {
+
+  private final EnvoyTokenBatchRepository batchRepository;
+  private final CacheProperties properties;
+  private final TokenDigester tokenDigester;
+  private final Cache tokenCache;
+  private final Clock clock;
+  private final Timer warmupTimer;
+  private final Counter warmedCounter;
+  private volatile boolean running;
+
+  @Autowired
+  public TokenCacheWarmer(CacheManager cacheManager,
+                          EnvoyTokenBatchRepository batchRepository, TokenDigester tokenDigester,
+                          CacheProperties properties, MeterRegistry meterRegistry) {
+    this(cacheManager, batchRepository, tokenDigester, properties, meterRegistry,
+        Clock.systemUTC());
+  }
+
+  TokenCacheWarmer(CacheManager cacheManager,
+                   EnvoyTokenBatchRepository batchRepository, TokenDigester tokenDigester,
+                   CacheProperties properties, MeterRegistry meterRegistry, Clock clock) {
+    this.tokenCache = cacheManager.getCache(CacheConfig.TOKEN_VALIDATION);
+    Assert.state(tokenCache != null, "Unable to locate token validation cache");
+    this.batchRepository = batchRepository;
+    this.properties = properties;
+    this.tokenDigester = tokenDigester;
+    this.clock = clock;
+
+    warmupTimer = Timer.builder("tokenCacheWarmup")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenCacheWarmer")
+        .register(meterRegistry);
+    warmedCounter = Counter.builder("tokenCacheWarmed")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenCacheWarmer")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @return the number of tokens loaded into the cache
+   */
+  int warmup() {
+    final CacheProperties.Warmup warmup = properties.getTokenValidationWarmup();
+    final Instant usedSince = clock.instant().minus(warmup.getWindow());
+    final int maxEntries = Math.min(
+        warmup.getMaxEntries(), properties.getTokenValidation().getMaxSize());
+
+    final AtomicInteger count = new AtomicInteger();
+    warmupTimer.record(() ->
+        batchRepository.forEachRecentlyUsed(usedSince, maxEntries, (storedValue, tenantId) -> {
+          // don't replace entries that were validated concurrently
+          tokenCache.putIfAbsent(tokenDigester.keyOfStored(storedValue), tenantId);
+          count.incrementAndGet();
+        })
+    );
+    warmedCounter.increment(count.get());
+    return count.get();
+  }
+
+  @Override
+  public void start() {
+    running = true;
+    if (!properties.getTokenValidationWarmup().isEnabled()) {
+      return;
+    }
+
+    try {
+      final int count = warmup();
+      log.info("Preloaded {} recently used tokens into the token validation cache", count);
+    } catch (Exception e) {
+      log.warn("Failed to preload the token validation cache", e);
+    }
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    // lifecycle beans all start before the web server, which starts accepting requests last
+    return 0;
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.ConnectionWorkload;
+import com.rackspace.salus.authservice.config.ReplicaRouting;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * When hashed token storage is enabled, periodically converts tokens that are still stored in
+ * plaintext to their digest.
+ * <p>
+ * The conversion keeps running periodically, rather than stopping once complete, so that tokens
+ * allocated by instances not yet configured for hashed storage, such as during a rolling
+ * deployment, are also converted. Only the first pass looks at every token; later passes only
+ * look at those created since the previous pass. Finding none doesn't mean that another
+ * instance won't store one, so lookups of plaintext tokens continue until they are disabled by
+ * salus.auth.token-storage.plaintext-lookup.
+ * </p>
+ */
+@Component
+@Slf4j
+public class TokenDigestBackfill implements SmartLifecycle {
+
+  private final EnvoyTokenBatchRepository batchRepository;
+  private final TokenDigester tokenDigester;
+  private final TokenStorageProperties properties;
+  private final Counter convertedCounter;
+  private final Counter failedCounter;
+  private ScheduledExecutorService executor;
+  private volatile boolean running;
+  /**
+   * When the most recent complete pass started, which is null until the first one completes
+   */
+  private Instant lastPassStarted;
+
+  @Autowired
+  public TokenDigestBackfill(EnvoyTokenBatchRepository batchRepository,
+                             TokenDigester tokenDigester,
+                             TokenStorageProperties properties, MeterRegistry meterRegistry) {
+    this.batchRepository = batchRepository;
+    this.tokenDigester = tokenDigester;
+    this.properties = properties;
+
+    convertedCounter = Counter.builder("tokenDigestsBackfilled")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenDigestBackfill")
+        .register(meterRegistry);
+    failedCounter = Counter.builder("tokenDigestBackfillFailures")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenDigestBackfill")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Converts all tokens currently stored in plaintext, one batch per transaction. Once a pass
+   * has completed, only tokens created since it started are considered.
+   * @return the number of tokens converted
+   */
+  synchronized int backfill() {
+    final Instant started = Instant.now();
+    final Instant createdSince = lastPassStarted != null ?
+        lastPassStarted.minus(properties.getBackfillOverlap()) : null;
+    int converted = 0;
+    while (true) {
+      // read from the primary, since a lagging replica would return tokens already converted
+      final Map<UUID, String> plaintext = ReplicaRouting.onPrimary(() -> batchRepository
+          .findTokenValuesWithoutPrefix(
+              TokenDigester.DIGEST_PREFIX, createdSince, properties.getBackfillBatchSize()));
+      if (plaintext.isEmpty()) {
+        lastPassStarted = started;
+        return converted;
+      }
+
+      final Map<UUID, String> digests = new LinkedHashMap<>();
+      plaintext.forEach((id, tokenValue) -> digests.put(id, tokenDigester.digest(tokenValue)));
+      batchRepository.replaceTokenValues(digests);
+
+      converted += digests.size();
+      convertedCounter.increment(digests.size());
+      log.debug("Converted {} tokens to digests so far", converted);
+    }
+  }
+
+  private void backfillSafely() {
+    try {
+      final int converted = backfill();
+      if (converted > 0) {
+        log.info("Converted {} tokens stored in plaintext to digests", converted);
+      }
+    } catch (Exception e) {
+      log.warn("Failed to convert tokens stored in plaintext to digests", e);
+      failedCounter.increment();
+    }
+  }
+
+  @Override
+  public void start() {
+    if (properties.isHashed()) {
+      executor = Executors.newSingleThreadScheduledExecutor(
+          new CustomizableThreadFactory("token-digest-backfill-"));
+      executor.scheduleWithFixedDelay(
+          () -> ConnectionWorkload.BACKGROUND.run(this::backfillSafely),
+          0, properties.getBackfillInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return 0;
+  }
+}
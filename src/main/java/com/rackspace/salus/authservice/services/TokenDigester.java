@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Base64.Encoder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Determines the key by which a token is stored, looked up and cached. When hashed token storage
+ * is enabled that key is a fixed-width SHA-256 digest of the token value, otherwise it is the
+ * token value itself. Either way, the keys of signed tokens can be told apart from those of
+ * opaque tokens.
+ */
+@Component
+public class TokenDigester {
+
+  /**
+   * Distinguishes digests from tokens still stored in plaintext, which are never prefixed
+   * since they are Base64 URL encoded.
+   */
+  static final String DIGEST_PREFIX = "sha256:";
+  /**
+   * Distinguishes the digests of signed tokens, which is unambiguous since the Base64 URL
+   * encoded digest never contains a period.
+   */
+  static final String SIGNED_DIGEST_PREFIX = DIGEST_PREFIX + SignedTokenCodec.PREFIX;
+
+  /**
+   * Cloned for each digest rather than held per thread, since requests may be handled on
+   * virtual threads that would each create their own.
+   */
+  private static final MessageDigest sha256Prototype = createSha256();
+
+  private final TokenStorageProperties properties;
+  private final Encoder base64Encoder = Base64.getUrlEncoder().withoutPadding();
+
+  @Autowired
+  public TokenDigester(TokenStorageProperties properties) {
+    this.properties = properties;
+  }
+
+  public boolean isHashed() {
+    return properties.isHashed();
+  }
+
+  /**
+   * @param tokenValue a token value as allocated or presented by an Envoy
+   * @return the key by which the token is stored, looked up and cached
+   */
+  public String keyOf(String tokenValue) {
+    return properties.isHashed() ? digest(tokenValue) : tokenValue;
+  }
+
+  /**
+   * @param storedValue the token column of a stored token, which may not have been converted yet
+   * @return the key by which the token is looked up and cached
+   */
+  public String keyOfStored(String storedValue) {
+    return isDigest(storedValue) ? storedValue : keyOf(storedValue);
+  }
+
+  /**
+   * @return true if tokens might still be stored in plaintext, so lookups by digest alone could
+   * miss them
+   */
+  public boolean mayBeStoredAsPlaintext() {
+    return properties.isHashed() && properties.isPlaintextLookup();
+  }
+
+  /**
+   * @param tokenKey a key given by this digester
+   * @return true if the key is that of a signed token
+   */
+  public static boolean isSignedKey(String tokenKey) {
+    return SignedTokenCodec.isSigned(tokenKey) || tokenKey.startsWith(SIGNED_DIGEST_PREFIX);
+  }
+
+  static boolean isDigest(String storedValue) {
+    return storedValue.startsWith(DIGEST_PREFIX);
+  }
+
+  String digest(String tokenValue) {
+    final byte[] digest = newSha256().digest(tokenValue.getBytes(StandardCharsets.UTF_8));
+    return (SignedTokenCodec.isSigned(tokenValue) ? SIGNED_DIGEST_PREFIX : DIGEST_PREFIX)
+        + base64Encoder.encodeToString(digest);
+  }
+
+  private static MessageDigest newSha256() {
+    try {
+      return (MessageDigest) sha256Prototype.clone();
+    } catch (CloneNotSupportedException e) {
+      return createSha256();
+    }
+  }
+
+  private static MessageDigest createSha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is required to be supported", e);
+    }
+  }
+}
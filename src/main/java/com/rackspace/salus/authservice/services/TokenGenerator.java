@@ -17,31 +17,152 @@
 package com.rackspace.salus.authservice.services;
 
 import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.AuthProperties.TokenEntropy;
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.DrbgParameters.Capability;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Base64.Encoder;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class TokenGenerator {
 
+  private static final int DRBG_STRENGTH = 256;
+
   private final Random tokenRandom;
   private final AuthProperties properties;
   private final Encoder base64Encoder;
+  /**
+   * Only populated for {@link TokenEntropy#POOLED}, where each thread uses the entry selected by
+   * its id. A pool is used rather than a thread-local since request threads may be virtual,
+   * which would otherwise instantiate a generator per request.
+   */
+  private final PooledEntropy[] entropyPool;
 
   @Autowired
   public TokenGenerator(Random tokenRandom, AuthProperties properties) {
     this.tokenRandom = tokenRandom;
     this.properties = properties;
     this.base64Encoder = Base64.getUrlEncoder();
+
+    if (properties.getTokenEntropy() == TokenEntropy.POOLED) {
+      entropyPool = new PooledEntropy[Runtime.getRuntime().availableProcessors() * 2];
+      for (int i = 0; i < entropyPool.length; i++) {
+        entropyPool[i] = new PooledEntropy();
+      }
+    } else {
+      entropyPool = null;
+    }
   }
 
   public String generate() {
+    if (entropyPool != null) {
+      final PooledEntropy entropy = pooledEntropy();
+      entropy.lock.lock();
+      try {
+        return entropy.nextToken();
+      } finally {
+        entropy.lock.unlock();
+      }
+    }
+
     byte[] bytes = new byte[properties.getTokenSize()];
     tokenRandom.nextBytes(bytes);
 
     return base64Encoder.encodeToString(bytes);
   }
 
+  /**
+   * Generates multiple tokens from a single draw of random bytes, which avoids contending on the
+   * random number generator for each token.
+   * @param count the number of tokens to generate
+   * @return the generated tokens
+   */
+  public List<String> generate(int count) {
+    final List<String> tokens = new ArrayList<>(count);
+
+    if (entropyPool != null) {
+      final PooledEntropy entropy = pooledEntropy();
+      entropy.lock.lock();
+      try {
+        for (int i = 0; i < count; i++) {
+          tokens.add(entropy.nextToken());
+        }
+      } finally {
+        entropy.lock.unlock();
+      }
+      return tokens;
+    }
+
+    final int tokenSize = properties.getTokenSize();
+    byte[] bytes = new byte[tokenSize * count];
+    tokenRandom.nextBytes(bytes);
+
+    for (int i = 0; i < count; i++) {
+      tokens.add(base64Encoder.encodeToString(
+          Arrays.copyOfRange(bytes, i * tokenSize, (i + 1) * tokenSize)));
+    }
+    return tokens;
+  }
+
+  private PooledEntropy pooledEntropy() {
+    return entropyPool[(int) (Thread.currentThread().getId() % entropyPool.length)];
+  }
+
+  /**
+   * A DRBG along with the bytes it has drawn ahead for upcoming tokens and the buffers that
+   * each token is encoded through. Guarded by its lock, which is rarely contended.
+   */
+  private class PooledEntropy {
+
+    final ReentrantLock lock = new ReentrantLock();
+    final SecureRandom random;
+    final byte[] entropy;
+    final byte[] tokenBytes;
+    final byte[] encoded;
+    int position;
+
+    PooledEntropy() {
+      final int tokenSize = properties.getTokenSize();
+
+      // the shared random personalizes each instance, in addition to the DRBG's own seeding
+      final byte[] personalization = new byte[DRBG_STRENGTH / 8];
+      tokenRandom.nextBytes(personalization);
+      try {
+        random = SecureRandom.getInstance("DRBG",
+            DrbgParameters.instantiation(DRBG_STRENGTH, Capability.RESEED_ONLY, personalization));
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("DRBG is not available for token generation", e);
+      }
+
+      entropy = new byte[tokenSize * properties.getTokenEntropyBatchSize()];
+      position = entropy.length;
+      tokenBytes = new byte[tokenSize];
+      encoded = new byte[4 * ((tokenSize + 2) / 3)];
+    }
+
+    String nextToken() {
+      if (position == entropy.length) {
+        random.nextBytes(entropy);
+        position = 0;
+      }
+
+      System.arraycopy(entropy, position, tokenBytes, 0, tokenBytes.length);
+      // don't leave the bytes of issued tokens behind in the buffer
+      Arrays.fill(entropy, position, position + tokenBytes.length, (byte) 0);
+      position += tokenBytes.length;
+
+      final int length = base64Encoder.encode(tokenBytes, encoded);
+      return new String(encoded, 0, length, StandardCharsets.US_ASCII);
+    }
+  }
 }
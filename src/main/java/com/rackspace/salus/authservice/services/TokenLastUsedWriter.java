@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.google.common.collect.Lists;
+import com.rackspace.salus.authservice.config.ConnectionWorkload;
+import com.rackspace.salus.authservice.config.LastUsedProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records the lastUsed timestamp of validated tokens in memory and writes them to the database
+ * in periodic batches, which keeps the database write off of the token validation path.
+ * <p>
+ * Repeated uses of the same token between flushes are coalesced into a single update of the
+ * latest timestamp. Any pending timestamps are flushed when the application context stops.
+ * </p>
+ */
+@Component
+@Slf4j
+public class TokenLastUsedWriter implements SmartLifecycle {
+
+  private final EnvoyTokenBatchRepository batchRepository;
+  private final LastUsedProperties properties;
+  private final ConcurrentMap<UUID, Instant> pending = new ConcurrentHashMap<>();
+  private final Counter flushedCounter;
+  private final Counter droppedCounter;
+  private final Counter failedCounter;
+  private ScheduledExecutorService executor;
+  private volatile boolean running;
+
+  @Autowired
+  public TokenLastUsedWriter(EnvoyTokenBatchRepository batchRepository,
+                             LastUsedProperties properties, MeterRegistry meterRegistry) {
+    this.batchRepository = batchRepository;
+    this.properties = properties;
+
+    Gauge.builder("tokenLastUsedPending", pending, Map::size)
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenLastUsedWriter")
+        .register(meterRegistry);
+    flushedCounter = Counter.builder("tokenLastUsedFlushed")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenLastUsedWriter")
+        .register(meterRegistry);
+    droppedCounter = Counter.builder("tokenLastUsedDropped")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenLastUsedWriter")
+        .register(meterRegistry);
+    failedCounter = Counter.builder("tokenLastUsedFailed")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenLastUsedWriter")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Records that the given token was used just now.
+   * @param tokenId the ID of the token that was used
+   */
+  public void record(UUID tokenId) {
+    record(tokenId, Instant.now());
+  }
+
+  void record(UUID tokenId, Instant lastUsed) {
+    if (pending.size() >= properties.getMaxPending() && !pending.containsKey(tokenId)) {
+      log.debug("Dropping lastUsed update of tokenId={} since too many are pending", tokenId);
+      droppedCounter.increment();
+      return;
+    }
+    pending.merge(tokenId, lastUsed, TokenLastUsedWriter::latest);
+  }
+
+  int pendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Writes all pending lastUsed timestamps to the database. Timestamps are truncated to the second
+   * so that the tokens used within the same second can be updated with a single statement.
+   */
+  public synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+
+    final Map<Instant, List<UUID>> tokenIdsByLastUsed = new HashMap<>();
+    for (UUID tokenId : pending.keySet()) {
+      final Instant lastUsed = pending.remove(tokenId);
+      if (lastUsed != null) {
+        tokenIdsByLastUsed
+            .computeIfAbsent(lastUsed.truncatedTo(ChronoUnit.SECONDS), key -> new ArrayList<>())
+            .add(tokenId);
+      }
+    }
+
+    tokenIdsByLastUsed.forEach((lastUsed, tokenIds) -> {
+      for (List<UUID> batch : Lists.partition(tokenIds, properties.getBatchSize())) {
+        try {
+          batchRepository.updateLastUsed(batch, lastUsed);
+          flushedCounter.increment(batch.size());
+        } catch (Exception e) {
+          log.warn("Failed to update lastUsed of {} tokens, will retry on next flush",
+              batch.size(), e);
+          failedCounter.increment(batch.size());
+          batch.forEach(tokenId -> record(tokenId, lastUsed));
+        }
+      }
+    });
+  }
+
+  private void flushSafely() {
+    try {
+      flush();
+    } catch (Exception e) {
+      log.warn("Unexpected failure while flushing lastUsed updates", e);
+    }
+  }
+
+  private static Instant latest(Instant a, Instant b) {
+    return a.isAfter(b) ? a : b;
+  }
+
+  @Override
+  public void start() {
+    executor = Executors.newSingleThreadScheduledExecutor(
+        new CustomizableThreadFactory("token-last-used-"));
+    final long intervalMillis = properties.getFlushInterval().toMillis();
+    executor.scheduleWithFixedDelay(
+        () -> ConnectionWorkload.BACKGROUND.run(this::flushSafely),
+        intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (executor != null) {
+      executor.shutdown();
+      try {
+        executor.awaitTermination(properties.getFlushInterval().toMillis(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    log.debug("Flushing {} pending lastUsed updates during shutdown", pending.size());
+    flushSafely();
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    // stop after the web server so that final validations are included in the last flush
+    return 0;
+  }
+}
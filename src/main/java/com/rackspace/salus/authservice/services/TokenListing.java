@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.web.model.EnvoyTokenDTO;
+import java.util.List;
+import lombok.Value;
+
+/**
+ * A portion of a tenant's tokens along with the cursor, if any, that continues the listing
+ * after them.
+ */
+@Value
+public class TokenListing {
+
+  List<EnvoyTokenDTO> content;
+  /**
+   * Continues the listing after the last of the content, which is null when there are no more
+   * tokens.
+   */
+  String next;
+}
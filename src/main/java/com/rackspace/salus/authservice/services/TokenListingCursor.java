@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.UUID;
+import lombok.Value;
+
+/**
+ * The position within a tenant's tokens, ordered by creation time and then ID, after which a
+ * token listing continues. It is exchanged with clients as an opaque string.
+ */
+@Value
+class TokenListingCursor {
+
+  Instant createdTimestamp;
+  UUID id;
+
+  String encode() {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(
+        (createdTimestamp + "|" + id).getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @throws InvalidListingCursorException if the given value was not produced by {@link #encode()}
+   */
+  static TokenListingCursor decode(String value) {
+    try {
+      final String decoded = new String(Base64.getUrlDecoder().decode(value),
+          StandardCharsets.UTF_8);
+      final int separator = decoded.indexOf('|');
+      if (separator < 0) {
+        throw new InvalidListingCursorException("Malformed token listing cursor");
+      }
+      return new TokenListingCursor(
+          Instant.parse(decoded.substring(0, separator)),
+          UUID.fromString(decoded.substring(separator + 1)));
+    } catch (IllegalArgumentException | DateTimeParseException e) {
+      throw new InvalidListingCursorException("Malformed token listing cursor");
+    }
+  }
+}
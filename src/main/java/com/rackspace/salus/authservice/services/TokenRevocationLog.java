@@ -0,0 +1,316 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.ConnectionWorkload;
+import com.rackspace.salus.authservice.config.RevocationLogProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.authservice.repositories.TokenRevocationRepository;
+import com.rackspace.salus.authservice.repositories.TokenRevocationRepository.Revocation;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * When enabled, token deletions are appended to a revocation log within the same transaction
+ * as the delete, and each instance tails the log to evict revoked tokens from its caches.
+ * <p>
+ * Each instance tracks the highest revocation ID it has applied. Since IDs are allocated before
+ * their transaction commits, a lower ID may become visible after a higher one, so skipped IDs
+ * are looked for again on each poll until the configured gap timeout.
+ * </p>
+ * <p>
+ * Revocations of opaque tokens are removed after the configured retention. Those of signed
+ * tokens are retained indefinitely, since signed tokens never expire, and while signed tokens
+ * can be verified each instance applies all of them as it starts.
+ * </p>
+ */
+@Service
+@Slf4j
+public class TokenRevocationLog implements SmartLifecycle {
+
+  private final EnvoyTokenBatchRepository batchRepository;
+  private final TokenRevocationRepository revocationRepository;
+  private final RevocationLogProperties properties;
+  private final SignedTokenCodec signedTokenCodec;
+  private final Clock clock;
+  private final List<Consumer<Collection<String>>> listeners = new CopyOnWriteArrayList<>();
+  /**
+   * Skipped revocation IDs and when they were first skipped, in ID order
+   */
+  private final Map<Long, Instant> gaps = new LinkedHashMap<>();
+  private final Counter appliedCounter;
+  private final Counter expiredGapsCounter;
+  private final Counter failedCounter;
+  private long watermark;
+  /**
+   * Set once the revocations of signed tokens present at startup have been applied
+   */
+  private volatile boolean caughtUp;
+  private ScheduledExecutorService executor;
+  private volatile boolean running;
+
+  @Autowired
+  public TokenRevocationLog(EnvoyTokenBatchRepository batchRepository,
+                            TokenRevocationRepository revocationRepository,
+                            RevocationLogProperties properties,
+                            SignedTokenCodec signedTokenCodec, MeterRegistry meterRegistry) {
+    this(batchRepository, revocationRepository, properties, signedTokenCodec, meterRegistry,
+        Clock.systemUTC());
+  }
+
+  TokenRevocationLog(EnvoyTokenBatchRepository batchRepository,
+                     TokenRevocationRepository revocationRepository,
+                     RevocationLogProperties properties, SignedTokenCodec signedTokenCodec,
+                     MeterRegistry meterRegistry, Clock clock) {
+    this.batchRepository = batchRepository;
+    this.revocationRepository = revocationRepository;
+    this.properties = properties;
+    this.signedTokenCodec = signedTokenCodec;
+    this.clock = clock;
+
+    appliedCounter = Counter.builder("tokenRevocationsApplied")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenRevocationLog")
+        .register(meterRegistry);
+    expiredGapsCounter = Counter.builder("tokenRevocationGapsExpired")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenRevocationLog")
+        .register(meterRegistry);
+    failedCounter = Counter.builder("tokenRevocationPollFailures")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenRevocationLog")
+        .register(meterRegistry);
+  }
+
+  public boolean isEnabled() {
+    return properties.isEnabled();
+  }
+
+  /**
+   * @return true once the revocations of signed tokens that were already in the log at startup
+   * have been applied, when signed tokens can be verified
+   */
+  public boolean isCaughtUp() {
+    return caughtUp;
+  }
+
+  /**
+   * Registers a listener that is given the keys of tokens revoked by any instance.
+   */
+  public void addRevocationListener(Consumer<Collection<String>> listener) {
+    listeners.add(listener);
+  }
+
+  /**
+   * Deletes the given tokens and, when enabled, appends their keys to the revocation log
+   * within the same transaction.
+   * @return the number of tokens deleted
+   */
+  @Transactional
+  public int deleteAndRevoke(Collection<UUID> tokenIds, Collection<String> tokenKeys) {
+    final int deleted = batchRepository.deleteAllById(tokenIds);
+    if (properties.isEnabled() && !tokenKeys.isEmpty()) {
+      final Map<Boolean, List<String>> keysBySigned = tokenKeys.stream()
+          .collect(Collectors.partitioningBy(TokenDigester::isSignedKey));
+      keysBySigned.forEach((signed, keys) -> {
+        if (!keys.isEmpty()) {
+          revocationRepository.append(keys, signed);
+        }
+      });
+    }
+    return deleted;
+  }
+
+  /**
+   * Applies the revocations appended since the previous poll.
+   * @return the number of revocations applied
+   */
+  synchronized int poll() {
+    int applied = applyGaps();
+
+    while (true) {
+      final List<Revocation> revocations =
+          revocationRepository.findAfter(watermark, properties.getPageSize());
+      if (revocations.isEmpty()) {
+        break;
+      }
+      final Instant now = clock.instant();
+      for (Revocation revocation : revocations) {
+        // only the most recent of any skipped IDs are kept, so only those are tracked
+        final long firstGap =
+            Math.max(watermark + 1, revocation.getId() - properties.getMaxGaps());
+        for (long id = firstGap; id < revocation.getId(); id++) {
+          gaps.put(id, now);
+        }
+        watermark = revocation.getId();
+      }
+      trimGaps();
+      applied += apply(revocations);
+      if (revocations.size() < properties.getPageSize()) {
+        break;
+      }
+    }
+    return applied;
+  }
+
+  private int applyGaps() {
+    if (gaps.isEmpty()) {
+      return 0;
+    }
+    final List<Revocation> found = revocationRepository.findByIds(new ArrayList<>(gaps.keySet()));
+    found.forEach(revocation -> gaps.remove(revocation.getId()));
+
+    final Instant expiry = clock.instant().minus(properties.getGapTimeout());
+    final int before = gaps.size();
+    gaps.values().removeIf(skippedAt -> skippedAt.isBefore(expiry));
+    expiredGapsCounter.increment(before - gaps.size());
+
+    return apply(found);
+  }
+
+  private void trimGaps() {
+    // the oldest gaps are the least likely to still be filled
+    final Iterator<Long> iterator = gaps.keySet().iterator();
+    while (gaps.size() > properties.getMaxGaps() && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+      expiredGapsCounter.increment();
+    }
+  }
+
+  private int apply(List<Revocation> revocations) {
+    if (revocations.isEmpty()) {
+      return 0;
+    }
+    final List<String> tokenKeys = revocations.stream()
+        .map(Revocation::getTokenKey)
+        .collect(Collectors.toList());
+    listeners.forEach(listener -> listener.accept(tokenKeys));
+    appliedCounter.increment(tokenKeys.size());
+    return tokenKeys.size();
+  }
+
+  /**
+   * Positions this instance at the end of the log and, when signed tokens can be verified,
+   * applies the revocations of signed tokens before that position. This completes before
+   * {@link #start()} returns, so before requests are accepted.
+   */
+  synchronized void initialize() {
+    // revocations of opaque tokens prior to startup can't be in this instance's caches
+    watermark = revocationRepository.maxId();
+    if (signedTokenCodec.canVerify()) {
+      int applied = 0;
+      long afterId = 0;
+      while (true) {
+        final List<Revocation> revocations = revocationRepository
+            .findSignedBetween(afterId, watermark, properties.getPageSize());
+        applied += apply(revocations);
+        if (revocations.size() < properties.getPageSize()) {
+          break;
+        }
+        afterId = revocations.get(revocations.size() - 1).getId();
+      }
+      log.info("Applied {} signed token revocations present at startup", applied);
+    }
+    caughtUp = true;
+  }
+
+  private void pollSafely() {
+    try {
+      poll();
+    } catch (Exception e) {
+      log.warn("Failed to poll the token revocation log", e);
+      failedCounter.increment();
+    }
+  }
+
+  private void removeExpiredSafely() {
+    try {
+      final int removed = revocationRepository.deleteOpaqueRevokedBefore(
+          clock.instant().minus(properties.getRetention()));
+      log.debug("Removed {} expired token revocations", removed);
+    } catch (Exception e) {
+      log.warn("Failed to remove expired token revocations", e);
+    }
+  }
+
+  @Override
+  public void start() {
+    if (properties.isEnabled()) {
+      ConnectionWorkload.BACKGROUND.run(this::initialize);
+
+      executor = Executors.newSingleThreadScheduledExecutor(
+          new CustomizableThreadFactory("token-revocation-log-"));
+      final long pollMillis = properties.getPollInterval().toMillis();
+      executor.scheduleWithFixedDelay(
+          () -> ConnectionWorkload.BACKGROUND.run(this::pollSafely),
+          pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+      executor.scheduleWithFixedDelay(
+          () -> ConnectionWorkload.BACKGROUND.run(this::removeExpiredSafely),
+          0, Math.max(properties.getRetention().toMillis() / 24, 1), TimeUnit.MILLISECONDS);
+    }
+    running = true;
+  }
+
+  @Override
+  public void stop() {
+    running = false;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void stop(Runnable callback) {
+    stop();
+    callback.run();
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public boolean isAutoStartup() {
+    return true;
+  }
+
+  @Override
+  public int getPhase() {
+    return 0;
+  }
+}
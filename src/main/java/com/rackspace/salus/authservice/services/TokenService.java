@@ -16,7 +16,13 @@
 
 package com.rackspace.salus.authservice.services;
 
+import com.rackspace.salus.authservice.config.AuthProperties;
 import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.ConnectionWorkload;
+import com.rackspace.salus.authservice.config.ReadReplicaProperties;
+import com.rackspace.salus.authservice.config.ReplicaRouting;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.authservice.web.model.EnvoyTokenDTO;
 import com.rackspace.salus.common.config.MetricNames;
 import com.rackspace.salus.common.config.MetricTagValues;
 import com.rackspace.salus.common.config.MetricTags;
@@ -25,90 +31,387 @@ import com.rackspace.salus.telemetry.model.NotFoundException;
 import com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository;
 import io.micrometer.core.instrument.Counter;
 import io.micrometer.core.instrument.MeterRegistry;
-import java.time.Instant;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
 @Service
+@Slf4j
 public class TokenService {
 
   private static final String MSG_NOT_FOUND = "Could not find given token for the tenant";
 
   private final EnvoyTokenRepository repository;
+  private final EnvoyTokenBatchRepository batchRepository;
+  private final AuthProperties authProperties;
   private final TokenGenerator tokenGenerator;
+  private final TokenDigester tokenDigester;
+  private final SignedTokenCodec signedTokenCodec;
+  private final SignedTokenValidator signedTokenValidator;
+  private final TokenLastUsedWriter lastUsedWriter;
+  private final InvalidTokenGuard invalidTokenGuard;
+  private final SharedTokenCache sharedTokenCache;
+  private final TokenRevocationLog revocationLog;
+  private final ReadReplicaProperties readReplicaProperties;
   private final Cache tokenCache;
-  private final Counter.Builder validTokenValidations;
-  private final Counter.Builder invalidTokenValidations;
-  private final Counter.Builder tokenServiceSuccessCounter;
-  MeterRegistry meterRegistry;
+  /**
+   * Incremented by each invalidation, which lets validation detect one that occurred during its
+   * database lookup
+   */
+  private final AtomicLong invalidationCount = new AtomicLong();
+  private final ScheduledExecutorService reinvalidationExecutor;
+  // resolved once, rather than registered on each use, since validate is on every request path
+  private final Counter validTokenValidations;
+  private final Counter invalidTokenValidations;
+  private final Counter allocatedCounter;
+  private final Counter bulkAllocatedCounter;
+  private final Counter updatedCounter;
+  private final Counter removedCounter;
+  private final Counter removedAllCounter;
+  private final Timer signedValidationTimer;
+  private final Timer rejectedValidationTimer;
+  private final Timer nearCacheValidationTimer;
+  private final Timer sharedTierValidationTimer;
+  private final Timer databaseValidationTimer;
+  private final Counter tenantTokensDeleted;
+  private final Timer deleteAllForTenantTimer;
+  private final MeterRegistry meterRegistry;
 
   @Autowired
   public TokenService(CacheManager cacheManager, MeterRegistry meterRegistry,
-                      EnvoyTokenRepository repository, TokenGenerator tokenGenerator) {
+                      EnvoyTokenRepository repository, EnvoyTokenBatchRepository batchRepository,
+                      AuthProperties authProperties, TokenGenerator tokenGenerator,
+                      TokenDigester tokenDigester, SignedTokenCodec signedTokenCodec,
+                      SignedTokenValidator signedTokenValidator,
+                      TokenLastUsedWriter lastUsedWriter, InvalidTokenGuard invalidTokenGuard,
+                      SharedTokenCache sharedTokenCache, TokenRevocationLog revocationLog,
+                      ReadReplicaProperties readReplicaProperties) {
     this.tokenCache = cacheManager.getCache(CacheConfig.TOKEN_VALIDATION);
     Assert.state(tokenCache!=null, "Unable to locate token validation cache");
     this.repository = repository;
+    this.batchRepository = batchRepository;
+    this.authProperties = authProperties;
     this.tokenGenerator = tokenGenerator;
+    this.tokenDigester = tokenDigester;
+    this.signedTokenCodec = signedTokenCodec;
+    this.signedTokenValidator = signedTokenValidator;
+    this.lastUsedWriter = lastUsedWriter;
+    this.invalidTokenGuard = invalidTokenGuard;
+    this.sharedTokenCache = sharedTokenCache;
+    this.revocationLog = revocationLog;
+    this.readReplicaProperties = readReplicaProperties;
+    // tokens deleted by any instance are evicted from this instance's near-cache
+    sharedTokenCache.addInvalidationListener(this::evictLocally);
+    revocationLog.addRevocationListener(this::evictLocally);
+
+    final CustomizableThreadFactory threadFactory =
+        new CustomizableThreadFactory("token-reinvalidation-");
+    threadFactory.setDaemon(true);
+    this.reinvalidationExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
 
+    validTokenValidations = Counter.builder("tokenValidations").tags(MetricTags.SERVICE_METRIC_TAG,"TokenService","result", "valid")
+        .register(meterRegistry);
+    invalidTokenValidations = Counter.builder("tokenValidations").tags(MetricTags.SERVICE_METRIC_TAG,"TokenService","result", "invalid")
+        .register(meterRegistry);
     this.meterRegistry = meterRegistry;
-    validTokenValidations = Counter.builder("tokenValidations").tags(MetricTags.SERVICE_METRIC_TAG,"TokenService","result", "valid");
-    invalidTokenValidations = Counter.builder("tokenValidations").tags(MetricTags.SERVICE_METRIC_TAG,"TokenService","result", "invalid");
-    this.tokenServiceSuccessCounter = Counter.builder(MetricNames.SERVICE_OPERATION_SUCCEEDED)
-        .tag(MetricTags.SERVICE_METRIC_TAG,"TokenService");
+    signedValidationTimer = validationTimer(meterRegistry, "signed");
+    rejectedValidationTimer = validationTimer(meterRegistry, "invalidTokenGuard");
+    nearCacheValidationTimer = validationTimer(meterRegistry, "nearCache");
+    sharedTierValidationTimer = validationTimer(meterRegistry, "sharedTier");
+    databaseValidationTimer = validationTimer(meterRegistry, "database");
+    allocatedCounter = successCounter(meterRegistry, "allocate");
+    bulkAllocatedCounter = successCounter(meterRegistry, "allocateBulk");
+    updatedCounter = successCounter(meterRegistry, MetricTagValues.UPDATE_OPERATION);
+    removedCounter = successCounter(meterRegistry, MetricTagValues.REMOVE_OPERATION);
+    removedAllCounter = successCounter(meterRegistry, "removeAll");
+    tenantTokensDeleted = Counter.builder("tenantTokensDeleted")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenService")
+        .register(meterRegistry);
+    deleteAllForTenantTimer = Timer.builder("deleteAllForTenant")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "TokenService")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @param source where the validation was resolved, which distinguishes cache hits and misses
+   */
+  private static Timer validationTimer(MeterRegistry meterRegistry, String source) {
+    return Timer.builder("tokenValidation")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "TokenService", "source", source)
+        .register(meterRegistry);
   }
 
+  private static Counter successCounter(MeterRegistry meterRegistry, String operation) {
+    return Counter.builder(MetricNames.SERVICE_OPERATION_SUCCEEDED)
+        .tags(MetricTags.SERVICE_METRIC_TAG, "TokenService",
+            MetricTags.OPERATION_METRIC_TAG, operation,
+            MetricTags.OBJECT_TYPE_METRIC_TAG, "envoyToken")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @return the allocated token, which is the only time the token value is available when
+   * hashed token storage is enabled
+   */
   public EnvoyToken allocate(String tenantId, String description) {
+    final String tokenValue = signedTokenCodec.isIssuing() ?
+        signedTokenCodec.create(tenantId) : tokenGenerator.generate();
+    final String tokenKey = tokenDigester.keyOf(tokenValue);
     final EnvoyToken envoyToken = new EnvoyToken()
-        .setToken(tokenGenerator.generate())
+        .setToken(tokenKey)
         .setTenantId(tenantId)
         .setDescription(description);
 
     EnvoyToken envoyTokenSaved = repository.save(envoyToken);
-    tokenServiceSuccessCounter
-        .tags(MetricTags.OPERATION_METRIC_TAG, "allocate",MetricTags.OBJECT_TYPE_METRIC_TAG,"envoyToken")
-        .register(meterRegistry).increment();
-    return envoyTokenSaved;
+    invalidTokenGuard.recordAllocated(tokenKey);
+    allocatedCounter.increment();
+    return withTokenValue(envoyTokenSaved, tokenValue);
+  }
+
+  /**
+   * Allocates multiple tokens for the tenant, which are inserted within a single transaction.
+   * @param tenantId the tenant to allocate tokens for
+   * @param description the description assigned to each token
+   * @param count the number of tokens to allocate
+   * @return the allocated tokens
+   * @throws BulkAllocationLimitException if count is not between one and the configured maximum
+   */
+  public List<EnvoyToken> allocateBulk(String tenantId, String description, int count) {
+    if (count < 1 || count > authProperties.getMaxBulkAllocation()) {
+      throw new BulkAllocationLimitException(String.format(
+          "The number of tokens must be between 1 and %d", authProperties.getMaxBulkAllocation()));
+    }
+
+    final List<String> tokenValues = signedTokenCodec.isIssuing() ?
+        IntStream.range(0, count)
+            .mapToObj(i -> signedTokenCodec.create(tenantId))
+            .collect(Collectors.toList()) :
+        tokenGenerator.generate(count);
+    final List<EnvoyToken> envoyTokens = tokenValues.stream()
+        .map(tokenValue -> new EnvoyToken()
+            .setToken(tokenDigester.keyOf(tokenValue))
+            .setTenantId(tenantId)
+            .setDescription(description))
+        .collect(Collectors.toList());
+
+    batchRepository.insertAll(envoyTokens);
+    envoyTokens.forEach(envoyToken -> invalidTokenGuard.recordAllocated(envoyToken.getToken()));
+    bulkAllocatedCounter.increment(count);
+
+    final List<EnvoyToken> allocated = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      allocated.add(withTokenValue(envoyTokens.get(i), tokenValues.get(i)));
+    }
+    return allocated;
   }
 
   /**
+   * Validates the given token value against the {@link InvalidTokenGuard}, this instance's
+   * near-cache, then the shared tier, and finally the database.
    * @param tokenValue the tokenValue value to validate
    * @return the tenantId of the validated token or null if given token value is not valid
    */
-  @Cacheable(cacheNames = CacheConfig.TOKEN_VALIDATION,
-      // avoid cache bloat from a brute force attack
-      unless = "#result == null")
   public String validate(String tokenValue) {
-    final Optional<EnvoyToken> token = repository.findByToken(tokenValue);
+    final Timer.Sample sample = Timer.start(meterRegistry);
+    if (SignedTokenCodec.isSigned(tokenValue)) {
+      // verified without any cache or database lookup
+      final String tenantId = signedTokenValidator.validate(tokenValue);
+      (tenantId != null ? validTokenValidations : invalidTokenValidations).increment();
+      sample.stop(signedValidationTimer);
+      return tenantId;
+    }
+
+    // when hashed token storage is enabled, the plaintext token is not retained in the caches
+    final String tokenKey = tokenDigester.keyOf(tokenValue);
+
+    // reject garbage and recently invalid tokens before any lookup
+    if (invalidTokenGuard.isKnownInvalid(tokenKey)) {
+      invalidTokenValidations.increment();
+      sample.stop(rejectedValidationTimer);
+      return null;
+    }
+
+    final String cachedTenantId = tokenCache.get(tokenKey, String.class);
+    if (cachedTenantId != null) {
+      sample.stop(nearCacheValidationTimer);
+      return cachedTenantId;
+    }
+
+    final long invalidationsBefore = invalidationCount.get();
+    final String sharedTenantId = sharedTokenCache.get(tokenKey);
+    if (sharedTenantId != null) {
+      cacheLocally(tokenKey, sharedTenantId, invalidationsBefore);
+      sample.stop(sharedTierValidationTimer);
+      return sharedTenantId;
+    }
+
+    // uses its own connection pool, when enabled, so that token management can't starve it
+    Optional<EnvoyToken> token = ConnectionWorkload.VALIDATION
+        .run(() -> findByToken(tokenValue, tokenKey));
+    if (token.isEmpty() && readReplicaProperties.isEnabled()
+        && ReplicaRouting.isReplicaLagging()) {
+      // a token allocated moments ago, possibly by another instance, may not have reached a
+      // lagging read replica yet. Otherwise, a miss is final so that invalid tokens, which have
+      // already passed the InvalidTokenGuard, don't also load the primary.
+      token = ConnectionWorkload.VALIDATION
+          .run(() -> ReplicaRouting.onPrimary(() -> findByToken(tokenValue, tokenKey)));
+    }
     if (token.isEmpty()) {
-      invalidTokenValidations.register(meterRegistry).increment();
+      invalidTokenGuard.recordInvalid(tokenKey);
+      invalidTokenValidations.increment();
+      sample.stop(databaseValidationTimer);
       return null;
     }
-    validTokenValidations.register(meterRegistry).increment();
+    validTokenValidations.increment();
+
+    // written to the database in batches off of the validation path
+    lastUsedWriter.record(token.get().getId());
+
+    // invalid tokens are not cached to avoid cache bloat from a brute force attack, they are
+    // instead tracked by the bounded InvalidTokenGuard
+    final String tenantId = token.get().getTenantId();
+    // the shared tier refuses the put on its own when the token was deleted since the lookup
+    cacheLocally(tokenKey, tenantId, invalidationsBefore);
+    sharedTokenCache.put(tokenKey, tenantId);
+    sample.stop(databaseValidationTimer);
+    return tenantId;
+  }
 
-    token.get().setLastUsed(Instant.now());
-    repository.save(token.get());
+  private Optional<EnvoyToken> findByToken(String tokenValue, String tokenKey) {
+    if (tokenDigester.mayBeStoredAsPlaintext()) {
+      // tokens only ever change from plaintext to digest, so looking up the plaintext first
+      // can't miss a token that is concurrently being converted
+      final Optional<EnvoyToken> plaintextToken = repository.findByToken(tokenValue);
+      if (plaintextToken.isPresent()) {
+        return plaintextToken;
+      }
+    }
+    return repository.findByToken(tokenKey);
+  }
+
+  /**
+   * Caches a validation in the near-cache unless the token may have been deleted since it was
+   * looked up. An invalidation increments the count before evicting, so either it is seen by
+   * the check after the put or its eviction follows the put.
+   */
+  private void cacheLocally(String tokenKey, String tenantId, long invalidationsBefore) {
+    tokenCache.put(tokenKey, tenantId);
+    if (invalidationCount.get() != invalidationsBefore) {
+      tokenCache.evict(tokenKey);
+    }
+  }
 
-    return token.get().getTenantId();
+  private void evictLocally(Collection<String> tokenKeys) {
+    invalidationCount.incrementAndGet();
+    tokenKeys.forEach(tokenCache::evict);
+    signedTokenValidator.revoke(tokenKeys);
   }
 
-  public EnvoyToken getOne(String tenantId, UUID tokenId) {
-    final Optional<EnvoyToken> token = repository
-        .findByIdAndTenantId(tokenId, tenantId);
+  private EnvoyToken withTokenValue(EnvoyToken stored, String tokenValue) {
+    if (!tokenDigester.isHashed()) {
+      return stored;
+    }
+    // a copy, since the stored entity may still be managed
+    return new EnvoyToken()
+        .setId(stored.getId())
+        .setToken(tokenValue)
+        .setTenantId(stored.getTenantId())
+        .setDescription(stored.getDescription())
+        .setCreatedTimestamp(stored.getCreatedTimestamp())
+        .setUpdatedTimestamp(stored.getUpdatedTimestamp())
+        .setLastUsed(stored.getLastUsed());
+  }
 
-    return token
+  /**
+   * Like the other read operations, this retrieves only the returned fields, within a read-only
+   * transaction, rather than loading a managed entity.
+   */
+  public EnvoyTokenDTO getOne(String tenantId, UUID tokenId) {
+    return batchRepository.findTokenOfTenant(tenantId, tokenId)
+        .map(TokenService::withoutDigest)
         .orElseThrow(() -> new NotFoundException(MSG_NOT_FOUND));
   }
 
-  public Page<EnvoyToken> getAll(String tenantId, Pageable page) {
-    return repository.findByTenantId(tenantId, page);
+  public Page<EnvoyTokenDTO> getAll(String tenantId, Pageable page) {
+    return batchRepository.findTokensOfTenant(tenantId, page)
+        .map(TokenService::withoutDigest);
+  }
+
+  /**
+   * Lists the tenant's tokens in order of creation, continuing from a previous listing. Unlike
+   * {@link #getAll(String, Pageable)}, the cost of each request does not grow with the position
+   * within the tenant's tokens and no count of the tokens is performed.
+   * @param tenantId the tenant owning the tokens
+   * @param cursor the {@link TokenListing#getNext()} of the previous listing or null to start
+   * with the tenant's first token
+   * @param size the maximum number of tokens to return, which is limited to the configured
+   * maximum
+   * @return the tokens along with the cursor of the next listing, if there are more tokens
+   * @throws InvalidListingCursorException if the cursor was not issued by a previous listing
+   */
+  public TokenListing list(String tenantId, String cursor, int size) {
+    final int limit = Math.max(1, Math.min(size, authProperties.getMaxTokenListingSize()));
+    final TokenListingCursor after = cursor != null ? TokenListingCursor.decode(cursor) : null;
+
+    // one extra is retrieved to determine if there are more tokens after this listing
+    final List<EnvoyTokenDTO> tokens = batchRepository.findTokensOfTenantAfter(tenantId,
+        after != null ? after.getCreatedTimestamp() : null,
+        after != null ? after.getId() : null,
+        limit + 1);
+    tokens.forEach(TokenService::withoutDigest);
+    if (tokens.size() <= limit) {
+      return new TokenListing(tokens, null);
+    }
+
+    final List<EnvoyTokenDTO> content = tokens.subList(0, limit);
+    final EnvoyTokenDTO last = content.get(limit - 1);
+    return new TokenListing(content,
+        new TokenListingCursor(last.getCreatedTimestamp(), last.getId()).encode());
+  }
+
+  /**
+   * Streams all of the tenant's tokens in order of creation without retaining them in memory.
+   * A database connection is held until the consumer has been given the last token, as
+   * described by {@link EnvoyTokenBatchRepository#forEachTokenOfTenant(String, Consumer)}.
+   * @param tenantId the tenant owning the tokens
+   * @param consumer invoked with each token
+   */
+  public void export(String tenantId, Consumer<EnvoyTokenDTO> consumer) {
+    batchRepository.forEachTokenOfTenant(tenantId,
+        token -> consumer.accept(withoutDigest(token)));
+  }
+
+  /**
+   * Omits the value of a token stored as a digest, since the digest can't be used as a token.
+   */
+  private static EnvoyTokenDTO withoutDigest(EnvoyTokenDTO token) {
+    if (token.getToken() != null && TokenDigester.isDigest(token.getToken())) {
+      token.setToken(null);
+    }
+    return token;
   }
 
   public EnvoyToken update(String tenantId, UUID tokenId, String description) {
@@ -119,10 +422,10 @@ public class TokenService {
     token.setDescription(description);
 
     EnvoyToken updatedEnvoyToken = repository.save(token);
-    tokenServiceSuccessCounter
-        .tags(MetricTags.OPERATION_METRIC_TAG, MetricTagValues.UPDATE_OPERATION,MetricTags.OBJECT_TYPE_METRIC_TAG,"envoyToken")
-        .register(meterRegistry).increment();
-    return updatedEnvoyToken;
+    updatedCounter.increment();
+    // a copy without the digest, like the read operations return
+    return TokenDigester.isDigest(updatedEnvoyToken.getToken()) ?
+        withTokenValue(updatedEnvoyToken, null) : updatedEnvoyToken;
   }
 
   public void delete(String tenantId, UUID tokenId) {
@@ -132,21 +435,89 @@ public class TokenService {
 
     // Unable to use declarative cache eviction since the cache key is not available
     // until after retrieval of the EnvoyToken
-    tokenCache.evict(token.getToken());
-
-    repository.delete(token);
-    tokenServiceSuccessCounter
-        .tags(MetricTags.OPERATION_METRIC_TAG, MetricTagValues.REMOVE_OPERATION,MetricTags.OBJECT_TYPE_METRIC_TAG,"envoyToken")
-        .register(meterRegistry).increment();
+    final String tokenKey = tokenDigester.keyOfStored(token.getToken());
+    revocationLog.deleteAndRevoke(List.of(token.getId()), List.of(tokenKey));
+    // after the delete, so that a validation that read the token beforehand can't cache it again
+    evictLocally(List.of(tokenKey));
+    // after the delete so that other instances can't re-populate the shared tier from the
+    // database in between
+    invalidateDeleted(List.of(tokenKey));
+    removedCounter.increment();
   }
 
+  /**
+   * Deletes the tenant's tokens in chunks, each with a single delete statement in its own
+   * transaction, which bounds both the memory used and the time row locks are held.
+   * @param tenantId the tenant whose tokens are deleted
+   * @throws DeletionIncompleteException if the configured time limit was reached before all
+   * of the tenant's tokens were deleted
+   */
   public void deleteAllForTenant(String tenantId) {
-    repository.findByTenantId(tenantId, Pageable.unpaged())
-        .forEach(token -> tokenCache.evict(token.getToken()));
+    deleteAllForTenantTimer.record(() -> deleteAllChunksForTenant(tenantId));
+    removedAllCounter.increment();
+  }
+
+  private void deleteAllChunksForTenant(String tenantId) {
+    final long deadline = System.nanoTime() + authProperties.getDeleteAllTimeLimit().toNanos();
+    int chunks = 0;
+    int deleted = 0;
+    while (true) {
+      // read from the primary, since a lagging replica would return tokens already deleted
+      final Map<UUID, String> tokenValues = ReplicaRouting.onPrimary(() -> batchRepository
+          .findTokenValuesOfTenant(tenantId, authProperties.getDeleteChunkSize()));
+      if (tokenValues.isEmpty()) {
+        return;
+      }
+      // always make progress, even if the first chunk exceeds the time limit
+      if (chunks > 0 && System.nanoTime() - deadline >= 0) {
+        throw new DeletionIncompleteException(String.format(
+            "Deleted %d tokens before reaching the time limit, retry to delete the remaining tokens",
+            deleted));
+      }
+
+      final List<String> tokenKeys = tokenValues.values().stream()
+          .map(tokenDigester::keyOfStored)
+          .collect(Collectors.toList());
+      deleted += revocationLog.deleteAndRevoke(tokenValues.keySet(), tokenKeys);
+      evictLocally(tokenKeys);
+      invalidateDeleted(tokenKeys);
+      tenantTokensDeleted.increment(tokenValues.size());
+      chunks++;
+      log.debug("Deleted {} tokens of tenant={} so far", deleted, tenantId);
+    }
+  }
+
+  /**
+   * Invalidates the cached validations of deleted tokens on all instances. When reads are
+   * routed to replicas, a validation reading a replica that has not applied the delete yet
+   * can cache the token again afterwards, so the invalidation is repeated once such a replica
+   * has either caught up or been taken out of use.
+   */
+  private void invalidateDeleted(Collection<String> tokenKeys) {
+    sharedTokenCache.invalidate(tokenKeys);
+    if (!readReplicaProperties.isEnabled()) {
+      return;
+    }
+
+    // a replica's lag is only checked periodically, so it may exceed the maximum until then
+    final Duration delay = readReplicaProperties.getMaxLag()
+        .plus(readReplicaProperties.getLagCheckInterval());
+    try {
+      reinvalidationExecutor.schedule(() -> {
+        try {
+          sharedTokenCache.invalidate(tokenKeys);
+        } catch (Exception e) {
+          log.warn("Failed to repeat the invalidation of {} deleted tokens", tokenKeys.size(), e);
+        }
+      }, delay.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      log.warn("Unable to repeat the invalidation of {} deleted tokens while shutting down",
+          tokenKeys.size());
+    }
+  }
 
-    repository.deleteAllByTenantId(tenantId);
-    tokenServiceSuccessCounter
-        .tags(MetricTags.OPERATION_METRIC_TAG, "removeAll",MetricTags.OBJECT_TYPE_METRIC_TAG,"envoyToken")
-        .register(meterRegistry).increment();
+  @PreDestroy
+  public void stop() {
+    reinvalidationExecutor.shutdownNow();
   }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.PkiLimiterProperties;
+import com.rackspace.salus.authservice.web.CertResponse;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.vault.core.VaultTemplate;
+import org.springframework.vault.support.VaultCertificateRequest;
+import org.springframework.vault.support.VaultCertificateResponse;
+
+/**
+ * Issues client certificates for a tenant from Vault PKI without any caching or pooling.
+ * <p>
+ * The concurrency of issuances is limited by an {@link AdaptiveConcurrencyLimiter}, so that a
+ * slow Vault sheds load rather than accumulating blocked threads.
+ * </p>
+ */
+@Component
+@Slf4j
+public class VaultCertificateIssuer {
+
+  private final VaultTemplate vaultTemplate;
+  private final AuthProperties properties;
+  private final PkiLimiterProperties limiterProperties;
+  private final AdaptiveConcurrencyLimiter limiter;
+  private final Counter rejectedCounter;
+  private final Timer vaultTimer;
+  private final Timer formattingTimer;
+
+  @Autowired
+  public VaultCertificateIssuer(VaultTemplate vaultTemplate, AuthProperties properties,
+                                PkiLimiterProperties limiterProperties,
+                                MeterRegistry meterRegistry) {
+    this.vaultTemplate = vaultTemplate;
+    this.properties = properties;
+    this.limiterProperties = limiterProperties;
+    this.limiter = new AdaptiveConcurrencyLimiter(
+        limiterProperties.getInitialLimit(), limiterProperties.getMinLimit(),
+        limiterProperties.getMaxLimit(), limiterProperties.getLatencyThreshold(),
+        limiterProperties.getBackoffRatio(), limiterProperties.getMaxQueueTime());
+
+    Gauge.builder("vaultPkiConcurrencyLimit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+        .tag(MetricTags.SERVICE_METRIC_TAG, "VaultCertificateIssuer")
+        .register(meterRegistry);
+    Gauge.builder("vaultPkiInFlight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+        .tag(MetricTags.SERVICE_METRIC_TAG, "VaultCertificateIssuer")
+        .register(meterRegistry);
+    rejectedCounter = Counter.builder("vaultPkiRejected")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "VaultCertificateIssuer")
+        .register(meterRegistry);
+    vaultTimer = Timer.builder("vaultPkiIssuance")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "VaultCertificateIssuer")
+        .register(meterRegistry);
+    formattingTimer = Timer.builder("pemFormatting")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "VaultCertificateIssuer")
+        .register(meterRegistry);
+  }
+
+  /**
+   * @throws CertificateUnavailableException if the concurrency limit of Vault PKI issuances
+   * was reached and no issuance completed within the maximum queue time
+   */
+  public CertResponse issue(String tenant) {
+    if (!limiterProperties.isEnabled()) {
+      return issueFromVault(tenant);
+    }
+
+    try {
+      if (!limiter.acquire()) {
+        rejectedCounter.increment();
+        throw new CertificateUnavailableException(
+            "Too many client certificate issuances are in progress",
+            limiterProperties.getRetryAfter());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CertificateUnavailableException(
+          "Interrupted while waiting to issue client certificates", e);
+    }
+
+    final long start = System.nanoTime();
+    boolean succeeded = false;
+    try {
+      final CertResponse certResponse = issueFromVault(tenant);
+      succeeded = true;
+      return certResponse;
+    } finally {
+      limiter.release(System.nanoTime() - start, succeeded);
+    }
+  }
+
+  private CertResponse issueFromVault(String tenant) {
+    log.info("Allocating client certificates for tenant={} from Vault", tenant);
+
+    final VaultCertificateResponse resp = vaultTimer.record(() -> vaultTemplate.opsForPki()
+        .issueCertificate(
+            properties.getPkiRoleName(),
+            VaultCertificateRequest.create(tenant)));
+
+    return formattingTimer.record(() -> new CertResponse(
+        formatCert(resp.getData().getCertificate(), "CERTIFICATE"),
+        formatCert(resp.getData().getIssuingCaCertificate(), "CERTIFICATE"),
+        formatCert(resp.getData().getPrivateKey(), "RSA PRIVATE KEY")));
+  }
+
+  static String formatCert(String c, String name) {
+    StringBuilder n = new StringBuilder("-----BEGIN " + name + "-----");
+    for (int i = 0; i < c.length() ; i++) {
+      if ((i % 64) == 0) {
+        n.append("\n");
+      }
+      n.append(c.charAt(i));
+    }
+    n.append("\n-----END " + name + "-----");
+    return n.toString();
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.web;
+
+import org.springframework.security.authentication.BadCredentialsException;
+
+/**
+ * Extracts the token from a bearer Authorization header with a single pass over the header value
+ * and without allocating anything other than the returned token.
+ * <p>
+ * Accepts exactly what the pattern <code>^Bearer ([a-zA-Z0-9-._~+/]+)=*$</code>, matched
+ * case-insensitively, accepts, which uses a similar strategy as OAuth2's
+ * DefaultBearerTokenResolver. That is, the token consists of the RFC 6750 token characters and
+ * any trailing base64 padding is stripped.
+ * </p>
+ */
+final class BearerTokenParser {
+
+  private static final String SCHEME = "bearer";
+  private static final int TOKEN_START = SCHEME.length() + 1;
+
+  private static final boolean[] TOKEN_CHARS = new boolean[128];
+
+  static {
+    for (char c = 'a'; c <= 'z'; c++) {
+      TOKEN_CHARS[c] = true;
+    }
+    for (char c = 'A'; c <= 'Z'; c++) {
+      TOKEN_CHARS[c] = true;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      TOKEN_CHARS[c] = true;
+    }
+    for (char c : "-._~+/".toCharArray()) {
+      TOKEN_CHARS[c] = true;
+    }
+  }
+
+  private BearerTokenParser() {
+  }
+
+  /**
+   * @param authorization the value of the Authorization header, which may be null
+   * @return the bearer token value or null if the header does not use the bearer scheme
+   * @throws BadCredentialsException if the header uses the bearer scheme, but the token is malformed
+   */
+  static String parse(String authorization) {
+    if (authorization == null ||
+        !authorization.regionMatches(true, 0, SCHEME, 0, SCHEME.length())) {
+      return null;
+    }
+
+    final int length = authorization.length();
+    if (length <= TOKEN_START || authorization.charAt(SCHEME.length()) != ' ') {
+      throw malformed();
+    }
+
+    int tokenEnd = TOKEN_START;
+    while (tokenEnd < length && isTokenChar(authorization.charAt(tokenEnd))) {
+      tokenEnd++;
+    }
+    if (tokenEnd == TOKEN_START) {
+      throw malformed();
+    }
+
+    for (int i = tokenEnd; i < length; i++) {
+      if (authorization.charAt(i) != '=') {
+        throw malformed();
+      }
+    }
+
+    return authorization.substring(TOKEN_START, tokenEnd);
+  }
+
+  private static boolean isTokenChar(char c) {
+    return c < TOKEN_CHARS.length && TOKEN_CHARS[c];
+  }
+
+  private static BadCredentialsException malformed() {
+    return new BadCredentialsException("Bearer token is malformed");
+  }
+}
@@ -17,17 +17,21 @@
 package com.rackspace.salus.authservice.web;
 
 import com.rackspace.salus.authservice.services.TokenService;
+import com.rackspace.salus.common.config.MetricTags;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
@@ -37,12 +41,16 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.AuthenticationFailureHandler;
 import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
 import org.springframework.security.web.authentication.preauth.PreAuthenticatedAuthenticationToken;
-import org.springframework.util.StringUtils;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 /**
  * Processes a bearer token provided in the Authorization header by validating it is
  * an allocated token and then sets the authenticated principal to the associated tenant ID.
+ * <p>
+ * When configured, remote addresses with too many failed authentications and tenants with
+ * too many certificate requests are throttled before their tokens are validated or
+ * certificates are issued.
+ * </p>
  */
 @Slf4j
 public class EnvoyTokenAuthFilter extends OncePerRequestFilter {
@@ -54,17 +62,37 @@ public class EnvoyTokenAuthFilter extends OncePerRequestFilter {
 
   static final Collection<? extends GrantedAuthority> AUTHORITIES = List.of(CERT_REQUESTOR);
 
-  // use a similar strategy as OAuth2's DefaultBearerTokenResolver
-  private static final Pattern authorizationPattern = Pattern.compile(
-      "^Bearer (?<token>[a-zA-Z0-9-._~+/]+)=*$",
-      Pattern.CASE_INSENSITIVE);
-
   private final TokenService tokenService;
+  private final TokenBucketRateLimiter addressFailureLimiter;
+  private final TokenBucketRateLimiter tenantLimiter;
+  private final Counter throttledAddresses;
+  private final Counter throttledTenants;
+  private final Timer authenticationTimer;
+  private final MeterRegistry meterRegistry;
 
   private AuthenticationFailureHandler failureHandler = new SimpleUrlAuthenticationFailureHandler();
 
-  public EnvoyTokenAuthFilter(TokenService tokenService) {
+  /**
+   * @param addressFailureLimiter limits failed authentications per remote address, or null
+   * @param tenantLimiter limits authenticated requests per tenant, or null
+   */
+  public EnvoyTokenAuthFilter(TokenService tokenService,
+                              TokenBucketRateLimiter addressFailureLimiter,
+                              TokenBucketRateLimiter tenantLimiter,
+                              MeterRegistry meterRegistry) {
     this.tokenService = tokenService;
+    this.addressFailureLimiter = addressFailureLimiter;
+    this.tenantLimiter = tenantLimiter;
+    throttledAddresses = Counter.builder("authRequestsThrottled")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "EnvoyTokenAuthFilter", "key", "address")
+        .register(meterRegistry);
+    throttledTenants = Counter.builder("authRequestsThrottled")
+        .tags(MetricTags.SERVICE_METRIC_TAG, "EnvoyTokenAuthFilter", "key", "tenant")
+        .register(meterRegistry);
+    authenticationTimer = Timer.builder("envoyTokenAuthentication")
+        .tag(MetricTags.SERVICE_METRIC_TAG, "EnvoyTokenAuthFilter")
+        .register(meterRegistry);
+    this.meterRegistry = meterRegistry;
   }
 
   @Override
@@ -72,12 +100,49 @@ public class EnvoyTokenAuthFilter extends OncePerRequestFilter {
                                   HttpServletResponse response, FilterChain filterChain)
       throws ServletException, IOException {
 
+    final String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+    if (authorization == null) {
+      // such as requests proxied by the public API, which are already authenticated
+      filterChain.doFilter(request, response);
+      return;
+    }
+
+    // only the authentication is timed, not the remainder of the request
+    final Timer.Sample sample = Timer.start(meterRegistry);
+    final boolean proceed;
+    try {
+      proceed = authenticate(authorization, request, response);
+    } finally {
+      sample.stop(authenticationTimer);
+    }
+
+    if (proceed) {
+      filterChain.doFilter(request, response);
+    }
+  }
+
+  /**
+   * @return true if the request should proceed, otherwise the response has been committed
+   */
+  private boolean authenticate(String authorization, HttpServletRequest request,
+                               HttpServletResponse response)
+      throws ServletException, IOException {
+    if (addressFailureLimiter != null) {
+      final long waitNanos = addressFailureLimiter.peek(request.getRemoteAddr());
+      if (waitNanos > 0) {
+        log.debug("Throttling requests from remoteAddr={}", request.getRemoteAddr());
+        throttledAddresses.increment();
+        respondTooManyRequests(response, waitNanos);
+        return false;
+      }
+    }
+
     final String tokenValue;
     try {
-      tokenValue = extractToken(request);
+      tokenValue = extractToken(authorization);
     } catch (AuthenticationException e) {
       handleAuthenticationFailure(request, response, e);
-      return;
+      return false;
     }
 
     if (tokenValue != null) {
@@ -88,9 +153,18 @@ public class EnvoyTokenAuthFilter extends OncePerRequestFilter {
         SecurityContextHolder.clearContext();
         handleAuthenticationFailure(
             request, response, new BadCredentialsException("Invalid Envoy token"));
-        return;
+        return false;
       }
       else {
+        if (tenantLimiter != null) {
+          final long waitNanos = tenantLimiter.tryAcquire(tenantId);
+          if (waitNanos > 0) {
+            log.debug("Throttling requests of tenant={}", tenantId);
+            throttledTenants.increment();
+            respondTooManyRequests(response, waitNanos);
+            return false;
+          }
+        }
         log.debug("Authenticated tenant={}", tenantId);
         final SecurityContext context = SecurityContextHolder.createEmptyContext();
         context.setAuthentication(new PreAuthenticatedAuthenticationToken(
@@ -100,30 +174,33 @@ public class EnvoyTokenAuthFilter extends OncePerRequestFilter {
       }
     }
 
-    filterChain.doFilter(request, response);
+    return true;
   }
 
   private void handleAuthenticationFailure(HttpServletRequest request, HttpServletResponse response,
                                            AuthenticationException e)
       throws IOException, ServletException {
     log.debug("Failed to authenticate request from remoteAddr={}", request.getRemoteAddr());
+    if (addressFailureLimiter != null) {
+      addressFailureLimiter.tryAcquire(request.getRemoteAddr());
+    }
     failureHandler.onAuthenticationFailure(request, response, e);
   }
 
-  private String extractToken(HttpServletRequest request) {
-    final String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
-    if (StringUtils.startsWithIgnoreCase(authorization, "bearer")) {
-      Matcher matcher = authorizationPattern.matcher(authorization);
-
-      if (!matcher.matches()) {
-        throw new BadCredentialsException("Bearer token is malformed");
-      }
+  private static void respondTooManyRequests(HttpServletResponse response, long waitNanos) {
+    response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+    // rounded up to whole seconds
+    response.setHeader(HttpHeaders.RETRY_AFTER,
+        Long.toString(TimeUnit.NANOSECONDS.toSeconds(waitNanos - 1) + 1));
+  }
 
-      return matcher.group("token");
-    }
-    else {
-      return null;
-    }
+  /**
+   * @param authorization the value of the Authorization header, which may be null
+   * @return the bearer token value or null if the header does not contain a bearer token
+   * @throws BadCredentialsException if the bearer token is malformed
+   */
+  static String extractToken(String authorization) {
+    return BearerTokenParser.parse(authorization);
   }
 
   public AuthenticationFailureHandler getFailureHandler() {
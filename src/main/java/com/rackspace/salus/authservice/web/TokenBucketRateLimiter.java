@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.web;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * An in-memory token bucket rate limiter keyed by a string, such as a remote address or tenant.
+ * <p>
+ * Each bucket is a single timestamp, in the manner of the generic cell rate algorithm, which is
+ * the time at which the bucket will be full again. Taking a token advances that time by the
+ * refill interval with a compare-and-set, so buckets are lock-free, while the map holding them
+ * is striped. A bucket whose time has passed is full, which is the same as not having a bucket,
+ * so idle buckets are evicted without affecting the limits.
+ * </p>
+ */
+public class TokenBucketRateLimiter {
+
+  private static final long EVICTION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final long refillIntervalNanos;
+  private final long burstNanos;
+  private final int maxBuckets;
+  private final LongSupplier nanoClock;
+  private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+  private final AtomicLong nextEviction;
+
+  /**
+   * @param capacity the number of tokens in a full bucket
+   * @param refillPerSecond the rate at which tokens are added to a bucket
+   * @param maxBuckets the maximum number of buckets, beyond which new keys are not limited
+   */
+  public TokenBucketRateLimiter(int capacity, double refillPerSecond, int maxBuckets) {
+    this(capacity, refillPerSecond, maxBuckets, System::nanoTime);
+  }
+
+  TokenBucketRateLimiter(int capacity, double refillPerSecond, int maxBuckets,
+                         LongSupplier nanoClock) {
+    this.refillIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond);
+    this.burstNanos = refillIntervalNanos * capacity;
+    this.maxBuckets = maxBuckets;
+    this.nanoClock = nanoClock;
+    this.nextEviction = new AtomicLong(nanoClock.getAsLong());
+  }
+
+  /**
+   * Takes a token from the key's bucket, if one is available.
+   * @return zero if a token was taken, otherwise the nanoseconds until one is available
+   */
+  public long tryAcquire(String key) {
+    final long now = nanoClock.getAsLong();
+    final AtomicLong bucket = getOrCreateBucket(key, now);
+    if (bucket == null) {
+      return 0;
+    }
+    while (true) {
+      final long fullAt = bucket.get();
+      final long next = (fullAt - now > 0 ? fullAt : now) + refillIntervalNanos;
+      final long wait = next - now - burstNanos;
+      if (wait > 0) {
+        return wait;
+      }
+      if (bucket.compareAndSet(fullAt, next)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * @return zero if the key's bucket has a token available, otherwise the nanoseconds until
+   * one is available
+   */
+  public long peek(String key) {
+    final AtomicLong bucket = buckets.get(key);
+    if (bucket == null) {
+      return 0;
+    }
+    final long now = nanoClock.getAsLong();
+    final long fullAt = bucket.get();
+    final long next = (fullAt - now > 0 ? fullAt : now) + refillIntervalNanos;
+    return Math.max(next - now - burstNanos, 0);
+  }
+
+  int bucketCount() {
+    return buckets.size();
+  }
+
+  private AtomicLong getOrCreateBucket(String key, long now) {
+    final AtomicLong bucket = buckets.get(key);
+    if (bucket != null) {
+      return bucket;
+    }
+
+    evictIdle(now);
+    if (buckets.size() >= maxBuckets) {
+      // fails open, since the alternative would let an attacker deny service to new sources
+      return null;
+    }
+    return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+  }
+
+  private void evictIdle(long now) {
+    final long evictAt = nextEviction.get();
+    // at most one thread sweeps the buckets each interval
+    if (now - evictAt < 0 || !nextEviction.compareAndSet(evictAt, now + EVICTION_INTERVAL_NANOS)) {
+      return;
+    }
+    buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+  }
+}
@@ -23,6 +23,7 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.Authorization;
+import java.util.concurrent.CompletableFuture;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -50,13 +51,15 @@ public class AuthController {
 
     @GetMapping("/v${salus.api.auth.version}/cert")
     @ApiOperation("Requests client certificate material for the gRPC connection with Ambassador")
-    public ResponseEntity<CertResponse> getCertWithTenantFromAuth(
+    public CompletableFuture<ResponseEntity<CertResponse>> getCertWithTenantFromAuth(
         @AuthenticationPrincipal String tenantId
     ) {
-        final CertResponse rd = clientCertificateService.getClientCertificate(tenantId);
-
-        certCounter.increment();
-        log.info("Providing client certificates for tenant={}", tenantId);
-        return ResponseEntity.ok(rd);
+        // the request thread is released while certificates are issued by Vault
+        return clientCertificateService.getClientCertificateAsync(tenantId)
+            .thenApply(rd -> {
+                certCounter.increment();
+                log.info("Providing client certificates for tenant={}", tenantId);
+                return ResponseEntity.ok(rd);
+            });
     }
 }
@@ -17,7 +17,12 @@
 
 package com.rackspace.salus.authservice.web.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rackspace.salus.authservice.services.TokenListing;
 import com.rackspace.salus.authservice.services.TokenService;
+import com.rackspace.salus.authservice.web.model.BulkTokenAllocationRequest;
+import com.rackspace.salus.authservice.web.model.EnvoyTokenDTO;
 import com.rackspace.salus.authservice.web.model.TokenAllocationRequest;
 import com.rackspace.salus.authservice.web.model.TokenModifyRequest;
 import com.rackspace.salus.telemetry.entities.EnvoyToken;
@@ -25,11 +30,16 @@ import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.Authorization;
 import io.swagger.annotations.AuthorizationScope;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
 import java.util.UUID;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -37,8 +47,10 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 /**
  * This is API that is expected to be proxied by the public API
@@ -55,11 +67,18 @@ import org.springframework.web.bind.annotation.RestController;
 })
 public class EnvoyTokenController {
 
+  /**
+   * Newline delimited JSON, which is not among the media types declared by this Spring version
+   */
+  static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
   private final TokenService tokenService;
+  private final ObjectMapper objectMapper;
 
   @Autowired
-  public EnvoyTokenController(TokenService tokenService) {
+  public EnvoyTokenController(TokenService tokenService, ObjectMapper objectMapper) {
     this.tokenService = tokenService;
+    this.objectMapper = objectMapper;
   }
 
   @PostMapping("/tenant/{tenantId}/envoy-tokens")
@@ -70,15 +89,69 @@ public class EnvoyTokenController {
     return tokenService.allocate(tenantId, request.getDescription());
   }
 
+  @PostMapping("/tenant/{tenantId}/envoy-tokens/bulk")
+  @ApiOperation("Allocate multiple tokens to be used by Envoys to retrieve client certificates")
+  public ResponseEntity<StreamingResponseBody> allocateBulk(
+      @PathVariable String tenantId, @RequestBody BulkTokenAllocationRequest request) {
+    final List<EnvoyToken> tokens = tokenService
+        .allocateBulk(tenantId, request.getDescription(), request.getCount());
+
+    // the tokens are written out one at a time rather than buffering the whole response
+    return ResponseEntity.status(HttpStatus.CREATED)
+        .contentType(MediaType.APPLICATION_JSON)
+        .body(outputStream -> {
+          try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            for (EnvoyToken token : tokens) {
+              generator.writeObject(token);
+            }
+            generator.writeEndArray();
+          }
+        });
+  }
+
   @GetMapping("/tenant/{tenantId}/envoy-tokens")
   @ApiOperation("Get a page of currently allocated Envoy tokens")
-  public Page<EnvoyToken> getAll(@PathVariable String tenantId, Pageable page) {
+  public Page<EnvoyTokenDTO> getAll(@PathVariable String tenantId, Pageable page) {
     return tokenService.getAll(tenantId, page);
   }
 
+  @GetMapping("/tenant/{tenantId}/envoy-tokens/listing")
+  @ApiOperation("Get currently allocated Envoy tokens, continuing after the given cursor")
+  public TokenListing list(@PathVariable String tenantId,
+                           @RequestParam(required = false) String cursor,
+                           @RequestParam(defaultValue = "100") int size) {
+    return tokenService.list(tenantId, cursor, size);
+  }
+
+  @GetMapping(value = "/tenant/{tenantId}/envoy-tokens/export",
+      produces = APPLICATION_NDJSON_VALUE)
+  @ApiOperation("Export all currently allocated Envoy tokens as newline delimited JSON")
+  public ResponseEntity<StreamingResponseBody> export(@PathVariable String tenantId) {
+    // each token is written as it is read from the database rather than collecting a page
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+        .body(outputStream -> {
+          try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // each token is terminated by a newline rather than separated by a space
+            generator.setRootValueSeparator(null);
+            tokenService.export(tenantId, token -> {
+              try {
+                generator.writeObject(token);
+                generator.writeRaw('\n');
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+          }
+        });
+  }
+
   @GetMapping("/tenant/{tenantId}/envoy-tokens/{id}")
   @ApiOperation("Get a specific Envoy token")
-  public EnvoyToken getOne(@PathVariable String tenantId,
+  public EnvoyTokenDTO getOne(@PathVariable String tenantId,
                            @PathVariable UUID id) {
     return tokenService.getOne(tenantId, id);
   }
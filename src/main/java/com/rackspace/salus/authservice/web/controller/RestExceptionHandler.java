@@ -16,6 +16,10 @@
 
 package com.rackspace.salus.authservice.web.controller;
 
+import com.rackspace.salus.authservice.services.BulkAllocationLimitException;
+import com.rackspace.salus.authservice.services.CertificateUnavailableException;
+import com.rackspace.salus.authservice.services.DeletionIncompleteException;
+import com.rackspace.salus.authservice.services.InvalidListingCursorException;
 import com.rackspace.salus.common.config.MetricNames;
 import com.rackspace.salus.common.config.MetricTags;
 import com.rackspace.salus.common.web.AbstractRestExceptionHandler;
@@ -25,6 +29,7 @@ import io.micrometer.core.instrument.MeterRegistry;
 import javax.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.servlet.error.ErrorAttributes;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -54,4 +59,30 @@ public class RestExceptionHandler extends AbstractRestExceptionHandler {
         .register(meterRegistry).increment();
     return respondWith(request, HttpStatus.NOT_FOUND);
   }
+
+  @ExceptionHandler({BulkAllocationLimitException.class, InvalidListingCursorException.class})
+  public ResponseEntity<?> handleBadRequest(
+      HttpServletRequest request, Exception e) {
+    authServiceErrorCounter.tags(
+        MetricTags.URI_METRIC_TAG,request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE).toString(), MetricTags.EXCEPTION_METRIC_TAG,e.getClass().getSimpleName())
+        .register(meterRegistry).increment();
+    return respondWith(request, HttpStatus.BAD_REQUEST);
+  }
+
+  @ExceptionHandler({CertificateUnavailableException.class, DeletionIncompleteException.class})
+  public ResponseEntity<?> handleServiceUnavailable(
+      HttpServletRequest request, Exception e) {
+    authServiceErrorCounter.tags(
+        MetricTags.URI_METRIC_TAG,request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE).toString(), MetricTags.EXCEPTION_METRIC_TAG,e.getClass().getSimpleName())
+        .register(meterRegistry).increment();
+    final ResponseEntity<?> response = respondWith(request, HttpStatus.SERVICE_UNAVAILABLE);
+    if (e instanceof CertificateUnavailableException
+        && ((CertificateUnavailableException) e).getRetryAfter() != null) {
+      return ResponseEntity.status(response.getStatusCode())
+          .header(HttpHeaders.RETRY_AFTER, Long.toString(
+              ((CertificateUnavailableException) e).getRetryAfter().getSeconds()))
+          .body(response.getBody());
+    }
+    return response;
+  }
 }
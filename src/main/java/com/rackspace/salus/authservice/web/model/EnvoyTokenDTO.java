@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.web.model;
+
+import java.time.Instant;
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The fields of an {@link com.rackspace.salus.telemetry.entities.EnvoyToken} returned by the
+ * read endpoints. It is populated directly by the query, so reads do not load managed entities.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EnvoyTokenDTO {
+  UUID id;
+  /**
+   * The token value, which is null when the token is stored as a digest since its value is then
+   * only returned when allocated.
+   */
+  String token;
+  String tenantId;
+  String description;
+  Instant createdTimestamp;
+  Instant updatedTimestamp;
+  Instant lastUsed;
+}
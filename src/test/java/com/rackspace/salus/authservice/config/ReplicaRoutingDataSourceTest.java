@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Each embedded database records its own name and a lag, so that the tests can tell where a
+ * query was routed.
+ */
+public class ReplicaRoutingDataSourceTest {
+
+  private EmbeddedDatabase primary;
+  private EmbeddedDatabase replicaA;
+  private EmbeddedDatabase replicaB;
+  private ReplicaRoutingDataSource routingDataSource;
+  private ReplicaLagMonitor lagMonitor;
+  private JdbcTemplate jdbcTemplate;
+
+  @Before
+  public void setUp() {
+    primary = createDatabase("primary");
+    replicaA = createDatabase("replica-a");
+    replicaB = createDatabase("replica-b");
+
+    final List<DataSource> replicas = List.of(replicaA, replicaB);
+    routingDataSource = new ReplicaRoutingDataSource(primary, replicas);
+    lagMonitor = new ReplicaLagMonitor(routingDataSource, replicas,
+        new ReadReplicaProperties()
+            .setMaxLag(Duration.ofSeconds(5))
+            .setLagQuery("select lag_seconds from node")
+            .setLagColumn("lag_seconds"),
+        new SimpleMeterRegistry());
+    jdbcTemplate = new JdbcTemplate(routingDataSource);
+  }
+
+  @After
+  public void tearDown() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(false);
+    ReplicaRouting.setReplicaLagging(true);
+    primary.shutdown();
+    replicaA.shutdown();
+    replicaB.shutdown();
+  }
+
+  @Test
+  public void testReadOnlyRoutedToReplicasInTurn() {
+    lagMonitor.checkLag();
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+    assertThat(List.of(queryNode(), queryNode(), queryNode(), queryNode()))
+        .containsOnly("replica-a", "replica-b")
+        .contains("replica-a", "replica-b");
+    assertThat(ReplicaRouting.isReplicaLagging()).isFalse();
+  }
+
+  @Test
+  public void testWritesRoutedToPrimary() {
+    lagMonitor.checkLag();
+
+    assertThat(queryNode()).isEqualTo("primary");
+  }
+
+  @Test
+  public void testPrimaryRequired() {
+    lagMonitor.checkLag();
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+    assertThat(ReplicaRouting.onPrimary(this::queryNode)).isEqualTo("primary");
+    // only within the given work
+    assertThat(queryNode()).startsWith("replica-");
+  }
+
+  @Test
+  public void testLaggingReplicasNotUsed() {
+    new JdbcTemplate(replicaA).update("update node set lag_seconds = 30");
+    // replication not running
+    new JdbcTemplate(replicaB).update("update node set lag_seconds = null");
+    lagMonitor.checkLag();
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+    assertThat(queryNode()).isEqualTo("primary");
+    // only replicas in use count, and reads already go to the primary
+    assertThat(ReplicaRouting.isReplicaLagging()).isFalse();
+
+    // until caught up
+    new JdbcTemplate(replicaA).update("update node set lag_seconds = 2");
+    lagMonitor.checkLag();
+
+    assertThat(queryNode()).isEqualTo("replica-a");
+    assertThat(queryNode()).isEqualTo("replica-a");
+    assertThat(ReplicaRouting.isReplicaLagging()).isTrue();
+  }
+
+  @Test
+  public void testReplicasNotUsedUntilChecked() {
+    TransactionSynchronizationManager.setCurrentTransactionReadOnly(true);
+
+    assertThat(queryNode()).isEqualTo("primary");
+  }
+
+  private String queryNode() {
+    return jdbcTemplate.queryForObject("select name from node", String.class);
+  }
+
+  private static EmbeddedDatabase createDatabase(String name) {
+    final EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+        .setType(EmbeddedDatabaseType.H2)
+        .generateUniqueName(true)
+        .build();
+    final JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+    jdbcTemplate.execute("create table node (name varchar(20), lag_seconds bigint)");
+    jdbcTemplate.update("insert into node (name, lag_seconds) values (?, 0)", name);
+    return database;
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.authservice.config.DatabaseConfig.ConnectionPoolConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+
+public class WorkloadRoutingDataSourceTest {
+
+  private SimpleMeterRegistry meterRegistry;
+  private WorkloadRoutingDataSource dataSource;
+  private ExecutorService adminRequests;
+
+  @Before
+  public void setUp() throws Exception {
+    final DataSourceProperties dataSourceProperties = new DataSourceProperties();
+    dataSourceProperties.setUrl("jdbc:h2:mem:workloads;DB_CLOSE_DELAY=-1");
+    dataSourceProperties.setUsername("sa");
+    dataSourceProperties.afterPropertiesSet();
+
+    final ConnectionPoolProperties properties = new ConnectionPoolProperties();
+    properties.getAdmin()
+        .setMaximumPoolSize(1)
+        .setConnectionTimeout(Duration.ofMillis(250));
+    properties.getValidation()
+        .setMaximumPoolSize(1)
+        .setConnectionTimeout(Duration.ofMillis(250));
+
+    meterRegistry = new SimpleMeterRegistry();
+    dataSource = new ConnectionPoolConfig()
+        .workloadRoutingDataSource(dataSourceProperties, properties, meterRegistry);
+    adminRequests = Executors.newFixedThreadPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    adminRequests.shutdownNow();
+    dataSource.close();
+  }
+
+  @Test
+  public void testValidationIsolatedFromSaturatedAdmin() throws Exception {
+    final CountDownLatch adminHolding = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Future<Boolean>> admin = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      admin.add(adminRequests.submit(() -> {
+        // request threads default to the admin workload
+        try (Connection ignored = dataSource.getConnection()) {
+          adminHolding.countDown();
+          release.await();
+          return true;
+        } catch (SQLException e) {
+          // timed out waiting behind the other admin requests
+          return false;
+        }
+      }));
+    }
+    assertThat(adminHolding.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // the admin pool is exhausted...
+    assertThatThrownBy(dataSource::getConnection)
+        .isInstanceOf(SQLException.class);
+
+    // ...while validation still gets a connection from its own pool
+    try (Connection connection = ConnectionWorkload.VALIDATION.run(this::getConnection)) {
+      assertThat(connection.isValid(1)).isTrue();
+    }
+
+    release.countDown();
+    int acquired = 0;
+    for (Future<Boolean> request : admin) {
+      if (request.get(5, TimeUnit.SECONDS)) {
+        acquired++;
+      }
+    }
+    assertThat(acquired).isGreaterThanOrEqualTo(1);
+
+    // the wait for each pool is published separately
+    assertThat(meterRegistry.get("hikaricp.connections.acquire").tag("pool", "validation")
+        .timer().count()).isGreaterThanOrEqualTo(1);
+    assertThat(meterRegistry.get("hikaricp.connections.timeout").tag("pool", "admin")
+        .counter().count()).isGreaterThanOrEqualTo(1);
+    assertThat(meterRegistry.get("hikaricp.connections.timeout").tag("pool", "validation")
+        .counter().count()).isZero();
+  }
+
+  @Test
+  public void testBackgroundUsesItsOwnPool() throws Exception {
+    try (Connection admin = dataSource.getConnection();
+        Connection background = ConnectionWorkload.BACKGROUND.run(this::getConnection)) {
+      assertThat(admin.isValid(1)).isTrue();
+      assertThat(background.isValid(1)).isTrue();
+    }
+
+    assertThat(meterRegistry.get("hikaricp.connections.acquire").tag("pool", "background")
+        .timer().count()).isGreaterThanOrEqualTo(1);
+  }
+
+  private Connection getConnection() {
+    try {
+      return dataSource.getConnection();
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.repositories;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.dialect.MySQL57Dialect;
+import org.hibernate.dialect.MySQL5InnoDBDialect;
+import org.junit.Test;
+
+public class EnvoyTokenBatchRepositoryTest {
+
+  @Test
+  public void testStreamFetchSize_mysql() {
+    // Connector/J only streams rows without useCursorFetch when given this fetch size
+    assertThat(EnvoyTokenBatchRepository.streamFetchSize(new MySQL5InnoDBDialect()))
+        .isEqualTo(Integer.MIN_VALUE);
+    assertThat(EnvoyTokenBatchRepository.streamFetchSize(new MySQL57Dialect()))
+        .isEqualTo(Integer.MIN_VALUE);
+  }
+
+  @Test
+  public void testStreamFetchSize_otherDatabases() {
+    assertThat(EnvoyTokenBatchRepository.streamFetchSize(new H2Dialect()))
+        .isEqualTo(EnvoyTokenBatchRepository.STREAM_FETCH_SIZE);
+  }
+}
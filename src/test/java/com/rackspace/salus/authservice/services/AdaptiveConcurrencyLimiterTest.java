@@ -0,0 +1,94 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+  private static final long FAST = Duration.ofMillis(10).toNanos();
+  private static final long SLOW = Duration.ofSeconds(5).toNanos();
+
+  private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+      2, 1, 4, Duration.ofSeconds(1), 0.5, Duration.ofMillis(50));
+
+  @Test
+  public void testRejectsWhenLimitReached() throws InterruptedException {
+    assertThat(limiter.acquire()).isTrue();
+    assertThat(limiter.acquire()).isTrue();
+
+    assertThat(limiter.acquire()).isFalse();
+    assertThat(limiter.getInFlight()).isEqualTo(2);
+  }
+
+  @Test
+  public void testQueuedUntilReleased() throws Exception {
+    final AdaptiveConcurrencyLimiter patientLimiter = new AdaptiveConcurrencyLimiter(
+        1, 1, 1, Duration.ofSeconds(1), 0.5, Duration.ofSeconds(5));
+    assertThat(patientLimiter.acquire()).isTrue();
+
+    final CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> {
+      try {
+        return patientLimiter.acquire();
+      } catch (InterruptedException e) {
+        return false;
+      }
+    });
+    Thread.sleep(50);
+    assertThat(queued).isNotDone();
+
+    patientLimiter.release(FAST, true);
+    assertThat(queued.get(5, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testIncreasesWhileFullyUsedAndFast() throws InterruptedException {
+    // each round of completions grows the limit by its reciprocal
+    for (int i = 0; i < 3; i++) {
+      limiter.acquire();
+      limiter.acquire();
+      limiter.release(FAST, true);
+      limiter.release(FAST, true);
+    }
+    assertThat(limiter.getLimit()).isEqualTo(3);
+
+    // completions below the limit don't grow it
+    for (int i = 0; i < 10; i++) {
+      limiter.acquire();
+      limiter.release(FAST, true);
+    }
+    assertThat(limiter.getLimit()).isEqualTo(3);
+  }
+
+  @Test
+  public void testDecreasesWhenSlowOrFailed() throws InterruptedException {
+    limiter.acquire();
+    limiter.release(SLOW, true);
+    assertThat(limiter.getLimit()).isEqualTo(1);
+
+    // never below the minimum
+    limiter.acquire();
+    limiter.release(FAST, false);
+    assertThat(limiter.getLimit()).isEqualTo(1);
+    assertThat(limiter.getInFlight()).isZero();
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.CertPoolProperties;
+import com.rackspace.salus.authservice.web.CertResponse;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientCertificatePoolTest {
+
+  private VaultCertificateIssuer issuer;
+  private CertPoolProperties properties;
+  private MeterRegistry meterRegistry;
+  private MutableClock clock;
+  private ClientCertificatePool pool;
+
+  @Before
+  public void setUp() {
+    issuer = mock(VaultCertificateIssuer.class);
+    final AtomicInteger issued = new AtomicInteger();
+    when(issuer.issue(any())).then(invocation -> new CertResponse(
+        "cert-" + issued.incrementAndGet(), "ica", "key"));
+
+    properties = new CertPoolProperties()
+        .setEnabled(true)
+        .setSize(2)
+        .setRefillThreads(1);
+    meterRegistry = new SimpleMeterRegistry();
+    clock = new MutableClock(Instant.parse("2020-01-01T00:00:00Z"));
+    pool = new ClientCertificatePool(issuer, properties, meterRegistry, clock);
+  }
+
+  @After
+  public void tearDown() {
+    pool.stop();
+  }
+
+  @Test
+  public void testDisabled() {
+    properties.setEnabled(false);
+    pool.start();
+
+    assertThat(pool.take("t-1")).isNull();
+
+    verify(issuer, never()).issue(any());
+  }
+
+  @Test
+  public void testTakeAndRefill() throws InterruptedException {
+    pool.start();
+
+    // first request from a tenant only marks it active
+    assertThat(pool.take("t-1")).isNull();
+    awaitDepth(2);
+
+    final CertResponse pooled = pool.take("t-1");
+    assertThat(pooled).isNotNull();
+    assertThat(pooled.getCertificate()).isEqualTo("cert-1");
+
+    // ...and taking one refills the pool
+    verify(issuer, timeout(5000).times(3)).issue("t-1");
+    awaitDepth(2);
+
+    assertThat(meterRegistry.get("clientCertificatePoolTakes").tag("result", "hit")
+        .counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("clientCertificatePoolTakes").tag("result", "miss")
+        .counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("clientCertificatePoolRefill").timer().count()).isEqualTo(3);
+    assertThat(meterRegistry.get("clientCertificatePoolDepth").gauge().value()).isEqualTo(2);
+  }
+
+  @Test
+  public void testStaleCertificatesNotServed() throws InterruptedException {
+    pool.start();
+
+    assertThat(pool.take("t-1")).isNull();
+    awaitDepth(2);
+
+    clock.advance(properties.getMaxAge().plusSeconds(1));
+
+    assertThat(pool.take("t-1")).isNull();
+  }
+
+  @Test
+  public void testInactiveTenantsRemoved() throws InterruptedException {
+    pool.start();
+
+    assertThat(pool.take("t-1")).isNull();
+    awaitDepth(2);
+
+    clock.advance(properties.getActiveWindow().plusSeconds(1));
+    pool.maintain();
+
+    assertThat(pool.depth()).isZero();
+  }
+
+  @Test
+  public void testMaxTenants() {
+    properties.setMaxTenants(1);
+    pool.start();
+
+    pool.take("t-1");
+    pool.take("t-2");
+
+    verify(issuer, timeout(5000).times(2)).issue("t-1");
+    verify(issuer, never()).issue("t-2");
+  }
+
+  private void awaitDepth(int expected) throws InterruptedException {
+    for (int i = 0; i < 500 && pool.depth() < expected; i++) {
+      Thread.sleep(10);
+    }
+    assertThat(pool.depth()).isEqualTo(expected);
+  }
+
+  private static class MutableClock extends Clock {
+
+    private volatile Instant instant;
+
+    MutableClock(Instant instant) {
+      this.instant = instant;
+    }
+
+    void advance(Duration duration) {
+      instant = instant.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+  }
+}
@@ -17,9 +17,11 @@
 package com.rackspace.salus.authservice.services;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -27,9 +29,19 @@ import static org.mockito.Mockito.when;
 import com.rackspace.salus.authservice.config.AuthProperties;
 import com.rackspace.salus.authservice.config.CacheConfig;
 import com.rackspace.salus.authservice.config.CacheProperties;
+import com.rackspace.salus.authservice.config.CertPoolProperties;
+import com.rackspace.salus.authservice.config.PkiLimiterProperties;
+import com.rackspace.salus.authservice.config.RequestExecutionProperties;
 import com.rackspace.salus.authservice.web.CertResponse;
 import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
@@ -39,8 +51,12 @@ import org.springframework.boot.context.properties.EnableConfigurationProperties
 import org.springframework.boot.test.autoconfigure.core.AutoConfigureCache;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.util.StreamUtils;
 import org.springframework.vault.core.VaultPkiOperations;
 import org.springframework.vault.core.VaultTemplate;
 import org.springframework.vault.support.CertificateBundle;
@@ -51,21 +67,28 @@ import org.springframework.vault.support.VaultCertificateResponse;
     properties = {
         // explicitly configure cache to hold more than the one tenant tested and no TTL
         "salus.auth.cache.certs.max-size=10",
-        "salus.auth.service.pki-role-name=testing-role"
+        "salus.auth.service.pki-role-name=testing-role",
+        "salus.auth.service.max-cert-issuances-in-flight=1"
     },
     classes = {
         CacheConfig.class,
-        ClientCertificateService.class
+        ClientCertificateService.class,
+        ClientCertificatePool.class,
+        VaultCertificateIssuer.class
     }
 )
 @AutoConfigureCache(cacheProvider = CacheType.JCACHE)
 @Import({SimpleMeterRegistry.class})
-@EnableConfigurationProperties({AuthProperties.class, CacheProperties.class})
+@EnableConfigurationProperties({AuthProperties.class, CacheProperties.class,
+    CertPoolProperties.class, PkiLimiterProperties.class, RequestExecutionProperties.class})
 public class ClientCertificateServiceTest {
 
   @Autowired
   ClientCertificateService clientCertificateService;
 
+  @Autowired
+  CacheManager cacheManager;
+
   @MockBean
   VaultTemplate vt;
   @Mock
@@ -105,4 +128,121 @@ public class ClientCertificateServiceTest {
       return true;
     }));
   }
+
+  @Test
+  public void testRefreshAhead() {
+    when(vt.opsForPki()).thenReturn(pki);
+    when(pki.issueCertificate(any(), any())).thenReturn(cr);
+    when(cr.getData()).thenReturn(cb);
+    when(cb.getCertificate()).thenReturn("new-cert");
+    when(cb.getIssuingCaCertificate()).thenReturn("ica");
+    when(cb.getPrivateKey()).thenReturn("key");
+
+    final String tenant = String.format("t-%04d", new Random().nextInt(9999));
+    final CertResponse existing = new CertResponse("cert", "ica", "key");
+    final Instant now = Instant.now();
+    // cached entry that is still valid, but within its refresh-ahead window
+    cacheManager.getCache(CacheConfig.CLIENT_CERTS).put(tenant,
+        new IssuedCertificate(existing, now.plusSeconds(60), now.minusSeconds(1)));
+
+    final CertResponse resp = clientCertificateService.getClientCertificate(tenant);
+    // the existing certificate is provided without waiting on Vault...
+    assertThat(resp).isSameAs(existing);
+
+    // ...while new certificates are issued in the background
+    verify(pki, timeout(5000)).issueCertificate(eq("testing-role"), any());
+    verify(cb, timeout(5000)).getPrivateKey();
+
+    final CertResponse refreshedResp = waitForRefresh(tenant, existing);
+    assertThat(refreshedResp.getCertificate())
+        .isEqualTo("-----BEGIN CERTIFICATE-----\nnew-cert\n-----END CERTIFICATE-----");
+  }
+
+  @Test
+  public void testGetClientCertificateAsync_inFlightLimit() throws Exception {
+    final CountDownLatch issuing = new CountDownLatch(1);
+    final CountDownLatch vaultResponds = new CountDownLatch(1);
+    when(vt.opsForPki()).thenReturn(pki);
+    when(pki.issueCertificate(any(), any())).then(invocationOnMock -> {
+      issuing.countDown();
+      vaultResponds.await(5, TimeUnit.SECONDS);
+      return cr;
+    });
+    when(cr.getData()).thenReturn(cb);
+    when(cb.getCertificate()).thenReturn("cert");
+    when(cb.getIssuingCaCertificate()).thenReturn("ica");
+    when(cb.getPrivateKey()).thenReturn("key");
+
+    final String tenant = String.format("t-%04d", new Random().nextInt(9999));
+
+    // returns while Vault is still issuing
+    final CompletableFuture<CertResponse> first =
+        clientCertificateService.getClientCertificateAsync(tenant);
+    assertThat(issuing.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(first).isNotDone();
+
+    // the one permitted issuance is in flight
+    final CompletableFuture<CertResponse> rejected =
+        clientCertificateService.getClientCertificateAsync(tenant + "-other");
+    assertThatThrownBy(rejected::join)
+        .hasCauseInstanceOf(CertificateUnavailableException.class)
+        .satisfies(e -> assertThat(
+            ((CertificateUnavailableException) e.getCause()).getRetryAfter())
+            .isEqualTo(Duration.ofSeconds(5)));
+
+    vaultResponds.countDown();
+    assertThat(first.get(5, TimeUnit.SECONDS).getCertificate())
+        .isEqualTo("-----BEGIN CERTIFICATE-----\ncert\n-----END CERTIFICATE-----");
+
+    // cached certificates are provided immediately
+    assertThat(clientCertificateService.getClientCertificateAsync(tenant)).isDone();
+    verify(pki, times(1)).issueCertificate(any(), any());
+  }
+
+  @Test
+  public void testExpiryFromCertificateValidity() throws IOException {
+    final String certificate = StreamUtils.copyToString(
+        new ClassPathResource("certs/client-cert.pem").getInputStream(), StandardCharsets.UTF_8);
+    final Instant now = Instant.parse("2020-01-01T00:00:00Z");
+    final Instant notAfter = Instant.parse("2036-10-15T08:57:58Z");
+
+    final IssuedCertificate issued = clientCertificateService.toIssuedCertificate(
+        new CertResponse(certificate, "ica", "key"), now);
+
+    assertThat(issued.getExpiresAt()).isEqualTo(notAfter.minus(Duration.ofMinutes(5)));
+    assertThat(issued.getRefreshAt()).isEqualTo(notAfter.minus(Duration.ofMinutes(7)));
+
+    // and when the certificate has nearly expired
+    final IssuedCertificate nearlyExpired = clientCertificateService.toIssuedCertificate(
+        new CertResponse(certificate, "ica", "key"), notAfter.minusSeconds(60));
+    assertThat(nearlyExpired.getExpiresAt()).isEqualTo(notAfter.minusSeconds(30));
+    assertThat(nearlyExpired.getRefreshAt()).isEqualTo(notAfter.minusSeconds(45));
+  }
+
+  @Test
+  public void testExpiryFallbackTtl() {
+    final Instant now = Instant.parse("2020-01-01T00:00:00Z");
+
+    final IssuedCertificate issued = clientCertificateService.toIssuedCertificate(
+        new CertResponse("not a certificate", "ica", "key"), now);
+
+    assertThat(issued.getExpiresAt()).isEqualTo(now.plus(Duration.ofSeconds(600)));
+    assertThat(issued.getRefreshAt()).isEqualTo(now.plus(Duration.ofSeconds(480)));
+  }
+
+  private CertResponse waitForRefresh(String tenant, CertResponse existing) {
+    final Cache cache = cacheManager.getCache(CacheConfig.CLIENT_CERTS);
+    for (int i = 0; i < 500; i++) {
+      final IssuedCertificate cached = cache.get(tenant, IssuedCertificate.class);
+      if (cached != null && cached.getCertResponse() != existing) {
+        return cached.getCertResponse();
+      }
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    throw new AssertionError("Client certificates were not refreshed");
+  }
 }
\ No newline at end of file
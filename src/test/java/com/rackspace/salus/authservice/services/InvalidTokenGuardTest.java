@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.InvalidTokenProperties;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.function.Consumer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+public class InvalidTokenGuardTest {
+
+  private EnvoyTokenBatchRepository batchRepository;
+  private MeterRegistry meterRegistry;
+  private InvalidTokenProperties properties;
+  private InvalidTokenGuard guard;
+
+  @Before
+  public void setUp() {
+    batchRepository = mock(EnvoyTokenBatchRepository.class);
+    meterRegistry = new SimpleMeterRegistry();
+    properties = new InvalidTokenProperties()
+        .setEnabled(true)
+        .setBloomFilterEnabled(true)
+        .setExpectedTokens(1000);
+    guard = new InvalidTokenGuard(
+        new ConcurrentMapCacheManager(CacheConfig.INVALID_TOKENS),
+        batchRepository, new TokenDigester(new TokenStorageProperties()), properties,
+        meterRegistry);
+  }
+
+  @Test
+  public void testNothingKnownBeforeBuild() {
+    assertThat(guard.isKnownInvalid("anything")).isFalse();
+  }
+
+  @Test
+  public void testNegativeCache() {
+    guard.recordInvalid("bad");
+
+    assertThat(guard.isKnownInvalid("bad")).isTrue();
+    assertThat(guard.isKnownInvalid("other")).isFalse();
+    assertThat(meterRegistry.get("invalidTokenRejections").tag("source", "negativeCache")
+        .counter().count()).isEqualTo(1);
+
+    // an allocation of that value must be accepted right away
+    guard.recordAllocated("bad");
+    assertThat(guard.isKnownInvalid("bad")).isFalse();
+  }
+
+  @Test
+  public void testBloomFilter() {
+    givenAllocatedTokens(List.of("token-1", "token-2"));
+
+    guard.rebuild();
+
+    assertThat(guard.isKnownInvalid("token-1")).isFalse();
+    assertThat(guard.isKnownInvalid("token-2")).isFalse();
+    assertThat(guard.isKnownInvalid("garbage")).isTrue();
+    assertThat(meterRegistry.get("invalidTokenRejections").tag("source", "bloomFilter")
+        .counter().count()).isEqualTo(1);
+
+    guard.recordAllocated("token-3");
+    assertThat(guard.isKnownInvalid("token-3")).isFalse();
+  }
+
+  @Test
+  public void testRefreshAddsRemotelyAllocated() {
+    givenAllocatedTokens(List.of("token-1"));
+    guard.rebuild();
+
+    doAnswer(invocation -> {
+      final Consumer<String> consumer = invocation.getArgument(1);
+      consumer.accept("token-2");
+      return null;
+    }).when(batchRepository).forEachTokenValue(notNull(), any());
+
+    assertThat(guard.isKnownInvalid("token-2")).isTrue();
+
+    guard.refresh();
+
+    assertThat(guard.isKnownInvalid("token-1")).isFalse();
+    assertThat(guard.isKnownInvalid("token-2")).isFalse();
+  }
+
+  @Test
+  public void testFilterDisregardedAfterFailedRefresh() {
+    givenAllocatedTokens(List.of("token-1"));
+    guard.rebuild();
+
+    doThrow(new IllegalStateException("fake"))
+        .when(batchRepository).forEachTokenValue(notNull(), any());
+    guard.runSafely(guard::refresh);
+
+    // might have been allocated by another instance since the last successful refresh
+    assertThat(guard.isKnownInvalid("garbage")).isFalse();
+
+    guard.rebuild();
+    assertThat(guard.isKnownInvalid("garbage")).isTrue();
+  }
+
+  @Test
+  public void testBloomFilterDisabled() {
+    properties.setBloomFilterEnabled(false);
+    givenAllocatedTokens(List.of("token-1"));
+    guard.rebuild();
+    guard.recordInvalid("bad");
+
+    // the negative cache still applies without the bloom filter
+    assertThat(guard.isKnownInvalid("bad")).isTrue();
+    assertThat(guard.isKnownInvalid("garbage")).isFalse();
+  }
+
+  @Test
+  public void testDisabled() {
+    properties.setEnabled(false);
+    givenAllocatedTokens(List.of("token-1"));
+    guard.rebuild();
+    guard.recordInvalid("bad");
+
+    assertThat(guard.isKnownInvalid("bad")).isFalse();
+    assertThat(guard.isKnownInvalid("garbage")).isFalse();
+  }
+
+  private void givenAllocatedTokens(List<String> tokenValues) {
+    doAnswer(invocation -> {
+      final Consumer<String> consumer = invocation.getArgument(1);
+      tokenValues.forEach(consumer);
+      return null;
+    }).when(batchRepository).forEachTokenValue(isNull(), any());
+  }
+}
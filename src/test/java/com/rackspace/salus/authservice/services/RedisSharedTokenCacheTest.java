@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.CacheProperties;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+public class RedisSharedTokenCacheTest {
+
+  private StringRedisTemplate redisTemplate;
+  private ValueOperations<String, String> valueOperations;
+  private RedisSharedTokenCache sharedTokenCache;
+  private final List<Collection<String>> invalidations = new ArrayList<>();
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+    redisTemplate = mock(StringRedisTemplate.class);
+    valueOperations = mock(ValueOperations.class);
+    when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+
+    sharedTokenCache = new RedisSharedTokenCache(redisTemplate,
+        mock(RedisMessageListenerContainer.class), new CacheProperties.SharedTier());
+    sharedTokenCache.addInvalidationListener(invalidations::add);
+  }
+
+  @Test
+  public void testPut() {
+    sharedTokenCache.put("token-1", "t-1");
+
+    // never overwrites the tombstone of a concurrently deleted token
+    verify(valueOperations).setIfAbsent("salus:auth:token:token-1", "t-1", 600_000,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void testGet_tombstone() {
+    when(valueOperations.get("salus:auth:token:token-1"))
+        .thenReturn(RedisSharedTokenCache.TOMBSTONE);
+
+    assertThat(sharedTokenCache.get("token-1")).isNull();
+  }
+
+  @Test
+  public void testGet_redisUnavailable() {
+    when(valueOperations.get(any()))
+        .thenThrow(new RedisConnectionFailureException("down"));
+
+    assertThat(sharedTokenCache.get("token-1")).isNull();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testInvalidate() {
+    sharedTokenCache.invalidate(List.of("token-1", "token-2"));
+
+    final ArgumentCaptor<RedisCallback<Object>> callback =
+        ArgumentCaptor.forClass(RedisCallback.class);
+    verify(redisTemplate).executePipelined(callback.capture());
+    final RedisConnection connection = mock(RedisConnection.class);
+    final RedisStringCommands stringCommands = mock(RedisStringCommands.class);
+    when(connection.stringCommands()).thenReturn(stringCommands);
+    callback.getValue().doInRedis(connection);
+    for (String key : List.of("salus:auth:token:token-1", "salus:auth:token:token-2")) {
+      verify(stringCommands).set(
+          aryEq(key.getBytes(StandardCharsets.UTF_8)), aryEq(new byte[0]),
+          argThat(expiration -> expiration.getExpirationTimeInMilliseconds() == 60_000),
+          eq(SetOption.upsert()));
+    }
+
+    verify(redisTemplate).convertAndSend("salus:auth:token-invalidation", "token-1\ntoken-2");
+    // this instance is notified via its own subscription
+    assertThat(invalidations).isEmpty();
+  }
+
+  @Test
+  public void testInvalidate_redisUnavailable() {
+    doThrow(new RedisConnectionFailureException("down"))
+        .when(redisTemplate).convertAndSend(eq("salus:auth:token-invalidation"), any());
+
+    sharedTokenCache.invalidate(List.of("token-1"));
+
+    assertThat(invalidations).containsExactly(List.of("token-1"));
+  }
+
+  @Test
+  public void testOnMessage() {
+    sharedTokenCache.onMessage(new DefaultMessage(
+        "salus:auth:token-invalidation".getBytes(StandardCharsets.UTF_8),
+        "token-1\ntoken-2".getBytes(StandardCharsets.UTF_8)), null);
+
+    assertThat(invalidations).containsExactly(List.of("token-1", "token-2"));
+  }
+}
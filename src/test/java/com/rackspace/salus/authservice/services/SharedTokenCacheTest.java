@@ -0,0 +1,183 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.ReadReplicaProperties;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.telemetry.entities.EnvoyToken;
+import com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+/**
+ * Simulates two instances of the service, each with their own near-cache, sharing an embedded
+ * stand-in for the shared tier.
+ */
+public class SharedTokenCacheTest {
+
+  private EnvoyTokenRepository repository;
+  private EnvoyTokenBatchRepository batchRepository;
+  private EmbeddedSharedTokenCache sharedTier;
+  private CacheManager nearCacheA;
+  private CacheManager nearCacheB;
+  private TokenService nodeA;
+  private TokenService nodeB;
+
+  private final EnvoyToken token = new EnvoyToken()
+      .setId(UUID.randomUUID())
+      .setToken("token-1")
+      .setTenantId("t-1");
+
+  @Before
+  public void setUp() {
+    repository = mock(EnvoyTokenRepository.class);
+    batchRepository = mock(EnvoyTokenBatchRepository.class);
+    sharedTier = new EmbeddedSharedTokenCache();
+    nearCacheA = new ConcurrentMapCacheManager(CacheConfig.TOKEN_VALIDATION);
+    nearCacheB = new ConcurrentMapCacheManager(CacheConfig.TOKEN_VALIDATION);
+    nodeA = createNode(nearCacheA);
+    nodeB = createNode(nearCacheB);
+
+    when(repository.findByToken(token.getToken()))
+        .thenReturn(Optional.of(token));
+    when(repository.findByIdAndTenantId(token.getId(), token.getTenantId()))
+        .thenReturn(Optional.of(token));
+    when(batchRepository.findTokenValuesOfTenant(any(), anyInt()))
+        .thenReturn(Map.of(token.getId(), token.getToken()), Map.of());
+  }
+
+  @Test
+  public void testValidate_populatesSharedTier() {
+    assertThat(nodeA.validate(token.getToken())).isEqualTo("t-1");
+    assertThat(nodeB.validate(token.getToken())).isEqualTo("t-1");
+
+    // node B was satisfied by the shared tier
+    verify(repository, times(1)).findByToken(token.getToken());
+    assertThat(nearCacheB.getCache(CacheConfig.TOKEN_VALIDATION).get(token.getToken()))
+        .isNotNull();
+  }
+
+  @Test
+  public void testDelete_invalidatesOtherNodes() {
+    nodeA.validate(token.getToken());
+    nodeB.validate(token.getToken());
+
+    nodeA.delete(token.getTenantId(), token.getId());
+
+    assertThat(sharedTier.entries).isEmpty();
+    assertThat(nearCacheA.getCache(CacheConfig.TOKEN_VALIDATION).get(token.getToken()))
+        .isNull();
+    assertThat(nearCacheB.getCache(CacheConfig.TOKEN_VALIDATION).get(token.getToken()))
+        .isNull();
+
+    when(repository.findByToken(token.getToken()))
+        .thenReturn(Optional.empty());
+    assertThat(nodeB.validate(token.getToken())).isNull();
+  }
+
+  @Test
+  public void testDelete_duringValidationOfOtherNode() {
+    // node A deletes the token after node B has looked it up, but before B caches it
+    when(repository.findByToken(token.getToken()))
+        .then(invocation -> {
+          nodeA.delete(token.getTenantId(), token.getId());
+          return Optional.of(token);
+        })
+        .thenReturn(Optional.empty());
+
+    nodeB.validate(token.getToken());
+
+    assertThat(sharedTier.get(token.getToken())).isNull();
+    assertThat(nearCacheB.getCache(CacheConfig.TOKEN_VALIDATION).get(token.getToken()))
+        .isNull();
+    assertThat(nodeA.validate(token.getToken())).isNull();
+  }
+
+  @Test
+  public void testDeleteAllForTenant_invalidatesOtherNodes() {
+    nodeA.validate(token.getToken());
+    nodeB.validate(token.getToken());
+
+    nodeB.deleteAllForTenant(token.getTenantId());
+
+    assertThat(sharedTier.entries).isEmpty();
+    assertThat(nearCacheA.getCache(CacheConfig.TOKEN_VALIDATION).get(token.getToken()))
+        .isNull();
+  }
+
+  private TokenService createNode(CacheManager nearCache) {
+    return new TokenService(nearCache, new SimpleMeterRegistry(), repository,
+        batchRepository, new AuthProperties(), mock(TokenGenerator.class),
+        new TokenDigester(new TokenStorageProperties()), mock(SignedTokenCodec.class),
+        mock(SignedTokenValidator.class), mock(TokenLastUsedWriter.class), mock(InvalidTokenGuard.class), sharedTier,
+        mock(TokenRevocationLog.class), new ReadReplicaProperties());
+  }
+
+  static class EmbeddedSharedTokenCache implements SharedTokenCache {
+
+    final Map<String, String> entries = new ConcurrentHashMap<>();
+    final Set<String> tombstones = ConcurrentHashMap.newKeySet();
+    final List<Consumer<Collection<String>>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public String get(String tokenValue) {
+      return entries.get(tokenValue);
+    }
+
+    @Override
+    public void put(String tokenValue, String tenantId) {
+      if (!tombstones.contains(tokenValue)) {
+        entries.putIfAbsent(tokenValue, tenantId);
+      }
+    }
+
+    @Override
+    public void invalidate(Collection<String> tokenValues) {
+      tombstones.addAll(tokenValues);
+      entries.keySet().removeAll(tokenValues);
+      listeners.forEach(listener -> listener.accept(tokenValues));
+    }
+
+    @Override
+    public void addInvalidationListener(Consumer<Collection<String>> listener) {
+      listeners.add(listener);
+    }
+  }
+}
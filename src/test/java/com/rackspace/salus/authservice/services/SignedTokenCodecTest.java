@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.SignedTokenProperties;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class SignedTokenCodecTest {
+
+  private static final String KEY_1 = "c2VjcmV0LWtleS0xLWZvci10ZXN0aW5nLXB1cnBvc2Vz";
+  private static final String KEY_2 = "c2VjcmV0LWtleS0yLWZvci10ZXN0aW5nLXB1cnBvc2Vz";
+
+  @Test
+  public void testCreateAndVerify() {
+    final SignedTokenCodec codec = codec(KEY_1);
+
+    final String token = codec.create("tenant-1");
+
+    assertThat(SignedTokenCodec.isSigned(token)).isTrue();
+    assertThat(codec.verify(token)).isEqualTo("tenant-1");
+    // different nonce each time
+    assertThat(codec.create("tenant-1")).isNotEqualTo(token);
+  }
+
+  @Test
+  public void testVerify_tampered() {
+    final SignedTokenCodec codec = codec(KEY_1);
+    final String token = codec.create("tenant-1");
+    final String otherToken = codec.create("tenant-2");
+
+    // swap in the other tenant, keeping the original signature
+    final String[] parts = token.split("\\.");
+    final String[] otherParts = otherToken.split("\\.");
+    assertThat(codec.verify(
+        String.join(".", parts[0], otherParts[1], parts[2], parts[3]))).isNull();
+
+    assertThat(codec.verify(token.substring(0, token.length() - 2))).isNull();
+    assertThat(codec.verify(token + "A")).isNull();
+  }
+
+  @Test
+  public void testVerify_malformed() {
+    final SignedTokenCodec codec = codec(KEY_1);
+
+    assertThat(codec.verify("s1.")).isNull();
+    assertThat(codec.verify("s1.abc")).isNull();
+    assertThat(codec.verify("s1.abc.def")).isNull();
+    assertThat(codec.verify("s1.a$c.def.ghi")).isNull();
+    assertThat(codec.verify("s1...")).isNull();
+  }
+
+  @Test
+  public void testVerify_opaqueToken() {
+    final SignedTokenCodec codec = codec(KEY_1);
+    final String opaqueToken = new TokenGenerator(new Random(0), new AuthProperties()).generate();
+
+    assertThat(SignedTokenCodec.isSigned(opaqueToken)).isFalse();
+    assertThat(codec.verify(opaqueToken)).isNull();
+  }
+
+  @Test
+  public void testKeyRotation() {
+    final String token = codec(KEY_1).create("tenant-1");
+
+    assertThat(codec(KEY_2, KEY_1).verify(token)).isEqualTo("tenant-1");
+    assertThat(codec(KEY_2).verify(token)).isNull();
+  }
+
+  @Test
+  public void testEnabledRequiresKey() {
+    assertThatThrownBy(() ->
+        new SignedTokenCodec(new Random(0), new SignedTokenProperties().setEnabled(true)))
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  private static SignedTokenCodec codec(String... keys) {
+    return new SignedTokenCodec(new Random(0), new SignedTokenProperties()
+        .setEnabled(true)
+        .setKeys(List.of(keys)));
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.SignedTokenProperties;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SignedTokenValidatorTest {
+
+  private SignedTokenCodec codec;
+  private EnvoyTokenBatchRepository batchRepository;
+  private TokenLastUsedWriter lastUsedWriter;
+  private TokenRevocationLog revocationLog;
+  private SignedTokenValidator validator;
+
+  @Before
+  public void setUp() {
+    final SignedTokenProperties properties = new SignedTokenProperties()
+        .setEnabled(true)
+        .setKeys(List.of("c2VjcmV0LWtleS0xLWZvci10ZXN0aW5nLXB1cnBvc2Vz"));
+    codec = new SignedTokenCodec(new Random(0), properties);
+    batchRepository = mock(EnvoyTokenBatchRepository.class);
+    lastUsedWriter = mock(TokenLastUsedWriter.class);
+    revocationLog = mock(TokenRevocationLog.class);
+    when(revocationLog.isEnabled()).thenReturn(true);
+    when(revocationLog.isCaughtUp()).thenReturn(true);
+    final TokenDigester tokenDigester = new TokenDigester(new TokenStorageProperties());
+
+    validator = new SignedTokenValidator(codec, tokenDigester, batchRepository, lastUsedWriter,
+        revocationLog, properties, new SimpleMeterRegistry());
+  }
+
+  @Test
+  public void testValidate() {
+    final String token = codec.create("t-1");
+
+    assertThat(validator.validate(token)).isEqualTo("t-1");
+
+    // no database lookup while validating
+    verifyZeroInteractions(batchRepository);
+  }
+
+  @Test
+  public void testValidate_badSignature() {
+    final String token = codec.create("t-1");
+
+    assertThat(validator.validate(token.substring(0, token.length() - 1))).isNull();
+  }
+
+  @Test
+  public void testValidate_revocationsNotLoaded() {
+    final String token = codec.create("t-1");
+    when(revocationLog.isCaughtUp()).thenReturn(false);
+
+    // may have been revoked prior to startup
+    assertThat(validator.validate(token)).isNull();
+  }
+
+  @Test
+  public void testStart_requiresRevocationLog() {
+    when(revocationLog.isEnabled()).thenReturn(false);
+
+    assertThatThrownBy(validator::start)
+        .isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testRevoke() {
+    final String token = codec.create("t-1");
+
+    validator.revoke(List.of(token));
+
+    assertThat(validator.validate(token)).isNull();
+  }
+
+  @Test
+  public void testRevoke_opaqueTokensDisregarded() {
+    validator.revoke(List.of("opaque-token-1", "sha256:opaque-token-2"));
+
+    // only revocations of signed tokens are retained
+    assertThat(validator.revokedCount()).isZero();
+  }
+
+  @Test
+  public void testRecheck() {
+    final UUID tokenId = UUID.randomUUID();
+    final String allocated = codec.create("t-1");
+    final String deleted = codec.create("t-1");
+    when(batchRepository.findIdsByTokenValues(any()))
+        .thenReturn(Map.of(allocated, tokenId));
+
+    validator.validate(allocated);
+    validator.validate(deleted);
+    validator.recheck();
+
+    verify(batchRepository).findIdsByTokenValues(Set.of(allocated, deleted));
+    verify(lastUsedWriter).record(tokenId);
+    assertThat(validator.validate(allocated)).isEqualTo("t-1");
+    assertThat(validator.validate(deleted)).isNull();
+  }
+
+  @Test
+  public void testRecheck_nothingUsed() {
+    validator.recheck();
+
+    verify(batchRepository, never()).findIdsByTokenValues(any());
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  private Counter coalescedCounter;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    coalescedCounter = new SimpleMeterRegistry().counter("coalesced");
+    executor = Executors.newFixedThreadPool(5);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testConcurrentCallsShareResult() throws Exception {
+    final SingleFlight<String, Object> singleFlight =
+        new SingleFlight<>(Duration.ofSeconds(5), coalescedCounter);
+    final AtomicInteger invocations = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Future<Object> leader = executor.submit(() -> singleFlight.execute("t-1", () -> {
+      invocations.incrementAndGet();
+      started.countDown();
+      await(release);
+      return new Object();
+    }));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    final List<Future<Object>> followers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      followers.add(executor.submit(() -> singleFlight.execute("t-1", () -> {
+        invocations.incrementAndGet();
+        return new Object();
+      })));
+    }
+    while (coalescedCounter.count() < 4) {
+      Thread.sleep(10);
+    }
+    release.countDown();
+
+    final Object result = leader.get(5, TimeUnit.SECONDS);
+    for (Future<Object> follower : followers) {
+      assertThat(follower.get(5, TimeUnit.SECONDS)).isSameAs(result);
+    }
+    assertThat(invocations.get()).isEqualTo(1);
+    assertThat(singleFlight.inFlightCount()).isZero();
+  }
+
+  @Test
+  public void testDistinctKeysNotCoalesced() throws Exception {
+    final SingleFlight<String, String> singleFlight =
+        new SingleFlight<>(Duration.ofSeconds(5), coalescedCounter);
+
+    assertThat(singleFlight.execute("t-1", () -> "one")).isEqualTo("one");
+    assertThat(singleFlight.execute("t-2", () -> "two")).isEqualTo("two");
+    // sequential calls for the same key are not coalesced either
+    assertThat(singleFlight.execute("t-1", () -> "three")).isEqualTo("three");
+
+    assertThat(coalescedCounter.count()).isZero();
+  }
+
+  @Test
+  public void testFailureSharedWithFollowers() throws Exception {
+    final SingleFlight<String, String> singleFlight =
+        new SingleFlight<>(Duration.ofSeconds(5), coalescedCounter);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Future<String> leader = executor.submit(() -> singleFlight.execute("t-1", () -> {
+      started.countDown();
+      await(release);
+      throw new IllegalStateException("fake");
+    }));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    final Future<String> follower = executor.submit(() -> {
+      try {
+        return singleFlight.execute("t-1", () -> "unused");
+      } catch (IllegalStateException e) {
+        return e.getMessage();
+      }
+    });
+    while (coalescedCounter.count() < 1) {
+      Thread.sleep(10);
+    }
+    release.countDown();
+
+    assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("fake");
+    assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  public void testFollowerTimeout() throws Exception {
+    final SingleFlight<String, String> singleFlight =
+        new SingleFlight<>(Duration.ofMillis(50), coalescedCounter);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    executor.submit(() -> singleFlight.execute("t-1", () -> {
+      started.countDown();
+      await(release);
+      return "slow";
+    }));
+    assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+    try {
+      assertThatThrownBy(() -> singleFlight.execute("t-1", () -> "unused"))
+          .isInstanceOf(TimeoutException.class);
+    } finally {
+      release.countDown();
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
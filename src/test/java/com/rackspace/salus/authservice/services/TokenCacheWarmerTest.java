@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.CacheProperties;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.function.BiConsumer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+public class TokenCacheWarmerTest {
+
+  private static final Instant NOW = Instant.parse("2020-06-01T12:00:00Z");
+
+  private EnvoyTokenBatchRepository batchRepository;
+  private CacheProperties properties;
+  private Cache tokenCache;
+  private SimpleMeterRegistry meterRegistry;
+  private TokenCacheWarmer warmer;
+
+  @Before
+  public void setUp() {
+    batchRepository = mock(EnvoyTokenBatchRepository.class);
+    properties = new CacheProperties();
+    properties.getTokenValidationWarmup()
+        .setEnabled(true)
+        .setWindow(Duration.ofMinutes(30))
+        .setMaxEntries(100);
+    meterRegistry = new SimpleMeterRegistry();
+
+    final CacheManager cacheManager = new ConcurrentMapCacheManager(CacheConfig.TOKEN_VALIDATION);
+    tokenCache = cacheManager.getCache(CacheConfig.TOKEN_VALIDATION);
+    warmer = new TokenCacheWarmer(cacheManager, batchRepository,
+        new TokenDigester(new TokenStorageProperties()), properties, meterRegistry,
+        Clock.fixed(NOW, ZoneOffset.UTC));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testStart_preloadsRecentlyUsed() {
+    doAnswer(invocationOnMock -> {
+      final BiConsumer<String, String> consumer = invocationOnMock.getArgument(2);
+      consumer.accept("token-1", "t-1");
+      consumer.accept("token-2", "t-2");
+      return null;
+    }).when(batchRepository).forEachRecentlyUsed(any(), anyInt(), any());
+
+    warmer.start();
+
+    verify(batchRepository).forEachRecentlyUsed(
+        eq(NOW.minus(Duration.ofMinutes(30))), eq(100), any());
+    assertThat(tokenCache.get("token-1", String.class)).isEqualTo("t-1");
+    assertThat(tokenCache.get("token-2", String.class)).isEqualTo("t-2");
+    assertThat(meterRegistry.get("tokenCacheWarmed").counter().count()).isEqualTo(2);
+    assertThat(meterRegistry.get("tokenCacheWarmup").timer().count()).isEqualTo(1);
+    assertThat(warmer.isRunning()).isTrue();
+  }
+
+  @Test
+  public void testWarmup_limitedByCacheSize() {
+    properties.getTokenValidation().setMaxSize(50);
+
+    warmer.warmup();
+
+    verify(batchRepository).forEachRecentlyUsed(any(), eq(50), any());
+  }
+
+  @Test
+  public void testStart_disabled() {
+    properties.getTokenValidationWarmup().setEnabled(false);
+
+    warmer.start();
+
+    verifyZeroInteractions(batchRepository);
+    assertThat(warmer.isRunning()).isTrue();
+  }
+
+  @Test
+  public void testStart_failureDoesNotPreventStartup() {
+    doThrow(new IllegalStateException("db down"))
+        .when(batchRepository).forEachRecentlyUsed(any(), anyInt(), any());
+
+    warmer.start();
+
+    assertThat(warmer.isRunning()).isTrue();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.notNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class TokenDigestBackfillTest {
+
+  private EnvoyTokenBatchRepository batchRepository;
+  private TokenDigester tokenDigester;
+  private SimpleMeterRegistry meterRegistry;
+  private TokenDigestBackfill backfill;
+
+  @Before
+  public void setUp() {
+    batchRepository = mock(EnvoyTokenBatchRepository.class);
+    final TokenStorageProperties properties = new TokenStorageProperties()
+        .setHashed(true)
+        .setBackfillBatchSize(2);
+    tokenDigester = new TokenDigester(properties);
+    meterRegistry = new SimpleMeterRegistry();
+    backfill = new TokenDigestBackfill(batchRepository, tokenDigester, properties, meterRegistry);
+  }
+
+  @Test
+  public void testBackfill() {
+    final UUID id1 = UUID.randomUUID();
+    final UUID id2 = UUID.randomUUID();
+    final UUID id3 = UUID.randomUUID();
+    when(batchRepository.findTokenValuesWithoutPrefix(any(), any(), anyInt()))
+        .thenReturn(
+            Map.of(id1, "token-1", id2, "token-2"),
+            Map.of(id3, "token-3"),
+            Map.of()
+        );
+
+    assertThat(backfill.backfill()).isEqualTo(3);
+
+    verify(batchRepository).replaceTokenValues(Map.of(
+        id1, tokenDigester.digest("token-1"),
+        id2, tokenDigester.digest("token-2")
+    ));
+    verify(batchRepository).replaceTokenValues(Map.of(
+        id3, tokenDigester.digest("token-3")
+    ));
+    verify(batchRepository, times(3))
+        .findTokenValuesWithoutPrefix(eq("sha256:"), isNull(), eq(2));
+    assertThat(meterRegistry.get("tokenDigestsBackfilled").counter().count()).isEqualTo(3);
+  }
+
+  @Test
+  public void testBackfill_nothingToConvert() {
+    when(batchRepository.findTokenValuesWithoutPrefix(any(), any(), anyInt()))
+        .thenReturn(Map.of());
+
+    assertThat(backfill.backfill()).isEqualTo(0);
+
+    // instances without hashed storage may still store plaintext tokens, such as during a
+    // rolling deployment
+    assertThat(tokenDigester.mayBeStoredAsPlaintext()).isTrue();
+    verify(batchRepository, never()).replaceTokenValues(any());
+  }
+
+  @Test
+  public void testBackfill_laterPassesOnlyRecentTokens() {
+    final UUID id1 = UUID.randomUUID();
+    when(batchRepository.findTokenValuesWithoutPrefix(any(), any(), anyInt()))
+        .thenReturn(Map.of());
+    final Instant firstPass = Instant.now();
+    backfill.backfill();
+
+    when(batchRepository.findTokenValuesWithoutPrefix(any(), notNull(), anyInt()))
+        .thenReturn(Map.of(id1, "token-1"), Map.of());
+    assertThat(backfill.backfill()).isEqualTo(1);
+
+    final ArgumentCaptor<Instant> createdSince = ArgumentCaptor.forClass(Instant.class);
+    verify(batchRepository, times(3))
+        .findTokenValuesWithoutPrefix(eq("sha256:"), createdSince.capture(), eq(2));
+    // the first pass examined every token
+    assertThat(createdSince.getAllValues().get(0)).isNull();
+    // and the second only those since the first started, less the overlap
+    assertThat(createdSince.getAllValues().get(2))
+        .isBefore(firstPass.minusSeconds(59))
+        .isAfter(firstPass.minusSeconds(61));
+  }
+
+  @Test
+  public void testStart_notHashed() {
+    final TokenStorageProperties properties = new TokenStorageProperties();
+    final TokenDigestBackfill notHashed = new TokenDigestBackfill(batchRepository,
+        new TokenDigester(properties), properties, meterRegistry);
+
+    notHashed.start();
+    notHashed.stop();
+
+    verify(batchRepository, never()).findTokenValuesWithoutPrefix(any(), any(), anyInt());
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import org.junit.Test;
+
+public class TokenDigesterTest {
+
+  @Test
+  public void testKeyOf_plaintext() {
+    final TokenDigester tokenDigester = new TokenDigester(new TokenStorageProperties());
+
+    assertThat(tokenDigester.keyOf("token-1")).isEqualTo("token-1");
+    assertThat(tokenDigester.keyOfStored("token-1")).isEqualTo("token-1");
+    assertThat(tokenDigester.mayBeStoredAsPlaintext()).isFalse();
+  }
+
+  @Test
+  public void testKeyOf_hashed() {
+    final TokenDigester tokenDigester = new TokenDigester(
+        new TokenStorageProperties().setHashed(true));
+
+    final String key = tokenDigester.keyOf("token-1");
+    // SHA-256 of "token-1", base64 url encoded without padding
+    assertThat(key).isEqualTo("sha256:PwiqzhIu4jaEMsHKI6BJvGQLr78A_fM6UkKfOLoS2_k");
+    assertThat(key).hasSize(50);
+    assertThat(tokenDigester.keyOf("token-1")).isEqualTo(key);
+    assertThat(tokenDigester.keyOf("token-2")).isNotEqualTo(key);
+
+    // stored values are only digested if not yet converted
+    assertThat(tokenDigester.keyOfStored("token-1")).isEqualTo(key);
+    assertThat(tokenDigester.keyOfStored(key)).isEqualTo(key);
+  }
+
+  @Test
+  public void testKeyOf_signed() {
+    final TokenDigester hashed = new TokenDigester(new TokenStorageProperties().setHashed(true));
+    final TokenDigester plaintext = new TokenDigester(new TokenStorageProperties());
+
+    assertThat(hashed.keyOf("s1.dC0x.bm9uY2U.c2ln")).startsWith("sha256:s1.");
+    assertThat(TokenDigester.isSignedKey(hashed.keyOf("s1.dC0x.bm9uY2U.c2ln"))).isTrue();
+    assertThat(TokenDigester.isSignedKey(plaintext.keyOf("s1.dC0x.bm9uY2U.c2ln"))).isTrue();
+
+    assertThat(TokenDigester.isSignedKey(hashed.keyOf("token-1"))).isFalse();
+    assertThat(TokenDigester.isSignedKey(plaintext.keyOf("token-1"))).isFalse();
+  }
+
+  @Test
+  public void testMayBeStoredAsPlaintext() {
+    final TokenStorageProperties properties = new TokenStorageProperties().setHashed(true);
+    final TokenDigester tokenDigester = new TokenDigester(properties);
+
+    assertThat(tokenDigester.mayBeStoredAsPlaintext()).isTrue();
+
+    properties.setPlaintextLookup(false);
+    assertThat(tokenDigester.mayBeStoredAsPlaintext()).isFalse();
+  }
+}
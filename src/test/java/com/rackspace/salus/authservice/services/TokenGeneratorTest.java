@@ -19,7 +19,16 @@ package com.rackspace.salus.authservice.services;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.AuthProperties.TokenEntropy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.Test;
 
 public class TokenGeneratorTest {
@@ -37,4 +46,78 @@ public class TokenGeneratorTest {
 
     assertThat(token2).isNotEqualTo(token1);
   }
+
+  @Test
+  public void testGenerateTokens() {
+    final TokenGenerator tokenGenerator = new TokenGenerator(new Random(0), new AuthProperties()
+        .setTokenSize(18));
+
+    final List<String> tokens = tokenGenerator.generate(100);
+
+    assertThat(tokens).hasSize(100);
+    assertThat(tokens).allSatisfy(token -> assertThat(token).hasSize(24));
+    assertThat(tokens).doesNotHaveDuplicates();
+  }
+
+  @Test
+  public void testGenerateToken_pooled() {
+    final TokenGenerator tokenGenerator = new TokenGenerator(new Random(0), new AuthProperties()
+        .setTokenSize(18)
+        .setTokenEntropy(TokenEntropy.POOLED)
+        .setTokenEntropyBatchSize(3));
+
+    // spans several refills of each batch
+    final List<String> tokens = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      tokens.add(tokenGenerator.generate());
+    }
+
+    assertThat(tokens).allSatisfy(token -> assertThat(token).matches("[A-Za-z0-9_-]{24}"));
+    assertThat(tokens).doesNotHaveDuplicates();
+  }
+
+  @Test
+  public void testGenerateTokens_pooled() {
+    final TokenGenerator tokenGenerator = new TokenGenerator(new Random(0), new AuthProperties()
+        .setTokenSize(18)
+        .setTokenEntropy(TokenEntropy.POOLED)
+        .setTokenEntropyBatchSize(7));
+
+    final List<String> tokens = tokenGenerator.generate(100);
+
+    assertThat(tokens).hasSize(100);
+    assertThat(tokens).allSatisfy(token -> assertThat(token).matches("[A-Za-z0-9_-]{24}"));
+    assertThat(tokens).doesNotHaveDuplicates();
+  }
+
+  @Test
+  public void testGenerateTokens_pooledConcurrently() throws Exception {
+    final TokenGenerator tokenGenerator = new TokenGenerator(new Random(0), new AuthProperties()
+        .setTokenSize(18)
+        .setTokenEntropy(TokenEntropy.POOLED)
+        .setTokenEntropyBatchSize(16));
+
+    final ExecutorService executorService = Executors.newFixedThreadPool(8);
+    try {
+      final List<Callable<List<String>>> tasks = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        tasks.add(() -> {
+          final List<String> generated = new ArrayList<>(tokenGenerator.generate(500));
+          for (int j = 0; j < 500; j++) {
+            generated.add(tokenGenerator.generate());
+          }
+          return generated;
+        });
+      }
+
+      final Set<String> tokens = new HashSet<>();
+      for (Future<List<String>> result : executorService.invokeAll(tasks)) {
+        tokens.addAll(result.get());
+      }
+
+      assertThat(tokens).hasSize(16 * 1000);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
 }
\ No newline at end of file
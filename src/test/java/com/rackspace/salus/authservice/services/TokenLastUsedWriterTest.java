@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.LastUsedProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenLastUsedWriterTest {
+
+  private EnvoyTokenBatchRepository batchRepository;
+  private MeterRegistry meterRegistry;
+  private TokenLastUsedWriter writer;
+
+  @Before
+  public void setUp() {
+    batchRepository = mock(EnvoyTokenBatchRepository.class);
+    meterRegistry = new SimpleMeterRegistry();
+    writer = new TokenLastUsedWriter(batchRepository,
+        new LastUsedProperties().setMaxPending(3).setBatchSize(2), meterRegistry);
+  }
+
+  @Test
+  public void testRecordCoalescesByToken() {
+    final UUID tokenId = UUID.randomUUID();
+    final Instant earlier = Instant.parse("2020-01-01T00:00:00Z");
+    final Instant later = Instant.parse("2020-01-01T00:00:10Z");
+
+    writer.record(tokenId, later);
+    writer.record(tokenId, earlier);
+
+    assertThat(writer.pendingCount()).isEqualTo(1);
+
+    writer.flush();
+
+    verify(batchRepository).updateLastUsed(List.of(tokenId), later);
+    verifyNoMoreInteractions(batchRepository);
+
+    assertThat(writer.pendingCount()).isZero();
+    assertThat(meterRegistry.get("tokenLastUsedFlushed").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFlushBatchesBySecond() {
+    final Instant lastUsed = Instant.parse("2020-01-01T00:00:00Z");
+    final UUID token1 = UUID.randomUUID();
+    final UUID token2 = UUID.randomUUID();
+    final UUID token3 = UUID.randomUUID();
+
+    writer.record(token1, lastUsed.plusMillis(100));
+    writer.record(token2, lastUsed.plusMillis(200));
+    writer.record(token3, lastUsed.plusMillis(300));
+
+    writer.flush();
+
+    // batch size of 2 requires two statements for the three tokens used within the same second
+    verify(batchRepository, times(2)).updateLastUsed(anyCollection(), eq(lastUsed));
+    verify(batchRepository).updateLastUsed(argThat(ids -> ids.size() == 2), eq(lastUsed));
+    verify(batchRepository).updateLastUsed(argThat(ids -> ids.size() == 1), eq(lastUsed));
+
+    assertThat(meterRegistry.get("tokenLastUsedFlushed").counter().count()).isEqualTo(3);
+  }
+
+  @Test
+  public void testRecordDropsWhenFull() {
+    for (int i = 0; i < 4; i++) {
+      writer.record(UUID.randomUUID());
+    }
+
+    assertThat(writer.pendingCount()).isEqualTo(3);
+    assertThat(meterRegistry.get("tokenLastUsedPending").gauge().value()).isEqualTo(3);
+    assertThat(meterRegistry.get("tokenLastUsedDropped").counter().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFlushRetainsFailedUpdates() {
+    final UUID tokenId = UUID.randomUUID();
+    when(batchRepository.updateLastUsed(any(), any()))
+        .thenThrow(new IllegalStateException("fake"))
+        .thenReturn(1);
+
+    writer.record(tokenId);
+    writer.flush();
+
+    assertThat(writer.pendingCount()).isEqualTo(1);
+    assertThat(meterRegistry.get("tokenLastUsedFailed").counter().count()).isEqualTo(1);
+
+    writer.flush();
+
+    assertThat(writer.pendingCount()).isZero();
+    verify(batchRepository, times(2)).updateLastUsed(eq(List.of(tokenId)), any());
+  }
+
+  @Test
+  public void testStopFlushesPending() {
+    writer.start();
+    writer.record(UUID.randomUUID());
+
+    writer.stop();
+
+    assertThat(writer.isRunning()).isFalse();
+    verify(batchRepository).updateLastUsed(anyCollection(), any());
+  }
+
+  @Test
+  public void testFlushWithNothingPending() {
+    writer.flush();
+
+    verify(batchRepository, never()).updateLastUsed(any(), any());
+  }
+}
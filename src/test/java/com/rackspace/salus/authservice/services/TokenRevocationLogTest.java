@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.RevocationLogProperties;
+import com.rackspace.salus.authservice.config.SignedTokenProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.authservice.repositories.TokenRevocationRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+/**
+ * Each {@link TokenRevocationLog} stands in for an instance of the service, all of which share
+ * the embedded database.
+ */
+public class TokenRevocationLogTest {
+
+  private EmbeddedDatabase database;
+  private JdbcTemplate jdbcTemplate;
+  private EnvoyTokenBatchRepository batchRepository;
+  private Clock clock;
+  private RevocationLogProperties properties;
+  private SignedTokenCodec signedTokenCodec;
+  private SimpleMeterRegistry meterRegistry;
+
+  @Before
+  public void setUp() {
+    database = new EmbeddedDatabaseBuilder()
+        .setType(EmbeddedDatabaseType.H2)
+        .generateUniqueName(true)
+        .addScript("classpath:revocation-schema.sql")
+        .build();
+    jdbcTemplate = new JdbcTemplate(database);
+    batchRepository = mock(EnvoyTokenBatchRepository.class);
+    clock = mock(Clock.class);
+    when(clock.instant())
+        .thenReturn(Instant.parse("2020-01-01T00:00:00Z"));
+    properties = new RevocationLogProperties()
+        .setEnabled(true)
+        .setPageSize(2);
+    signedTokenCodec = new SignedTokenCodec(new Random(0), new SignedTokenProperties());
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @After
+  public void tearDown() {
+    database.shutdown();
+  }
+
+  @Test
+  public void testRevocationsAppliedByAllNodes() {
+    final List<String> revokedA = new ArrayList<>();
+    final List<String> revokedB = new ArrayList<>();
+    final TokenRevocationLog nodeA = startNode(revokedA);
+    final TokenRevocationLog nodeB = startNode(revokedB);
+    final List<UUID> ids = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+    when(batchRepository.deleteAllById(ids))
+        .thenReturn(3);
+
+    assertThat(nodeA.deleteAndRevoke(ids, List.of("token-1", "token-2", "token-3")))
+        .isEqualTo(3);
+
+    // applied across multiple pages
+    assertThat(nodeA.poll()).isEqualTo(3);
+    assertThat(nodeB.poll()).isEqualTo(3);
+    assertThat(revokedA).containsExactly("token-1", "token-2", "token-3");
+    assertThat(revokedB).containsExactly("token-1", "token-2", "token-3");
+
+    // and only once
+    assertThat(nodeB.poll()).isZero();
+    assertThat(meterRegistry.get("tokenRevocationsApplied").counter().count()).isEqualTo(6);
+  }
+
+  @Test
+  public void testRevocationsPriorToStartNotApplied() {
+    final TokenRevocationRepository revocationRepository = newRepository();
+    revocationRepository.append(List.of("token-1"), false);
+
+    final List<String> revoked = new ArrayList<>();
+    final TokenRevocationLog node = startNode(revoked);
+    revocationRepository.append(List.of("token-2"), false);
+
+    assertThat(node.isCaughtUp()).isTrue();
+    assertThat(node.poll()).isEqualTo(1);
+    assertThat(revoked).containsExactly("token-2");
+  }
+
+  @Test
+  public void testSignedRevocationsAppliedWhenVerifyingSignedTokens() {
+    signedTokenCodec = new SignedTokenCodec(new Random(0), new SignedTokenProperties()
+        .setKeys(List.of("c2VjcmV0LWtleS0xLWZvci10ZXN0aW5nLXB1cnBvc2Vz")));
+    final TokenRevocationRepository revocationRepository = newRepository();
+    revocationRepository.append(List.of("sha256:s1.a", "s1.b.c.d", "sha256:s1.e"), true);
+    revocationRepository.append(List.of("token-1"), false);
+
+    final List<String> revoked = new ArrayList<>();
+    // applied across multiple pages before the node is started
+    final TokenRevocationLog node = startNode(revoked);
+    assertThat(node.isCaughtUp()).isTrue();
+    assertThat(revoked).containsExactly("sha256:s1.a", "s1.b.c.d", "sha256:s1.e");
+
+    // later revocations of either kind are then tailed
+    node.deleteAndRevoke(List.of(UUID.randomUUID()), List.of("token-2", "sha256:s1.f"));
+    assertThat(node.poll()).isEqualTo(2);
+    assertThat(revoked).containsExactlyInAnyOrder(
+        "sha256:s1.a", "s1.b.c.d", "sha256:s1.e", "token-2", "sha256:s1.f");
+  }
+
+  @Test
+  public void testRevocationCommittedOutOfOrder() {
+    final List<String> revoked = new ArrayList<>();
+    final TokenRevocationLog node = startNode(revoked);
+
+    // ID 1 was allocated first, but its transaction commits after that of ID 2
+    insertRevocation(2, "token-2");
+    assertThat(node.poll()).isEqualTo(1);
+
+    insertRevocation(1, "token-1");
+    assertThat(node.poll()).isEqualTo(1);
+    assertThat(revoked).containsExactly("token-2", "token-1");
+    assertThat(node.poll()).isZero();
+  }
+
+  @Test
+  public void testRevocationGapExpires() {
+    final List<String> revoked = new ArrayList<>();
+    final TokenRevocationLog node = startNode(revoked);
+
+    insertRevocation(2, "token-2");
+    assertThat(node.poll()).isEqualTo(1);
+
+    when(clock.instant())
+        .thenReturn(Instant.parse("2020-01-01T00:00:00Z")
+            .plus(properties.getGapTimeout()).plusSeconds(1));
+    assertThat(node.poll()).isZero();
+    assertThat(meterRegistry.get("tokenRevocationGapsExpired").counter().count()).isEqualTo(1);
+
+    // a rolled back transaction would never commit, but if it did it is no longer looked for
+    insertRevocation(1, "token-1");
+    assertThat(node.poll()).isZero();
+    assertThat(revoked).containsExactly("token-2");
+  }
+
+  @Test
+  public void testDisabled() {
+    final TokenRevocationRepository revocationRepository = mock(TokenRevocationRepository.class);
+    final TokenRevocationLog node = new TokenRevocationLog(batchRepository,
+        revocationRepository, new RevocationLogProperties(), signedTokenCodec, meterRegistry,
+        clock);
+    final List<UUID> ids = List.of(UUID.randomUUID());
+
+    node.start();
+    node.deleteAndRevoke(ids, List.of("token-1"));
+    node.stop();
+
+    verify(batchRepository).deleteAllById(ids);
+    verifyZeroInteractions(revocationRepository);
+  }
+
+  @Test
+  public void testRemoveExpired() {
+    final TokenRevocationRepository revocationRepository = newRepository();
+    final Timestamp twoDaysAgo = Timestamp.from(Instant.now().minus(Duration.ofDays(2)));
+    jdbcTemplate.update(
+        "insert into envoy_token_revocations (token_key, signed_token, revoked_at)"
+            + " values (?, ?, ?)",
+        "token-1", false, twoDaysAgo);
+    jdbcTemplate.update(
+        "insert into envoy_token_revocations (token_key, signed_token, revoked_at)"
+            + " values (?, ?, ?)",
+        "sha256:s1.a", true, twoDaysAgo);
+    revocationRepository.append(List.of("token-2"), false);
+
+    assertThat(revocationRepository.deleteOpaqueRevokedBefore(
+        Instant.now().minus(Duration.ofDays(1))))
+        .isEqualTo(1);
+    // signed tokens never expire, so neither do their revocations
+    assertThat(revocationRepository.findAfter(0, 10))
+        .extracting(TokenRevocationRepository.Revocation::getTokenKey)
+        .containsExactly("sha256:s1.a", "token-2");
+  }
+
+  private TokenRevocationLog startNode(Collection<String> revoked) {
+    // polled directly by the tests rather than started, which would also schedule polling
+    final TokenRevocationLog node = new TokenRevocationLog(batchRepository,
+        newRepository(), properties, signedTokenCodec, meterRegistry, clock);
+    node.addRevocationListener(revoked::addAll);
+    node.initialize();
+    return node;
+  }
+
+  private TokenRevocationRepository newRepository() {
+    return new TokenRevocationRepository(jdbcTemplate);
+  }
+
+  private void insertRevocation(long id, String tokenKey) {
+    jdbcTemplate.update(
+        "insert into envoy_token_revocations (id, token_key, signed_token, revoked_at)"
+            + " values (?, ?, ?, ?)",
+        id, tokenKey, false, Timestamp.from(Instant.now()));
+  }
+}
@@ -23,8 +23,12 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.rackspace.salus.authservice.config.AuthProperties;
 import com.rackspace.salus.authservice.config.CacheConfig;
 import com.rackspace.salus.authservice.config.CacheProperties;
+import com.rackspace.salus.authservice.config.ReadReplicaProperties;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
 import com.rackspace.salus.telemetry.entities.EnvoyToken;
 import com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository;
 import java.util.Optional;
@@ -46,17 +50,40 @@ import uk.co.jemos.podam.api.PodamFactoryImpl;
     CacheConfig.class,
     MeterRegistryConfig.class,
     TokenService.class,
+    TokenDigester.class,
 })
 @AutoConfigureCache(cacheProvider = CacheType.JCACHE)
-@EnableConfigurationProperties({CacheProperties.class})
+@EnableConfigurationProperties({CacheProperties.class, AuthProperties.class,
+    TokenStorageProperties.class, ReadReplicaProperties.class})
 public class TokenServiceCacheTest {
 
   @MockBean
   EnvoyTokenRepository envoyTokenRepository;
 
+  @MockBean
+  EnvoyTokenBatchRepository batchRepository;
+
   @MockBean
   TokenGenerator tokenGenerator;
 
+  @MockBean
+  TokenLastUsedWriter lastUsedWriter;
+
+  @MockBean
+  InvalidTokenGuard invalidTokenGuard;
+
+  @MockBean
+  SharedTokenCache sharedTokenCache;
+
+  @MockBean
+  SignedTokenCodec signedTokenCodec;
+
+  @MockBean
+  SignedTokenValidator signedTokenValidator;
+
+  @MockBean
+  TokenRevocationLog revocationLog;
+
   @Autowired
   TokenService tokenService;
 
@@ -128,4 +155,25 @@ public class TokenServiceCacheTest {
     verify(envoyTokenRepository, times(2))
         .findByToken(token.getToken());
   }
+
+  @Test
+  public void testDeleteDuringValidationNotCached() {
+    final EnvoyToken token = podamFactory.manufacturePojo(EnvoyToken.class);
+
+    when(envoyTokenRepository.findByIdAndTenantId(any(), any()))
+        .thenReturn(Optional.of(token));
+    when(envoyTokenRepository.findByToken(any()))
+        .thenAnswer(invocation -> {
+          // deleted after the lookup read the token, but before the validation cached it
+          tokenService.delete(token.getTenantId(), token.getId());
+          return Optional.of(token);
+        })
+        .thenReturn(Optional.empty());
+
+    assertThat(tokenService.validate(token.getToken())).isEqualTo(token.getTenantId());
+
+    assertThat(tokenService.validate(token.getToken())).isNull();
+    verify(envoyTokenRepository, times(2))
+        .findByToken(token.getToken());
+  }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.CacheConfig;
+import com.rackspace.salus.authservice.config.ReadReplicaProperties;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.authservice.web.model.EnvoyTokenDTO;
+import com.rackspace.salus.telemetry.entities.EnvoyToken;
+import com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+
+public class TokenServiceHashedStorageTest {
+
+  private EnvoyTokenRepository repository;
+  private EnvoyTokenBatchRepository batchRepository;
+  private TokenGenerator tokenGenerator;
+  private InvalidTokenGuard invalidTokenGuard;
+  private SharedTokenCache sharedTokenCache;
+  private TokenStorageProperties storageProperties;
+  private TokenDigester tokenDigester;
+  private Cache tokenCache;
+  private TokenService tokenService;
+
+  @Before
+  public void setUp() {
+    repository = mock(EnvoyTokenRepository.class);
+    batchRepository = mock(EnvoyTokenBatchRepository.class);
+    tokenGenerator = mock(TokenGenerator.class);
+    invalidTokenGuard = mock(InvalidTokenGuard.class);
+    sharedTokenCache = mock(SharedTokenCache.class);
+    storageProperties = new TokenStorageProperties().setHashed(true);
+    tokenDigester = new TokenDigester(storageProperties);
+    final ConcurrentMapCacheManager cacheManager =
+        new ConcurrentMapCacheManager(CacheConfig.TOKEN_VALIDATION);
+    tokenCache = cacheManager.getCache(CacheConfig.TOKEN_VALIDATION);
+
+    tokenService = new TokenService(cacheManager, new SimpleMeterRegistry(), repository,
+        batchRepository, new AuthProperties(), tokenGenerator,
+        tokenDigester, mock(SignedTokenCodec.class), mock(SignedTokenValidator.class),
+        mock(TokenLastUsedWriter.class), invalidTokenGuard, sharedTokenCache,
+        mock(TokenRevocationLog.class), new ReadReplicaProperties());
+  }
+
+  @Test
+  public void testAllocate_storesDigest() {
+    when(tokenGenerator.generate())
+        .thenReturn("token-1");
+    when(repository.save(any()))
+        .then(invocationOnMock -> invocationOnMock.getArgument(0));
+
+    final EnvoyToken allocated = tokenService.allocate("t-1", "host");
+
+    // the token value is only returned upon allocation
+    assertThat(allocated.getToken()).isEqualTo("token-1");
+    verify(repository).save(argThat(envoyToken ->
+        envoyToken.getToken().equals(tokenDigester.digest("token-1"))));
+    verify(invalidTokenGuard).recordAllocated(tokenDigester.digest("token-1"));
+  }
+
+  @Test
+  public void testGetOne_digestOmitted() {
+    final UUID hashedId = UUID.randomUUID();
+    final UUID plaintextId = UUID.randomUUID();
+    when(batchRepository.findTokenOfTenant("t-1", hashedId))
+        .thenReturn(Optional.of(new EnvoyTokenDTO().setId(hashedId)
+            .setToken(tokenDigester.digest("token-1")).setTenantId("t-1")));
+    when(batchRepository.findTokenOfTenant("t-1", plaintextId))
+        .thenReturn(Optional.of(new EnvoyTokenDTO().setId(plaintextId)
+            .setToken("token-2").setTenantId("t-1")));
+
+    // a digest can't be used as a token
+    assertThat(tokenService.getOne("t-1", hashedId).getToken()).isNull();
+    // not converted yet
+    assertThat(tokenService.getOne("t-1", plaintextId).getToken()).isEqualTo("token-2");
+  }
+
+  @Test
+  public void testValidate_digest() {
+    storageProperties.setPlaintextLookup(false);
+    final String digest = tokenDigester.digest("token-1");
+    when(repository.findByToken(digest))
+        .thenReturn(Optional.of(new EnvoyToken().setId(UUID.randomUUID())
+            .setToken(digest).setTenantId("t-1")));
+
+    assertThat(tokenService.validate("token-1")).isEqualTo("t-1");
+
+    verify(repository, never()).findByToken("token-1");
+    // the plaintext token is not retained in the caches
+    assertThat(tokenCache.get("token-1")).isNull();
+    assertThat(tokenCache.get(digest, String.class)).isEqualTo("t-1");
+    verify(sharedTokenCache).put(digest, "t-1");
+  }
+
+  @Test
+  public void testValidate_notYetConverted() {
+    when(repository.findByToken("token-1"))
+        .thenReturn(Optional.of(new EnvoyToken().setId(UUID.randomUUID())
+            .setToken("token-1").setTenantId("t-1")));
+
+    assertThat(tokenService.validate("token-1")).isEqualTo("t-1");
+
+    assertThat(tokenCache.get(tokenDigester.digest("token-1"), String.class)).isEqualTo("t-1");
+  }
+
+  @Test
+  public void testDelete_notYetConverted() {
+    final String digest = tokenDigester.digest("token-1");
+    final EnvoyToken token = new EnvoyToken().setId(UUID.randomUUID())
+        .setToken("token-1").setTenantId("t-1");
+    when(repository.findByIdAndTenantId(token.getId(), "t-1"))
+        .thenReturn(Optional.of(token));
+    tokenCache.put(digest, "t-1");
+
+    tokenService.delete("t-1", token.getId());
+
+    assertThat(tokenCache.get(digest)).isNull();
+    verify(sharedTokenCache).invalidate(List.of(digest));
+  }
+}
@@ -20,16 +20,32 @@ import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.rackspace.salus.authservice.config.AuthProperties;
+import com.rackspace.salus.authservice.config.ReadReplicaProperties;
+import com.rackspace.salus.authservice.config.ReplicaRouting;
+import com.rackspace.salus.authservice.config.TokenStorageProperties;
+import com.rackspace.salus.authservice.repositories.EnvoyTokenBatchRepository;
+import com.rackspace.salus.authservice.web.model.EnvoyTokenDTO;
 import com.rackspace.salus.telemetry.entities.EnvoyToken;
 import com.rackspace.salus.telemetry.model.NotFoundException;
 import com.rackspace.salus.telemetry.repositories.EnvoyTokenRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
@@ -38,6 +54,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.cache.CacheType;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.test.autoconfigure.core.AutoConfigureCache;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
@@ -45,7 +62,6 @@ import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 import org.springframework.test.context.junit4.SpringRunner;
 import uk.co.jemos.podam.api.PodamFactory;
 import uk.co.jemos.podam.api.PodamFactoryImpl;
@@ -53,23 +69,56 @@ import uk.co.jemos.podam.api.PodamFactoryImpl;
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes = {
     MeterRegistryConfig.class,
-    TokenService.class
+    TokenService.class,
+    TokenDigester.class
 })
 // Ensure CacheManager is available
 @EnableCaching
 // ...but using no-op cache
 @AutoConfigureCache(cacheProvider = CacheType.NONE)
+@EnableConfigurationProperties({AuthProperties.class, TokenStorageProperties.class,
+    ReadReplicaProperties.class})
 public class TokenServiceTest {
 
   @MockBean
   EnvoyTokenRepository envoyTokenRepository;
 
+  @MockBean
+  EnvoyTokenBatchRepository batchRepository;
+
   @MockBean
   TokenGenerator tokenGenerator;
 
+  @MockBean
+  TokenLastUsedWriter lastUsedWriter;
+
+  @MockBean
+  InvalidTokenGuard invalidTokenGuard;
+
+  @MockBean
+  SharedTokenCache sharedTokenCache;
+
+  @MockBean
+  SignedTokenCodec signedTokenCodec;
+
+  @MockBean
+  SignedTokenValidator signedTokenValidator;
+
+  @MockBean
+  TokenRevocationLog revocationLog;
+
   @Autowired
   TokenService tokenService;
 
+  @Autowired
+  AuthProperties authProperties;
+
+  @Autowired
+  MeterRegistry meterRegistry;
+
+  @Autowired
+  ReadReplicaProperties readReplicaProperties;
+
   private final PodamFactory podamFactory = new PodamFactoryImpl();
 
   @Test
@@ -98,6 +147,8 @@ public class TokenServiceTest {
 
     verify(tokenGenerator).generate();
 
+    verify(invalidTokenGuard).recordAllocated(tokenValue);
+
     verify(envoyTokenRepository).save(argThat(arg -> {
       assertThat(arg).isEqualToIgnoringGivenFields(
           new EnvoyToken()
@@ -111,6 +162,39 @@ public class TokenServiceTest {
 
   }
 
+  @Test
+  public void testAllocateBulk() {
+    final String tenantId = randomAlphanumeric(10);
+    final List<String> tokenValues = List.of(randomAlphanumeric(24), randomAlphanumeric(24));
+
+    when(tokenGenerator.generate(2))
+        .thenReturn(tokenValues);
+
+    final List<EnvoyToken> tokens = tokenService.allocateBulk(tenantId, "hosts", 2);
+
+    assertThat(tokens).extracting(EnvoyToken::getToken).isEqualTo(tokenValues);
+    assertThat(tokens).allSatisfy(token -> {
+      assertThat(token.getTenantId()).isEqualTo(tenantId);
+      assertThat(token.getDescription()).isEqualTo("hosts");
+    });
+
+    verify(batchRepository).insertAll(tokens);
+    verify(invalidTokenGuard).recordAllocated(tokenValues.get(0));
+    verify(invalidTokenGuard).recordAllocated(tokenValues.get(1));
+    verify(envoyTokenRepository, never()).save(any());
+  }
+
+  @Test
+  public void testAllocateBulk_overLimit() {
+    assertThatThrownBy(() -> tokenService.allocateBulk("t-1", "hosts", 1001))
+        .isInstanceOf(BulkAllocationLimitException.class);
+    assertThatThrownBy(() -> tokenService.allocateBulk("t-1", "hosts", 0))
+        .isInstanceOf(BulkAllocationLimitException.class);
+
+    verify(tokenGenerator, never()).generate(anyInt());
+    verify(batchRepository, never()).insertAll(any());
+  }
+
   @Test
   public void testValidate_exists() {
     final EnvoyToken envoyToken = podamFactory.manufacturePojo(EnvoyToken.class);
@@ -125,6 +209,94 @@ public class TokenServiceTest {
     assertThat(tenantId).isEqualTo(envoyToken.getTenantId());
 
     verify(envoyTokenRepository).findByToken(tokenValue);
+
+    verify(lastUsedWriter).record(envoyToken.getId());
+    verify(envoyTokenRepository, never()).save(any());
+    verify(sharedTokenCache).put(tokenValue, envoyToken.getTenantId());
+  }
+
+  @Test
+  public void testValidate_countsResults() {
+    // the counters are registered up front rather than upon first use
+    final Counter valid = meterRegistry.get("tokenValidations").tag("result", "valid").counter();
+    final Counter invalid = meterRegistry.get("tokenValidations").tag("result", "invalid").counter();
+    final double validBefore = valid.count();
+    final double invalidBefore = invalid.count();
+    final EnvoyToken envoyToken = podamFactory.manufacturePojo(EnvoyToken.class);
+
+    when(envoyTokenRepository.findByToken(envoyToken.getToken()))
+        .thenReturn(Optional.of(envoyToken));
+
+    tokenService.validate(envoyToken.getToken());
+    tokenService.validate(randomAlphanumeric(24));
+    tokenService.validate(randomAlphanumeric(24));
+
+    assertThat(valid.count()).isEqualTo(validBefore + 1);
+    assertThat(invalid.count()).isEqualTo(invalidBefore + 2);
+  }
+
+  @Test
+  public void testValidate_replicaMissRetriedOnPrimary() {
+    final EnvoyToken envoyToken = podamFactory.manufacturePojo(EnvoyToken.class);
+
+    // the token has only reached the primary
+    when(envoyTokenRepository.findByToken(envoyToken.getToken()))
+        .thenAnswer(invocation -> ReplicaRouting.isPrimaryRequired() ?
+            Optional.of(envoyToken) : Optional.empty());
+
+    readReplicaProperties.setEnabled(true);
+    try {
+      assertThat(tokenService.validate(envoyToken.getToken()))
+          .isEqualTo(envoyToken.getTenantId());
+    } finally {
+      readReplicaProperties.setEnabled(false);
+    }
+
+    verify(envoyTokenRepository, times(2)).findByToken(envoyToken.getToken());
+  }
+
+  @Test
+  public void testValidate_replicaMissFinalWithoutLag() {
+    final String tokenValue = randomAlphanumeric(10);
+    when(envoyTokenRepository.findByToken(tokenValue))
+        .thenReturn(Optional.empty());
+
+    readReplicaProperties.setEnabled(true);
+    ReplicaRouting.setReplicaLagging(false);
+    try {
+      assertThat(tokenService.validate(tokenValue)).isNull();
+    } finally {
+      readReplicaProperties.setEnabled(false);
+      ReplicaRouting.setReplicaLagging(true);
+    }
+
+    // not repeated on the primary
+    verify(envoyTokenRepository).findByToken(tokenValue);
+  }
+
+  @Test
+  public void testValidate_timedBySource() {
+    final Timer database = meterRegistry.get("tokenValidation").tag("source", "database").timer();
+    final long before = database.count();
+
+    tokenService.validate(randomAlphanumeric(24));
+
+    assertThat(database.count()).isEqualTo(before + 1);
+  }
+
+  @Test
+  public void testValidate_sharedTier() {
+    final String tokenValue = randomAlphanumeric(24);
+
+    when(sharedTokenCache.get(any()))
+        .thenReturn("t-1");
+
+    final String tenantId = tokenService.validate(tokenValue);
+
+    assertThat(tenantId).isEqualTo("t-1");
+
+    verify(sharedTokenCache).get(tokenValue);
+    verify(envoyTokenRepository, never()).findByToken(any());
   }
 
   @Test
@@ -139,22 +311,44 @@ public class TokenServiceTest {
     assertThat(tenantId).isNull();
 
     verify(envoyTokenRepository).findByToken(tokenValue);
+
+    verify(lastUsedWriter, never()).record(any());
+    verify(sharedTokenCache, never()).put(any(), any());
+    verify(invalidTokenGuard).recordInvalid(tokenValue);
+  }
+
+  @Test
+  public void testValidate_knownInvalid() {
+    final String tokenValue = randomAlphanumeric(24);
+
+    when(invalidTokenGuard.isKnownInvalid(any()))
+        .thenReturn(true);
+
+    final String tenantId = tokenService.validate(tokenValue);
+
+    assertThat(tenantId).isNull();
+
+    verify(invalidTokenGuard).isKnownInvalid(tokenValue);
+    verify(sharedTokenCache, never()).get(any());
+    verify(envoyTokenRepository, never()).findByToken(any());
   }
 
   @Test
   public void testGetOne_exists() {
-    final EnvoyToken envoyToken = podamFactory.manufacturePojo(EnvoyToken.class);
+    final EnvoyTokenDTO envoyToken = podamFactory.manufacturePojo(EnvoyTokenDTO.class);
 
-    when(envoyTokenRepository.findByIdAndTenantId(any(), any()))
+    when(batchRepository.findTokenOfTenant(any(), any()))
         .thenReturn(Optional.of(envoyToken));
 
-    final EnvoyToken result = tokenService.getOne(
+    final EnvoyTokenDTO result = tokenService.getOne(
         envoyToken.getTenantId(), envoyToken.getId());
 
     assertThat(result).isSameAs(envoyToken);
 
-    verify(envoyTokenRepository)
-        .findByIdAndTenantId(envoyToken.getId(), envoyToken.getTenantId());
+    verify(batchRepository)
+        .findTokenOfTenant(envoyToken.getTenantId(), envoyToken.getId());
+    // reads do not load the entity
+    verify(envoyTokenRepository, never()).findByIdAndTenantId(any(), any());
   }
 
   @Test
@@ -162,35 +356,85 @@ public class TokenServiceTest {
     final String tenantId = randomAlphanumeric(10);
     final UUID tokenId = UUID.randomUUID();
 
-    when(envoyTokenRepository.findByIdAndTenantId(any(), any()))
+    when(batchRepository.findTokenOfTenant(any(), any()))
         .thenReturn(Optional.empty());
 
     assertThatThrownBy(() -> {
       tokenService.getOne(tenantId, tokenId);
     }).isInstanceOf(NotFoundException.class);
 
-    verify(envoyTokenRepository)
-        .findByIdAndTenantId(tokenId, tenantId);
+    verify(batchRepository)
+        .findTokenOfTenant(tenantId, tokenId);
   }
 
   @Test
   public void testGetAll() {
     final String tenantId = randomAlphanumeric(10);
 
-    final List<EnvoyToken> tokens = IntStream.range(0, 10).mapToObj(value ->
-        podamFactory.manufacturePojo(EnvoyToken.class)
+    final List<EnvoyTokenDTO> tokens = IntStream.range(0, 10).mapToObj(value ->
+        podamFactory.manufacturePojo(EnvoyTokenDTO.class)
             .setTenantId(tenantId)
     )
         .collect(Collectors.toList());
 
-    when(envoyTokenRepository.findByTenantId(any(), any()))
+    when(batchRepository.findTokensOfTenant(any(), any()))
         .thenReturn(new PageImpl<>(tokens));
 
-    final Page<EnvoyToken> result = tokenService.getAll(tenantId, PageRequest.of(0, 10));
+    final Page<EnvoyTokenDTO> result = tokenService.getAll(tenantId, PageRequest.of(0, 10));
 
     assertThat(result.getContent()).isEqualTo(tokens);
 
-    verify(envoyTokenRepository).findByTenantId(tenantId, PageRequest.of(0,10));
+    verify(batchRepository).findTokensOfTenant(tenantId, PageRequest.of(0,10));
+  }
+
+  @Test
+  public void testList_continues() {
+    final String tenantId = randomAlphanumeric(10);
+
+    final Instant created = Instant.parse("2020-06-01T12:00:00.123456Z");
+    final List<EnvoyTokenDTO> tokens = IntStream.range(0, 3).mapToObj(value ->
+        podamFactory.manufacturePojo(EnvoyTokenDTO.class)
+            .setTenantId(tenantId)
+            .setCreatedTimestamp(created.plusSeconds(value))
+    )
+        .collect(Collectors.toList());
+
+    // one more than requested indicates there are more tokens
+    when(batchRepository.findTokensOfTenantAfter(any(), any(), any(), anyInt()))
+        .thenReturn(tokens);
+
+    final TokenListing first = tokenService.list(tenantId, null, 2);
+
+    assertThat(first.getContent()).isEqualTo(tokens.subList(0, 2));
+    assertThat(first.getNext()).isNotNull();
+    verify(batchRepository).findTokensOfTenantAfter(tenantId, null, null, 3);
+
+    when(batchRepository.findTokensOfTenantAfter(any(), any(), any(), anyInt()))
+        .thenReturn(tokens.subList(2, 3));
+
+    final TokenListing second = tokenService.list(tenantId, first.getNext(), 2);
+
+    assertThat(second.getContent()).isEqualTo(tokens.subList(2, 3));
+    assertThat(second.getNext()).isNull();
+    // continues after the last token of the first listing
+    verify(batchRepository).findTokensOfTenantAfter(tenantId,
+        tokens.get(1).getCreatedTimestamp(), tokens.get(1).getId(), 3);
+  }
+
+  @Test
+  public void testList_limitsSize() {
+    tokenService.list("t-1", null, 1_000_000);
+
+    verify(batchRepository).findTokensOfTenantAfter("t-1", null, null,
+        authProperties.getMaxTokenListingSize() + 1);
+  }
+
+  @Test
+  public void testList_invalidCursor() {
+    assertThatThrownBy(() -> tokenService.list("t-1", "not-a-cursor", 10))
+        .isInstanceOf(InvalidListingCursorException.class);
+
+    verify(batchRepository, never()).findTokensOfTenantAfter(any(), any(), any(), anyInt());
   }
 
   @Test
@@ -255,7 +499,32 @@ public class TokenServiceTest {
     verify(envoyTokenRepository)
         .findByIdAndTenantId(envoyToken.getId(), envoyToken.getTenantId());
 
-    verify(envoyTokenRepository).delete(envoyToken);
+    verify(revocationLog)
+        .deleteAndRevoke(List.of(envoyToken.getId()), List.of(envoyToken.getToken()));
+    verify(sharedTokenCache).invalidate(List.of(envoyToken.getToken()));
+  }
+
+  @Test
+  public void testDelete_invalidationRepeatedAfterReplicaLag() {
+    final EnvoyToken envoyToken = podamFactory.manufacturePojo(EnvoyToken.class);
+
+    when(envoyTokenRepository.findByIdAndTenantId(any(), any()))
+        .thenReturn(Optional.of(envoyToken));
+
+    readReplicaProperties.setEnabled(true)
+        .setMaxLag(Duration.ofMillis(50))
+        .setLagCheckInterval(Duration.ofMillis(50));
+    try {
+      tokenService.delete(envoyToken.getTenantId(), envoyToken.getId());
+
+      // validations reading a lagging replica may have cached the token again in between
+      verify(sharedTokenCache, timeout(5000).times(2))
+          .invalidate(List.of(envoyToken.getToken()));
+    } finally {
+      readReplicaProperties.setEnabled(false)
+          .setMaxLag(Duration.ofSeconds(5))
+          .setLagCheckInterval(Duration.ofSeconds(5));
+    }
   }
 
   @Test
@@ -271,7 +540,7 @@ public class TokenServiceTest {
     }).isInstanceOf(NotFoundException.class);
 
     verify(envoyTokenRepository).findByIdAndTenantId(tokenId, tenantId);
-    verify(envoyTokenRepository, never()).delete(any());
+    verify(revocationLog, never()).deleteAndRevoke(any(), any());
   }
 
   @Test
@@ -283,14 +552,53 @@ public class TokenServiceTest {
     )
         .collect(Collectors.toList());
 
-    when(envoyTokenRepository.findByTenantId(any(), any()))
-        .thenReturn(new PageImpl(tokens));
+    final Map<UUID, String> chunk1 = tokenValues(tokens.subList(0, 5));
+    final Map<UUID, String> chunk2 = tokenValues(tokens.subList(5, 10));
+    when(batchRepository.findTokenValuesOfTenant(any(), anyInt()))
+        .thenReturn(chunk1, chunk2, Map.of());
+    when(revocationLog.deleteAndRevoke(any(), any()))
+        .thenReturn(5);
 
     tokenService.deleteAllForTenant(tenantId);
 
-    verify(envoyTokenRepository)
-        .findByTenantId(tenantId, Pageable.unpaged());
+    verify(batchRepository, times(3)).findTokenValuesOfTenant(tenantId, 500);
+    verify(revocationLog).deleteAndRevoke(chunk1.keySet(), List.copyOf(chunk1.values()));
+    verify(revocationLog).deleteAndRevoke(chunk2.keySet(), List.copyOf(chunk2.values()));
+    verify(sharedTokenCache).invalidate(List.copyOf(chunk1.values()));
+    verify(sharedTokenCache).invalidate(List.copyOf(chunk2.values()));
+
+    verify(envoyTokenRepository, never()).findByTenantId(any(), any());
+    verify(envoyTokenRepository, never()).deleteAllByTenantId(any());
+  }
+
+  @Test
+  public void testDeleteAllForTenant_timeLimit() {
+    final String tenantId = randomAlphanumeric(10);
+    final Map<UUID, String> chunk = tokenValues(List.of(
+        podamFactory.manufacturePojo(EnvoyToken.class).setTenantId(tenantId)));
+    // the tenant has an endless supply of tokens
+    when(batchRepository.findTokenValuesOfTenant(any(), anyInt()))
+        .thenReturn(chunk);
+    when(revocationLog.deleteAndRevoke(any(), any()))
+        .thenReturn(1);
+
+    final Duration timeLimit = authProperties.getDeleteAllTimeLimit();
+    authProperties.setDeleteAllTimeLimit(Duration.ZERO);
+    try {
+      assertThatThrownBy(() -> tokenService.deleteAllForTenant(tenantId))
+          .isInstanceOf(DeletionIncompleteException.class)
+          .hasMessageContaining("Deleted 1 tokens");
+    } finally {
+      authProperties.setDeleteAllTimeLimit(timeLimit);
+    }
+
+    // the first chunk is always deleted
+    verify(revocationLog).deleteAndRevoke(chunk.keySet(), List.copyOf(chunk.values()));
+  }
 
-    verify(envoyTokenRepository).deleteAllByTenantId(tenantId);
+  private static Map<UUID, String> tokenValues(List<EnvoyToken> tokens) {
+    final Map<UUID, String> tokenValues = new LinkedHashMap<>();
+    tokens.forEach(token -> tokenValues.put(token.getId(), token.getToken()));
+    return tokenValues;
   }
 }
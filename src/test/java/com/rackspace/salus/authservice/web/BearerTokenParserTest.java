@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+
+/**
+ * Verifies that {@link BearerTokenParser} accepts and rejects exactly the same header values as
+ * the regular expression it replaced.
+ */
+public class BearerTokenParserTest {
+
+  private static final Pattern authorizationPattern = Pattern.compile(
+      "^Bearer (?<token>[a-zA-Z0-9-._~+/]+)=*$",
+      Pattern.CASE_INSENSITIVE);
+
+  private static final String MALFORMED = "<malformed>";
+
+  private static final String[] PREFIXES = {
+      "", "Bearer ", "bearer ", "BEARER ", "bEaReR ", "Bearer", "Bearer  ", "Bearer\t", "Bearerx",
+      "Bear", "Basic ", " Bearer ", "Bearer=", "B\u0131arer ", "\u212Aearer "
+  };
+
+  private static final char[] ALPHABET = {
+      'a', 'Z', '0', '-', '.', '_', '~', '+', '/', '=', ' ', '!', '\n', '\u00E9', '\uD83D'
+  };
+
+  @Test
+  public void testTypicalTokens() {
+    assertThat(BearerTokenParser.parse("Bearer abcdefghijklmnopqrstuvwx"))
+        .isEqualTo("abcdefghijklmnopqrstuvwx");
+    assertThat(BearerTokenParser.parse("bearer abc-_~+/.123=="))
+        .isEqualTo("abc-_~+/.123");
+    assertThat(BearerTokenParser.parse(null)).isNull();
+    assertThat(BearerTokenParser.parse("Basic dXNlcjpwYXNz")).isNull();
+
+    assertThatThrownBy(() -> BearerTokenParser.parse("Bearer"))
+        .isInstanceOf(BadCredentialsException.class);
+    assertThatThrownBy(() -> BearerTokenParser.parse("Bearer ==="))
+        .isInstanceOf(BadCredentialsException.class);
+    assertThatThrownBy(() -> BearerTokenParser.parse("Bearer abc=def"))
+        .isInstanceOf(BadCredentialsException.class);
+  }
+
+  @Test
+  public void testEveryCharacterInEveryPosition() {
+    final String header = "Bearer ab=";
+    for (int position = 0; position < header.length(); position++) {
+      for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+        final char[] chars = header.toCharArray();
+        chars[position] = (char) c;
+        assertEquivalent(new String(chars));
+      }
+    }
+  }
+
+  @Test
+  public void testAllSuffixCombinations() {
+    final List<String> suffixes = new ArrayList<>();
+    suffixes.add("");
+    int start = 0;
+    for (int length = 1; length <= 4; length++) {
+      final int end = suffixes.size();
+      for (int i = start; i < end; i++) {
+        for (char c : ALPHABET) {
+          suffixes.add(suffixes.get(i) + c);
+        }
+      }
+      start = end;
+    }
+
+    for (String prefix : PREFIXES) {
+      for (String suffix : suffixes) {
+        assertEquivalent(prefix + suffix);
+      }
+    }
+  }
+
+  @Test
+  public void testRandomHeaders() {
+    final Random random = new Random(0);
+    for (int i = 0; i < 100_000; i++) {
+      final StringBuilder header = new StringBuilder(PREFIXES[random.nextInt(PREFIXES.length)]);
+      final int length = random.nextInt(40);
+      for (int j = 0; j < length; j++) {
+        header.append(random.nextInt(10) == 0 ?
+            (char) random.nextInt(Character.MAX_VALUE + 1) :
+            ALPHABET[random.nextInt(ALPHABET.length)]);
+      }
+      assertEquivalent(header.toString());
+    }
+  }
+
+  private static void assertEquivalent(String authorization) {
+    assertThat(parse(authorization))
+        .as("parsing of %s", authorization)
+        .isEqualTo(parseWithPattern(authorization));
+  }
+
+  private static String parse(String authorization) {
+    try {
+      return BearerTokenParser.parse(authorization);
+    } catch (BadCredentialsException e) {
+      return MALFORMED;
+    }
+  }
+
+  /**
+   * The original implementation from {@link EnvoyTokenAuthFilter}
+   */
+  private static String parseWithPattern(String authorization) {
+    if (org.springframework.util.StringUtils.startsWithIgnoreCase(authorization, "bearer")) {
+      Matcher matcher = authorizationPattern.matcher(authorization);
+
+      if (!matcher.matches()) {
+        return MALFORMED;
+      }
+
+      return matcher.group("token");
+    }
+    else {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rackspace.salus.authservice.services.TokenService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class EnvoyTokenAuthFilterTest {
+
+  private TokenService tokenService;
+  private SimpleMeterRegistry meterRegistry;
+  private EnvoyTokenAuthFilter filter;
+
+  @Before
+  public void setUp() {
+    tokenService = mock(TokenService.class);
+    meterRegistry = new SimpleMeterRegistry();
+    filter = new EnvoyTokenAuthFilter(tokenService,
+        new TokenBucketRateLimiter(2, 0.1, 100),
+        new TokenBucketRateLimiter(2, 0.1, 100),
+        meterRegistry);
+  }
+
+  @After
+  public void tearDown() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  public void testFailuresThrottledByAddress() throws Exception {
+    assertThat(perform("10.0.0.1", "bad-token").getStatus()).isEqualTo(401);
+    assertThat(perform("10.0.0.1", "bad-token").getStatus()).isEqualTo(401);
+
+    final MockHttpServletResponse throttled = perform("10.0.0.1", "bad-token");
+    assertThat(throttled.getStatus()).isEqualTo(429);
+    assertThat(throttled.getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("10");
+
+    // throttled before the token is validated
+    verify(tokenService, times(2)).validate("bad-token");
+    // ...while other addresses are not
+    assertThat(perform("10.0.0.2", "bad-token").getStatus()).isEqualTo(401);
+    assertThat(meterRegistry.get("authRequestsThrottled").tag("key", "address").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testSuccessesNotThrottledByAddress() throws Exception {
+    when(tokenService.validate("good-token"))
+        .thenReturn("t-1");
+    when(tokenService.validate("other-token"))
+        .thenReturn("t-2");
+
+    assertThat(perform("10.0.0.1", "good-token").getStatus()).isEqualTo(200);
+    assertThat(perform("10.0.0.1", "good-token").getStatus()).isEqualTo(200);
+
+    // but are throttled by tenant
+    final MockHttpServletResponse throttled = perform("10.0.0.1", "good-token");
+    assertThat(throttled.getStatus()).isEqualTo(429);
+    assertThat(perform("10.0.0.1", "other-token").getStatus()).isEqualTo(200);
+    assertThat(meterRegistry.get("authRequestsThrottled").tag("key", "tenant").counter().count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testNoAuthorizationNotThrottled() throws Exception {
+    perform("10.0.0.1", "bad-token");
+    perform("10.0.0.1", "bad-token");
+
+    final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v1.0/cert");
+    request.setRemoteAddr("10.0.0.1");
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(request, response, new MockFilterChain());
+
+    // requests without a token, such as those proxied by the public API, are not limited
+    assertThat(response.getStatus()).isEqualTo(200);
+    // ...nor timed
+    assertThat(meterRegistry.get("envoyTokenAuthentication").timer().count()).isEqualTo(2);
+  }
+
+  @Test
+  public void testAuthenticationTimed() throws Exception {
+    when(tokenService.validate("good-token"))
+        .thenReturn("t-1");
+
+    perform("10.0.0.1", "good-token");
+    perform("10.0.0.1", "bad-token");
+
+    assertThat(meterRegistry.get("envoyTokenAuthentication").timer().count()).isEqualTo(2);
+  }
+
+  private MockHttpServletResponse perform(String remoteAddr, String tokenValue)
+      throws Exception {
+    final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/v1.0/cert");
+    request.setRemoteAddr(remoteAddr);
+    request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + tokenValue);
+    final MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(request, response, new MockFilterChain());
+    return response;
+  }
+}
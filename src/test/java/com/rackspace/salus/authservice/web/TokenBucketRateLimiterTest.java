@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020 Rackspace US, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.rackspace.salus.authservice.web;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class TokenBucketRateLimiterTest {
+
+  private final AtomicLong nanoTime = new AtomicLong(1_000_000);
+
+  @Test
+  public void testBurstThenRefill() {
+    final TokenBucketRateLimiter limiter =
+        new TokenBucketRateLimiter(3, 2, 100, nanoTime::get);
+
+    assertThat(limiter.tryAcquire("a")).isZero();
+    assertThat(limiter.tryAcquire("a")).isZero();
+    assertThat(limiter.tryAcquire("a")).isZero();
+    assertThat(limiter.tryAcquire("a")).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+    assertThat(limiter.peek("a")).isEqualTo(TimeUnit.MILLISECONDS.toNanos(500));
+
+    // other keys have their own bucket
+    assertThat(limiter.tryAcquire("b")).isZero();
+    assertThat(limiter.peek("c")).isZero();
+
+    nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+    assertThat(limiter.peek("a")).isZero();
+    assertThat(limiter.tryAcquire("a")).isZero();
+    assertThat(limiter.tryAcquire("a")).isGreaterThan(0);
+  }
+
+  @Test
+  public void testIdleBucketsEvicted() {
+    final TokenBucketRateLimiter limiter =
+        new TokenBucketRateLimiter(1, 1, 2, nanoTime::get);
+
+    limiter.tryAcquire("a");
+    limiter.tryAcquire("b");
+    assertThat(limiter.bucketCount()).isEqualTo(2);
+
+    // too many active buckets, so new keys are not limited
+    assertThat(limiter.tryAcquire("c")).isZero();
+    assertThat(limiter.tryAcquire("c")).isZero();
+    assertThat(limiter.bucketCount()).isEqualTo(2);
+
+    // once refilled, the buckets are idle and can be evicted
+    nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(2));
+    assertThat(limiter.tryAcquire("c")).isZero();
+    assertThat(limiter.bucketCount()).isEqualTo(1);
+    assertThat(limiter.tryAcquire("c")).isGreaterThan(0);
+  }
+}
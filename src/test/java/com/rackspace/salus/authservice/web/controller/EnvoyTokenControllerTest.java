@@ -17,19 +17,29 @@
 package com.rackspace.salus.authservice.web.controller;
 
 import static org.apache.commons.lang3.RandomStringUtils.randomAlphanumeric;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rackspace.salus.authservice.services.BulkAllocationLimitException;
+import com.rackspace.salus.authservice.services.InvalidListingCursorException;
+import com.rackspace.salus.authservice.services.TokenListing;
 import com.rackspace.salus.authservice.services.TokenService;
+import com.rackspace.salus.authservice.web.model.EnvoyTokenDTO;
 import com.rackspace.salus.telemetry.entities.EnvoyToken;
 import com.rackspace.salus.telemetry.repositories.TenantMetadataRepository;
 import com.rackspace.salus.telemetry.web.TenantVerification;
@@ -37,6 +47,7 @@ import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import org.junit.Test;
@@ -50,6 +61,7 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import uk.co.jemos.podam.api.PodamFactory;
 import uk.co.jemos.podam.api.PodamFactoryImpl;
 
@@ -127,12 +139,61 @@ public class EnvoyTokenControllerTest {
     verify(tokenService).allocate(token.getTenantId(), token.getDescription());
   }
 
+  @Test
+  public void testAllocateBulk() throws Exception {
+    final String tenantId = randomAlphanumeric(10);
+    final List<EnvoyToken> tokens = IntStream.range(0, 3).mapToObj(value ->
+        podamFactory.manufacturePojo(EnvoyToken.class)
+            .setTenantId(tenantId)
+    )
+        .collect(Collectors.toList());
+
+    when(tokenService.allocateBulk(any(), any(), anyInt()))
+        .thenReturn(tokens);
+
+    final Map<String, Object> request = Map.of("description", "hosts", "count", 3);
+
+    final MvcResult result = mvc.perform(
+        post("/api/tenant/{tenantId}/envoy-tokens/bulk", tenantId)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(request))
+    )
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    mvc.perform(asyncDispatch(result))
+        .andExpect(status().isCreated())
+        .andExpect(jsonPath("$.length()").value(3))
+        .andExpect(jsonPath("$[0].token").value(tokens.get(0).getToken()))
+        .andExpect(jsonPath("$[2].token").value(tokens.get(2).getToken()));
+
+    verify(tokenService).allocateBulk(tenantId, "hosts", 3);
+  }
+
+  @Test
+  public void testAllocateBulk_overLimit() throws Exception {
+    final String tenantId = randomAlphanumeric(10);
+
+    when(tokenService.allocateBulk(any(), any(), anyInt()))
+        .thenThrow(new BulkAllocationLimitException("too many"));
+
+    final Map<String, Object> request = Map.of("description", "hosts", "count", 5000);
+
+    mvc.perform(
+        post("/api/tenant/{tenantId}/envoy-tokens/bulk", tenantId)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(request))
+    )
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message", is("too many")));
+  }
+
   @Test
   public void testGetAll() throws Exception {
     final String tenantId = randomAlphanumeric(10);
 
-    final List<EnvoyToken> tokens = IntStream.range(0, 10).mapToObj(value ->
-        podamFactory.manufacturePojo(EnvoyToken.class)
+    final List<EnvoyTokenDTO> tokens = IntStream.range(0, 10).mapToObj(value ->
+        podamFactory.manufacturePojo(EnvoyTokenDTO.class)
             .setTenantId(tenantId)
     )
         .collect(Collectors.toList());
@@ -156,9 +217,85 @@ public class EnvoyTokenControllerTest {
     verify(tokenService).getAll(tenantId, PageRequest.of(0, 10));
   }
 
+  @Test
+  public void testList() throws Exception {
+    final String tenantId = randomAlphanumeric(10);
+
+    final List<EnvoyTokenDTO> tokens = IntStream.range(0, 2).mapToObj(value ->
+        podamFactory.manufacturePojo(EnvoyTokenDTO.class)
+            .setTenantId(tenantId)
+    )
+        .collect(Collectors.toList());
+
+    when(tokenService.list(any(), any(), anyInt()))
+        .thenReturn(new TokenListing(tokens, "next-cursor"));
+
+    mvc.perform(
+        get("/api/tenant/{tenantId}/envoy-tokens/listing?cursor=prev-cursor&size=2", tenantId)
+            .accept(MediaType.APPLICATION_JSON)
+    )
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.content.length()").value(2))
+        .andExpect(jsonPath("$.content[1].id").value(tokens.get(1).getId().toString()))
+        .andExpect(jsonPath("$.next").value("next-cursor"));
+
+    verify(tokenService).list(tenantId, "prev-cursor", 2);
+  }
+
+  @Test
+  public void testList_invalidCursor() throws Exception {
+    when(tokenService.list(any(), any(), anyInt()))
+        .thenThrow(new InvalidListingCursorException("Malformed token listing cursor"));
+
+    mvc.perform(
+        get("/api/tenant/{tenantId}/envoy-tokens/listing?cursor=bogus", "t-1")
+            .accept(MediaType.APPLICATION_JSON)
+    )
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message", is("Malformed token listing cursor")));
+
+    verify(tokenService).list("t-1", "bogus", 100);
+  }
+
+  @Test
+  public void testExport() throws Exception {
+    final String tenantId = randomAlphanumeric(10);
+
+    final List<EnvoyTokenDTO> tokens = IntStream.range(0, 3).mapToObj(value ->
+        podamFactory.manufacturePojo(EnvoyTokenDTO.class)
+            .setTenantId(tenantId)
+    )
+        .collect(Collectors.toList());
+
+    doAnswer(invocation -> {
+      final Consumer<EnvoyTokenDTO> consumer = invocation.getArgument(1);
+      tokens.forEach(consumer);
+      return null;
+    }).when(tokenService).export(any(), any());
+
+    final MvcResult result = mvc.perform(
+        get("/api/tenant/{tenantId}/envoy-tokens/export", tenantId)
+    )
+        .andExpect(request().asyncStarted())
+        .andReturn();
+
+    final String content = mvc.perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(EnvoyTokenController.APPLICATION_NDJSON_VALUE))
+        .andReturn().getResponse().getContentAsString();
+
+    final String[] lines = content.split("\n");
+    assertThat(content).endsWith("\n");
+    assertThat(lines).hasSize(3);
+    for (int i = 0; i < lines.length; i++) {
+      assertThat(objectMapper.readTree(lines[i]).get("id").asText())
+          .isEqualTo(tokens.get(i).getId().toString());
+    }
+  }
+
   @Test
   public void testGetOne() throws Exception {
-    final EnvoyToken token = podamFactory.manufacturePojo(EnvoyToken.class);
+    final EnvoyTokenDTO token = podamFactory.manufacturePojo(EnvoyTokenDTO.class);
 
     when(tokenService.getOne(any(), any()))
         .thenReturn(token);
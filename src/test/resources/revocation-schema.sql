@@ -0,0 +1,9 @@
+-- the schema of the TokenRevocation entity, for tests that use the revocation log without JPA
+create table envoy_token_revocations (
+  id bigint not null auto_increment primary key,
+  token_key varchar(255) not null,
+  signed_token boolean not null,
+  revoked_at timestamp not null
+);
+create index by_revoked_at on envoy_token_revocations (revoked_at);
+create index by_signed_token on envoy_token_revocations (signed_token, id);